@@ -0,0 +1,67 @@
+package photowatermark.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 合成：RenderPlan.drawWatermark 把已准备好的精灵画到整幅图上（只合成精灵包围盒与图像相交的区域）。
+ * 精灵已由计划缓存，这里只测合成本身；同一幅图反复绘制，每次的工作量相同。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+public class CompositeBenchmark {
+    @Param({"2", "12", "24", "100"})
+    public int megapixels;
+
+    @Param({"TEXT", "IMAGE"})
+    public String mode;
+
+    @Param({"0", "30"})
+    public double degrees;
+
+    private static final String TEXT = "2024-05-01";
+
+    private BufferedImage image;
+    private Engine.Plan plan;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        image = SyntheticImages.photo(megapixels);
+        Engine.Template t = new Engine.Template()
+                .set("mode", mode)
+                .set("position", "CENTER")
+                .set("rotationDegrees", degrees);
+        if ("TEXT".equals(mode)) {
+            t.set("text", TEXT).set("fontSize", 150).set("color", "#FFFFFF").set("textOpacity", 80)
+                    .set("shadow", true).set("stroke", true);
+        } else {
+            t.set("watermarkImagePath", SyntheticImages.tempPng(SyntheticImages.logo(1200, 400)).getPath())
+                    .set("watermarkScale", 0.5).set("watermarkOpacity", 80);
+        }
+        plan = t.compile();
+        plan.drawWatermark(image, image.getWidth(), image.getHeight(), TEXT); // 预先生成精灵
+    }
+
+    @Benchmark
+    public BufferedImage composite() {
+        plan.drawWatermark(image, image.getWidth(), image.getHeight(), TEXT);
+        return image;
+    }
+}
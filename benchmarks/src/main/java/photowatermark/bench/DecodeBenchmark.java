@@ -0,0 +1,52 @@
+package photowatermark.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 解码：与导入/导出相同的 InputBuffer → ImageDecoder 路径。
+ * subsampling &gt; 1 对应缩小导出时的解码期降采样。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+public class DecodeBenchmark {
+    @Param({"2", "12", "24", "100"})
+    public int megapixels;
+
+    @Param({"JPEG", "PNG"})
+    public String format;
+
+    @Param({"1", "4"})
+    public int subsampling;
+
+    private byte[] bytes;
+    private String name;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        bytes = SyntheticImages.encode(SyntheticImages.photo(megapixels), format, 90);
+        name = "synthetic." + ("PNG".equals(format) ? "png" : "jpg");
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return Engine.decode(name, bytes, subsampling);
+    }
+}
@@ -0,0 +1,73 @@
+package photowatermark.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 编码：RenderPlan 的编码路径（CodecRegistry 线程内复用的编码器 + 预建的 JPEG 参数），
+ * JPEG 取几档常用质量，另测 PNG。输出写入只计字节数的流，不涉及磁盘。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+public class EncodeBenchmark {
+    @Param({"2", "12", "24", "100"})
+    public int megapixels;
+
+    /** JPEG-质量 或 PNG */
+    @Param({"JPEG-50", "JPEG-75", "JPEG-90", "JPEG-100", "PNG"})
+    public String output;
+
+    private BufferedImage image;
+    private Engine.Plan plan;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        image = SyntheticImages.photo(megapixels);
+        Engine.Template t = new Engine.Template().set("mode", "TEXT");
+        if (output.startsWith("JPEG-")) {
+            t.set("outputFormat", "JPEG").set("jpegQuality", Integer.parseInt(output.substring(5)));
+        } else {
+            t.set("outputFormat", "PNG");
+        }
+        plan = t.compile();
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        CountingStream out = new CountingStream();
+        plan.encode(image, out);
+        return out.count;
+    }
+
+    private static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package photowatermark.bench;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * 访问渲染引擎的桥接层。引擎类位于默认包且多为包级可见，具名包无法直接引用，
+ * 这里通过 {@link MethodHandles#privateLookupIn} 在类路径（同一未命名模块）上绑定所需方法。
+ * 句柄在类加载时解析一次，基准循环中的调用开销与直接调用相当。
+ */
+final class Engine {
+    private static final MethodHandle TEMPLATE_NEW;
+    private static final MethodHandle SPEC_FROM_TEMPLATE;
+    private static final MethodHandle PLAN_COMPILE;
+    private static final MethodHandle DRAW_WATERMARK;
+    private static final MethodHandle FOR_OUTPUT;
+    private static final MethodHandle ENCODE;
+    private static final MethodHandle BUFFER_WRAP;
+    private static final MethodHandle DECODER_OPEN;
+    private static final MethodHandle SOURCE_DECODE;
+    private static final MethodHandle DECODED_IMAGE;
+    private static final MethodHandle RESAMPLER_BY_NAME;
+    private static final MethodHandle RESIZE;
+    private static final MethodHandle TEXT_SPRITE;
+    private static final MethodHandle SPRITE_IMAGE;
+    private static final MethodHandle CLEAR_TEXT_CACHE;
+    private static final MethodHandle LOGO_SPRITE;
+    private static final MethodHandle CLEAR_LOGO_CACHE;
+    private static final Class<?> TEMPLATE;
+
+    static {
+        try {
+            TEMPLATE = Class.forName("WatermarkTemplate");
+            Class<?> spec = Class.forName("WatermarkSpec");
+            Class<?> plan = Class.forName("RenderPlan");
+            Class<?> buffer = Class.forName("InputBuffer");
+            Class<?> decoder = Class.forName("ImageDecoder");
+            Class<?> source = Class.forName("ImageDecoder$Source");
+            Class<?> decoded = Class.forName("ImageDecoder$Decoded");
+            Class<?> resampler = Class.forName("Resampler");
+            Class<?> sprite = Class.forName("WatermarkSprite");
+            Class<?> assets = Class.forName("WatermarkAssetCache");
+
+            TEMPLATE_NEW = lookup(TEMPLATE).findConstructor(TEMPLATE, MethodType.methodType(void.class));
+            SPEC_FROM_TEMPLATE = lookup(spec).findStatic(spec, "fromTemplate", MethodType.methodType(spec, TEMPLATE));
+            PLAN_COMPILE = lookup(plan).findStatic(plan, "compile", MethodType.methodType(plan, spec));
+            DRAW_WATERMARK = lookup(plan).findVirtual(plan, "drawWatermark", MethodType.methodType(
+                    Rectangle.class, BufferedImage.class, int.class, int.class, String.class));
+            FOR_OUTPUT = lookup(plan).findVirtual(plan, "forOutput",
+                    MethodType.methodType(BufferedImage.class, BufferedImage.class));
+            ENCODE = lookup(plan).findVirtual(plan, "encode",
+                    MethodType.methodType(void.class, RenderedImage.class, OutputStream.class));
+            BUFFER_WRAP = lookup(buffer).findStatic(buffer, "wrap",
+                    MethodType.methodType(buffer, String.class, byte[].class));
+            DECODER_OPEN = lookup(decoder).findStatic(decoder, "open", MethodType.methodType(source, buffer));
+            SOURCE_DECODE = lookup(source).findVirtual(source, "decode", MethodType.methodType(decoded, int.class));
+            DECODED_IMAGE = lookup(decoded).findGetter(decoded, "image", BufferedImage.class);
+            RESAMPLER_BY_NAME = lookup(resampler).findStatic(resampler, "valueOf",
+                    MethodType.methodType(resampler, String.class));
+            RESIZE = lookup(resampler).findVirtual(resampler, "resize",
+                    MethodType.methodType(BufferedImage.class, BufferedImage.class, int.class, int.class));
+            TEXT_SPRITE = lookup(sprite).findStatic(sprite, "text", MethodType.methodType(sprite, String.class,
+                    Font.class, Color.class, Color.class, boolean.class, boolean.class, double.class));
+            SPRITE_IMAGE = lookup(sprite).findGetter(sprite, "image", BufferedImage.class);
+            CLEAR_TEXT_CACHE = lookup(sprite).findStatic(sprite, "clearCache", MethodType.methodType(void.class));
+            LOGO_SPRITE = lookup(assets).findStatic(assets, "logo", MethodType.methodType(sprite,
+                    File.class, double.class, double.class, int.class));
+            CLEAR_LOGO_CACHE = lookup(assets).findStatic(assets, "clear", MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Engine() { }
+
+    private static MethodHandles.Lookup lookup(Class<?> target) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(target, MethodHandles.lookup());
+    }
+
+    /** 编译后的 RenderPlan（以 Object 持有） */
+    static final class Plan {
+        private final Object plan;
+
+        private Plan(Object plan) {
+            this.plan = plan;
+        }
+
+        /** 在已缩放的图像上原地绘制水印，origW/origH 为原图尺寸 */
+        void drawWatermark(BufferedImage image, int origW, int origH, String text) {
+            try {
+                DRAW_WATERMARK.invoke(plan, image, origW, origH, text);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        /** 按输出格式编码到流，与导出时走同一条编码路径（含 JPEG 去 alpha） */
+        void encode(BufferedImage image, OutputStream out) throws IOException {
+            try {
+                ENCODE.invoke(plan, (BufferedImage) FOR_OUTPUT.invoke(plan, image), out);
+            } catch (IOException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+    }
+
+    /** 可设置字段的模板，对应 WatermarkTemplate（字段名与模板 JSON 相同） */
+    static final class Template {
+        private final Object template;
+
+        Template() {
+            try {
+                template = TEMPLATE_NEW.invoke();
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        Template set(String field, Object value) {
+            try {
+                Field f = TEMPLATE.getDeclaredField(field);
+                f.setAccessible(true);
+                f.set(template, value);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("模板字段无效: " + field, e);
+            }
+            return this;
+        }
+
+        Plan compile() throws IOException {
+            try {
+                return new Plan(PLAN_COMPILE.invoke(SPEC_FROM_TEMPLATE.invoke(template)));
+            } catch (IOException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+    }
+
+    /** 与导入时相同的解码路径：内存缓冲 → ImageDecoder，subsampling 为隔点取样步长 */
+    static BufferedImage decode(String name, byte[] bytes, int subsampling) throws IOException {
+        try {
+            Object buffer = BUFFER_WRAP.invoke(name, bytes);
+            try (Closeable source = (Closeable) DECODER_OPEN.invoke(buffer)) {
+                return (BufferedImage) DECODED_IMAGE.invoke(SOURCE_DECODE.invoke(source, subsampling));
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** Resampler 句柄，name 为枚举名 FAST / AREA / LANCZOS */
+    static Object resampler(String name) {
+        try {
+            return RESAMPLER_BY_NAME.invoke(name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static BufferedImage resize(Object resampler, BufferedImage src, int w, int h) {
+        try {
+            return (BufferedImage) RESIZE.invoke(resampler, src, w, h);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** 栅格化文字精灵；先清空精灵缓存，保证测到的是渲染而不是缓存命中 */
+    static BufferedImage rasterizeText(String text, Font font, Color color, Color shadowColor,
+                                       boolean shadow, boolean stroke, double rotationDegrees) {
+        try {
+            CLEAR_TEXT_CACHE.invoke();
+            return (BufferedImage) SPRITE_IMAGE.invoke(
+                    TEXT_SPRITE.invoke(text, font, color, shadowColor, shadow, stroke, rotationDegrees));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** 加载、缩放、旋转并预乘透明度的图片水印精灵；同样先清空缓存 */
+    static BufferedImage prepareLogo(File file, double scale, double rotationDegrees, int opacity)
+            throws IOException {
+        try {
+            CLEAR_LOGO_CACHE.invoke();
+            return (BufferedImage) SPRITE_IMAGE.invoke(LOGO_SPRITE.invoke(file, scale, rotationDegrees, opacity));
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,68 @@
+package photowatermark.bench;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 缩放：Resampler 的三种算法，与原先 getScaledInstance(SCALE_SMOOTH) + drawImage 的做法对照。
+ * factor 为输出边长相对原图的比例。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true"})
+public class ResizeBenchmark {
+    @Param({"2", "12", "24", "100"})
+    public int megapixels;
+
+    @Param({"0.5", "0.1"})
+    public double factor;
+
+    @Param({"SCALED_INSTANCE", "FAST", "AREA", "LANCZOS"})
+    public String algorithm;
+
+    private BufferedImage source;
+    private Object resampler;
+    private int width;
+    private int height;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = SyntheticImages.photo(megapixels);
+        width = Math.max(1, (int) Math.round(source.getWidth() * factor));
+        height = Math.max(1, (int) Math.round(source.getHeight() * factor));
+        resampler = "SCALED_INSTANCE".equals(algorithm) ? null : Engine.resampler(algorithm);
+    }
+
+    @Benchmark
+    public BufferedImage resize() {
+        if (resampler == null) return scaledInstance(source, width, height);
+        return Engine.resize(resampler, source, width, height);
+    }
+
+    // 引入 Resampler 之前的实现：AreaAveragingScaleFilter 管线，再画到新的 RGB 图上
+    private static BufferedImage scaledInstance(BufferedImage src, int w, int h) {
+        Image scaled = src.getScaledInstance(w, h, Image.SCALE_SMOOTH);
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        g.drawImage(scaled, 0, 0, null);
+        g.dispose();
+        return out;
+    }
+}
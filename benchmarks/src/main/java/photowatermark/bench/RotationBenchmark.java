@@ -0,0 +1,57 @@
+package photowatermark.bench;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 旋转：水印在编译计划时旋转进精灵，这里分别测文字精灵和图片水印精灵在不同角度下的准备开销。
+ * 图片水印包含读取 Logo 文件、缩放和预乘透明度，与 WatermarkAssetCache 未命中时一致。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RotationBenchmark {
+    @Param({"TEXT", "IMAGE"})
+    public String mode;
+
+    @Param({"0", "15", "45", "90"})
+    public double degrees;
+
+    private static final Font FONT = new Font(Font.SANS_SERIF, Font.BOLD, 96);
+    private static final Color TEXT_COLOR = new Color(255, 255, 255, 204);
+    private static final Color SHADOW_COLOR = new Color(0, 0, 0, 120);
+
+    private File logo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        logo = SyntheticImages.tempPng(SyntheticImages.logo(1200, 400));
+    }
+
+    @Benchmark
+    public BufferedImage rotate() throws IOException {
+        if ("TEXT".equals(mode)) {
+            return Engine.rasterizeText("PhotoWatermark 2024", FONT, TEXT_COLOR, SHADOW_COLOR, true, false, degrees);
+        }
+        return Engine.prepareLogo(logo, 0.5, degrees, 80);
+    }
+}
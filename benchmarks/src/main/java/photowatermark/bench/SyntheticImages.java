@@ -0,0 +1,109 @@
+package photowatermark.bench;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * 基准用的合成图片，在 setup 阶段生成，无需任何外部素材即可离线运行。
+ * 内容是平滑渐变 + 色块与线条 + 轻微噪点，接近照片的可压缩性：
+ * 纯色图会让编解码快得不真实，纯噪点又会让 JPEG/PNG 体积失真。
+ * 同一尺寸与种子每次生成的像素完全相同，便于不同版本之间对比。
+ */
+final class SyntheticImages {
+    private SyntheticImages() { }
+
+    /** 3:2 画幅、约 megapixels 百万像素的 TYPE_INT_RGB 图像 */
+    static BufferedImage photo(int megapixels) {
+        int w = (int) Math.round(Math.sqrt(megapixels * 1_000_000L * 1.5));
+        int h = (int) Math.round(megapixels * 1_000_000L / (double) w);
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] px = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        long seed = 0x9E3779B97F4A7C15L ^ megapixels;
+        for (int y = 0; y < h; y++) {
+            int row = y * w;
+            int g = 40 + 160 * y / h;
+            for (int x = 0; x < w; x++) {
+                seed ^= seed << 13; seed ^= seed >>> 7; seed ^= seed << 17; // xorshift64
+                int n = (int) (seed & 15) - 8;
+                int r = clamp(60 + 150 * x / w + n);
+                int b = clamp(200 - 120 * x / w + n);
+                px[row + x] = (r << 16) | (clamp(g + n) << 8) | b;
+            }
+        }
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        int unit = Math.max(1, Math.min(w, h) / 12);
+        for (int i = 0; i < 24; i++) {
+            g.setColor(new Color((i * 97) % 256, (i * 53 + 80) % 256, (i * 31 + 160) % 256, 160));
+            g.fillOval((i * 7 % 12) * w / 12, (i * 5 % 8) * h / 8, unit * (1 + i % 3), unit * (1 + i % 2));
+        }
+        g.setStroke(new BasicStroke(Math.max(1, unit / 40f)));
+        g.setColor(new Color(20, 20, 20));
+        for (int i = 0; i < 40; i++) {
+            g.drawLine(0, i * h / 40, w, (i * h / 40 + h / 3) % h);
+        }
+        g.dispose();
+        return img;
+    }
+
+    /** 带透明通道的 Logo 图（TYPE_INT_ARGB），用于图片水印 */
+    static BufferedImage logo(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(new Color(255, 255, 255, 200));
+        g.fillRoundRect(0, 0, width, height, height / 3, height / 3);
+        g.setColor(new Color(30, 90, 200));
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, height / 2));
+        g.drawString("LOGO", width / 8, height * 2 / 3);
+        g.dispose();
+        return img;
+    }
+
+    /** 编码为 JPEG（quality 1-100）或 PNG 字节，供解码基准使用 */
+    static byte[] encode(BufferedImage img, String format, int quality) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) throw new IOException("没有可用的编码器: " + format);
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if ("JPEG".equalsIgnoreCase(format)) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality / 100f);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /** 写到临时 PNG 文件（退出时删除），图片水印需要文件路径 */
+    static File tempPng(BufferedImage img) throws IOException {
+        File f = File.createTempFile("pw-bench-", ".png");
+        f.deleteOnExit();
+        ImageIO.write(img, "PNG", f);
+        return f;
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : Math.min(255, v);
+    }
+}
@@ -0,0 +1,47 @@
+package photowatermark.bench;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 文字水印栅格化：WatermarkSprite 在缓存未命中时的渲染开销，分别打开/关闭阴影与描边。
+ * 每次调用前清空精灵缓存；实际导出中同一样式只渲染一次，这里测的是首张图片或样式变化时的代价。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TextRasterBenchmark {
+    @Param({"36", "150"})
+    public int fontSize;
+
+    @Param({"false", "true"})
+    public boolean shadow;
+
+    @Param({"false", "true"})
+    public boolean stroke;
+
+    private static final String TEXT = "2024-05-01 水印 Watermark";
+    private static final Color TEXT_COLOR = new Color(255, 255, 255, 204);
+    private static final Color SHADOW_COLOR = new Color(0, 0, 0, 120);
+
+    @Benchmark
+    public BufferedImage rasterize() {
+        Font font = new Font(Font.SANS_SERIF, Font.BOLD, fontSize);
+        return Engine.rasterizeText(TEXT, font, TEXT_COLOR, SHADOW_COLOR, shadow, stroke, 0);
+    }
+}
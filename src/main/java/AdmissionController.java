@@ -0,0 +1,154 @@
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按堆内存预算控制导出任务的准入。每个任务先按文件头估算处理时需要的字节数，
+ * 只有在途任务的估算总和加上它仍不超过预算时才开始执行；单个任务超过整个预算时，
+ * 等没有其他任务在执行时单独运行。线程数只决定并行上限，真正的并发度由内存决定。
+ */
+public final class AdmissionController {
+    private final long budget;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private long inUse;       // 已准入任务的估算总和
+    private long peak;        // inUse 的历史最大值
+    private long queuedBytes; // 因放不下而排队的任务估算总和
+    private int blocked;      // 排队等待准入的任务数
+
+    public AdmissionController(long budgetBytes) {
+        this.budget = Math.max(1, budgetBytes);
+    }
+
+    /** 默认预算：最大堆的 60%，可用 -Dphotowatermark.heapBudget=字节数 覆盖 */
+    public static long defaultBudget() {
+        Long configured = Long.getLong("photowatermark.heapBudget");
+        if (configured != null && configured > 0) return configured;
+        long max = Runtime.getRuntime().maxMemory();
+        if (max == Long.MAX_VALUE) max = Runtime.getRuntime().totalMemory();
+        return (long) (max * 0.6);
+    }
+
+    /**
+     * 进程内共用的控制器（预算为 {@link #defaultBudget()}）：导出引擎与 HTTP 服务都从它准入，
+     * 同时运行多个引擎时合计也不超过同一份预算。
+     */
+    public static AdmissionController shared() {
+        return Shared.INSTANCE;
+    }
+
+    private static final class Shared {
+        static final AdmissionController INSTANCE = new AdmissionController(defaultBudget());
+    }
+
+    /** 放得下就立即占用预算并返回 true，否则不等待直接返回 false */
+    boolean tryAcquire(long bytes) {
+        lock.lock();
+        try {
+            if (!fits(bytes)) return false;
+            take(bytes);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 阻塞直到放得下（或没有任何在途任务）再占用预算 */
+    void acquire(long bytes) throws InterruptedException {
+        lock.lock();
+        try {
+            while (!fits(bytes)) {
+                released.await();
+            }
+            take(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(long bytes) {
+        lock.lock();
+        try {
+            inUse = Math.max(0, inUse - Math.max(0, bytes));
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 记录一个因预算不足而排队的任务 */
+    void enqueue(long bytes) {
+        lock.lock();
+        try {
+            blocked++;
+            queuedBytes += Math.max(0, bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 排队的任务离开队列（获准执行或被取消） */
+    void dequeue(long bytes) {
+        lock.lock();
+        try {
+            blocked = Math.max(0, blocked - 1);
+            queuedBytes = Math.max(0, queuedBytes - Math.max(0, bytes));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fits(long bytes) {
+        return inUse == 0 || inUse + Math.max(0, bytes) <= budget;
+    }
+
+    private void take(long bytes) {
+        inUse += Math.max(0, bytes);
+        peak = Math.max(peak, inUse);
+    }
+
+    public long getBudgetBytes() {
+        return budget;
+    }
+
+    public long getUsedBytes() {
+        lock.lock();
+        try {
+            return inUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getPeakBytes() {
+        lock.lock();
+        try {
+            return peak;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 预算利用率（单个超大任务单独运行时可能大于 1） */
+    public double getUtilisation() {
+        return getUsedBytes() / (double) budget;
+    }
+
+    public long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getBlockedJobs() {
+        lock.lock();
+        try {
+            return blocked;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
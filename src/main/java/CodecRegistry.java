@@ -0,0 +1,136 @@
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 编解码器注册表：按后缀/格式缓存 ImageIO 的 SPI，避免每张图片都遍历服务注册表；
+ * reader/writer 实例按线程复用（用完 reset() 后放回本线程的空闲列表），
+ * JPEG 写参数按质量预先构建并共享（编码器只读取参数，不会修改）。
+ */
+final class CodecRegistry {
+    private static final Map<String, List<ImageReaderSpi>> READERS_BY_SUFFIX = new ConcurrentHashMap<>();
+    private static final Map<String, ImageWriterSpi> WRITER_BY_FORMAT = new ConcurrentHashMap<>();
+    private static final Map<Integer, ImageWriteParam> JPEG_PARAMS = new ConcurrentHashMap<>();
+
+    // 每个线程各自的空闲实例；嵌套使用同一格式时会再创建一个，归还后一并复用
+    private static final ThreadLocal<Map<ImageReaderSpi, ArrayDeque<ImageReader>>> IDLE_READERS =
+            ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<ImageWriterSpi, ArrayDeque<ImageWriter>>> IDLE_WRITERS =
+            ThreadLocal.withInitial(HashMap::new);
+
+    private static volatile List<ImageReaderSpi> allReaders;
+
+    private CodecRegistry() { }
+
+    /**
+     * 为已打开的流取一个 reader：先按文件后缀匹配，后缀不符（如改了扩展名的 PNG）时再逐个探测全部 SPI。
+     * 用完必须调用 {@link #release(ImageReader)}。
+     */
+    static ImageReader reader(File file, ImageInputStream iis) throws IOException {
+        ImageReaderSpi spi = find(readersFor(suffix(file)), iis);
+        if (spi == null) spi = find(allReaders(), iis);
+        if (spi == null) throw new IOException("不支持的图片格式: " + file.getName());
+        ArrayDeque<ImageReader> idle = IDLE_READERS.get().get(spi);
+        ImageReader reader = idle != null ? idle.poll() : null;
+        return reader != null ? reader : spi.createReaderInstance();
+    }
+
+    static void release(ImageReader reader) {
+        reader.reset();
+        IDLE_READERS.get().computeIfAbsent(reader.getOriginatingProvider(), k -> new ArrayDeque<>()).push(reader);
+    }
+
+    /** 按格式名（如 "jpeg"、"png"）取一个 writer，用完必须调用 {@link #release(ImageWriter)} */
+    static ImageWriter writer(String format) throws IOException {
+        String key = format.toLowerCase(Locale.ROOT);
+        ImageWriterSpi spi = WRITER_BY_FORMAT.computeIfAbsent(key, CodecRegistry::lookupWriter);
+        if (spi == null) throw new IOException("没有可用的 " + format + " 编码器");
+        ArrayDeque<ImageWriter> idle = IDLE_WRITERS.get().get(spi);
+        ImageWriter writer = idle != null ? idle.poll() : null;
+        return writer != null ? writer : spi.createWriterInstance();
+    }
+
+    static void release(ImageWriter writer) {
+        writer.reset();
+        IDLE_WRITERS.get().computeIfAbsent(writer.getOriginatingProvider(), k -> new ArrayDeque<>()).push(writer);
+    }
+
+    /** 指定质量（1-100）的 JPEG 写参数，每个质量只构建一次 */
+    static ImageWriteParam jpegParam(int quality) {
+        int q = Math.max(1, Math.min(100, quality));
+        return JPEG_PARAMS.computeIfAbsent(q, k -> {
+            JPEGImageWriteParam param = new JPEGImageWriteParam(Locale.getDefault());
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(k / 100f);
+            return param;
+        });
+    }
+
+    private static ImageReaderSpi find(List<ImageReaderSpi> candidates, ImageInputStream iis) throws IOException {
+        for (ImageReaderSpi spi : candidates) {
+            if (spi.canDecodeInput(iis)) return spi;
+        }
+        return null;
+    }
+
+    private static List<ImageReaderSpi> readersFor(String suffix) {
+        if (suffix.isEmpty()) return List.of();
+        return READERS_BY_SUFFIX.computeIfAbsent(suffix, s -> {
+            List<ImageReaderSpi> list = new ArrayList<>();
+            for (ImageReaderSpi spi : allReaders()) {
+                String[] suffixes = spi.getFileSuffixes();
+                if (suffixes == null) continue;
+                for (String x : suffixes) {
+                    if (s.equalsIgnoreCase(x)) {
+                        list.add(spi);
+                        break;
+                    }
+                }
+            }
+            return list;
+        });
+    }
+
+    private static List<ImageReaderSpi> allReaders() {
+        List<ImageReaderSpi> list = allReaders;
+        if (list == null) {
+            list = new ArrayList<>();
+            Iterator<ImageReaderSpi> it = IIORegistry.getDefaultInstance().getServiceProviders(ImageReaderSpi.class, true);
+            while (it.hasNext()) list.add(it.next());
+            allReaders = list = List.copyOf(list);
+        }
+        return list;
+    }
+
+    private static ImageWriterSpi lookupWriter(String format) {
+        Iterator<ImageWriterSpi> it = IIORegistry.getDefaultInstance().getServiceProviders(ImageWriterSpi.class, true);
+        while (it.hasNext()) {
+            ImageWriterSpi spi = it.next();
+            for (String name : spi.getFormatNames()) {
+                if (format.equalsIgnoreCase(name)) return spi;
+            }
+        }
+        return null;
+    }
+
+    private static String suffix(File file) {
+        String n = file.getName();
+        int dot = n.lastIndexOf('.');
+        return dot == -1 ? "" : n.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * 导出与预览引擎的 JMX 管理接口，注册名为 {@code PhotoWatermark:type=Engine}，
+ * 可用 jconsole / VisualVM 连接进程实时查看与调整。实现见 {@link EngineMonitor}。
+ * 队列与线程为所有活动导出引擎（以及 HTTP 服务的渲染线程池）之和；内存预算是进程内共用的一份（{@link AdmissionController#shared()}）。
+ */
+public interface EngineMXBean {
+    /** 已提交、尚未开始处理的图片数 */
+    int getQueueDepth();
+
+    /** 正在处理图片的线程数 */
+    int getActiveWorkers();
+
+    /** 线程池大小（上限） */
+    int getWorkerPoolSize();
+
+    /** 活动中的导出引擎数量 */
+    int getActiveEngines();
+
+    /** 最近 1 分钟的平均处理速度（张/秒） */
+    double getImagesPerSecond1m();
+
+    /** 最近 5 分钟的平均处理速度（张/秒） */
+    double getImagesPerSecond5m();
+
+    /** 进程启动以来处理完成（含失败）的图片数 */
+    long getImagesProcessed();
+
+    /** 进程启动以来处理失败的图片数（含 HTTP 服务的失败请求） */
+    long getErrorCount();
+
+    /** 最近 5 分钟的失败数 */
+    long getErrorsLast5m();
+
+    /** HTTP 服务因渲染队列满而拒绝的请求数 */
+    long getRejectedRequests();
+
+    /** 水印精灵缓存（文字与图片水印）命中率，尚无访问时为 0 */
+    double getSpriteCacheHitRatio();
+
+    /** 缩略图命中率：直接取用内嵌缩略图（EXIF IFD1 或解码器读到的）、无需解码原图的比例 */
+    double getThumbnailCacheHitRatio();
+
+    /** 元数据缓存（尺寸、拍摄时间等文件头信息）命中率 */
+    double getMetadataCacheHitRatio();
+
+    /** 预览解码结果复用率 */
+    double getPreviewDecodeCacheHitRatio();
+
+    /** 已完成的预览渲染次数 */
+    long getPreviewRenders();
+
+    /** 最近一次预览渲染耗时（毫秒） */
+    double getLastPreviewMillis();
+
+    /** 内存准入预算（字节） */
+    long getHeapBudgetBytes();
+
+    /** 当前已分配给在途任务的预算（字节） */
+    long getHeapBudgetInUseBytes();
+
+    /** 内存预算利用率（0–1） */
+    double getHeapBudgetUtilisation();
+
+    /** 因内存预算不足而排队的任务数 */
+    int getMemoryBlockedJobs();
+
+    /** 运行时调整所有活动导出引擎与 HTTP 服务的线程数，之后新建的引擎不受影响 */
+    void resizeWorkers(int workers);
+
+    /** 清空水印精灵、元数据与预览缓存 */
+    void flushCaches();
+}
@@ -0,0 +1,271 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * {@link EngineMXBean} 的实现：汇总活动导出引擎、HTTP 服务与预览的运行状态。
+ * 第一个导出引擎、HTTP 服务或 GUI 预览创建时自动注册到平台 MBeanServer，注册失败（如安全策略限制）只是不能远程查看，不影响导出。
+ * 引擎以弱引用登记，漏调 shutdown 的实例也不会因此无法回收。
+ */
+final class EngineMonitor implements EngineMXBean {
+    static final String OBJECT_NAME = "PhotoWatermark:type=Engine";
+    private static final EngineMonitor INSTANCE = new EngineMonitor();
+
+    private final Set<ExportService> services = Collections.newSetFromMap(new WeakHashMap<>());
+    private final List<WatermarkServer> servers = new CopyOnWriteArrayList<>();
+    private final List<Runnable> flushHooks = new CopyOnWriteArrayList<>();
+    private final Meter completed = new Meter();
+    private final Meter errors = new Meter();
+    private final AtomicLong previewHits = new AtomicLong();
+    private final AtomicLong previewMisses = new AtomicLong();
+    private final AtomicLong previewRenders = new AtomicLong();
+    private volatile long lastPreviewNanos;
+    private boolean registered;
+
+    private EngineMonitor() { }
+
+    /** 最近 5 分钟按秒计数的环形窗口，用于滑动平均速率 */
+    private static final class Meter {
+        private static final int SECONDS = 300;
+        // 多一格给当前未满的一秒，过去完整的 300 秒各占一格、互不覆盖
+        private static final int SLOTS = SECONDS + 1;
+        private final long[] epoch = new long[SLOTS];
+        private final long[] counts = new long[SLOTS];
+        private final AtomicLong total = new AtomicLong();
+
+        void mark() {
+            total.incrementAndGet();
+            long now = System.nanoTime() / 1_000_000_000L;
+            int slot = Math.floorMod(now, SLOTS); // nanoTime 可以为负
+            synchronized (this) {
+                if (epoch[slot] != now) {
+                    epoch[slot] = now;
+                    counts[slot] = 0;
+                }
+                counts[slot]++;
+            }
+        }
+
+        /** 最近 seconds 秒（不含当前未满的一秒，最多 {@link #SECONDS} 秒）内的计数 */
+        synchronized long count(int seconds) {
+            long now = System.nanoTime() / 1_000_000_000L;
+            long sum = 0;
+            for (int i = 0; i < SLOTS; i++) {
+                long age = now - epoch[i];
+                if (age >= 1 && age <= seconds) sum += counts[i];
+            }
+            return sum;
+        }
+
+        double rate(int seconds) {
+            return count(seconds) / (double) seconds;
+        }
+
+        long total() {
+            return total.get();
+        }
+    }
+
+    // ---- 登记 ----
+
+    static void track(ExportService service) {
+        synchronized (INSTANCE) {
+            INSTANCE.services.add(service);
+            INSTANCE.register();
+        }
+    }
+
+    static void untrack(ExportService service) {
+        synchronized (INSTANCE) {
+            INSTANCE.services.remove(service);
+        }
+    }
+
+    static void track(WatermarkServer server) {
+        INSTANCE.servers.add(server);
+        synchronized (INSTANCE) {
+            INSTANCE.register();
+        }
+    }
+
+    static void untrack(WatermarkServer server) {
+        INSTANCE.servers.remove(server);
+    }
+
+    /** 登记 flushCaches 时额外执行的清理（如 GUI 的预览缓存），并确保 MBean 已注册 */
+    static void onFlush(Runnable hook) {
+        INSTANCE.flushHooks.add(hook);
+        synchronized (INSTANCE) {
+            INSTANCE.register();
+        }
+    }
+
+    private void register() {
+        if (registered) return;
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            System.err.println("无法注册 JMX 监控: " + e);
+        }
+    }
+
+    private List<ExportService> services() {
+        synchronized (INSTANCE) {
+            return new ArrayList<>(services);
+        }
+    }
+
+    // ---- 计数 ----
+
+    /** 导出或 HTTP 渲染处理完一张图片 */
+    static void imageFinished(boolean failed) {
+        INSTANCE.completed.mark();
+        if (failed) INSTANCE.errors.mark();
+    }
+
+    /** 预览取解码结果：hit 为复用了上次的解码 */
+    static void previewDecode(boolean hit) {
+        (hit ? INSTANCE.previewHits : INSTANCE.previewMisses).incrementAndGet();
+    }
+
+    static void previewRendered(long nanos) {
+        INSTANCE.previewRenders.incrementAndGet();
+        INSTANCE.lastPreviewNanos = nanos;
+    }
+
+    // ---- EngineMXBean ----
+
+    @Override public int getQueueDepth() {
+        int n = 0;
+        for (ExportService s : services()) n += s.getQueueDepth();
+        for (WatermarkServer s : servers) n += s.getQueueDepth();
+        return n;
+    }
+
+    @Override public int getActiveWorkers() {
+        int n = 0;
+        for (ExportService s : services()) n += s.getActiveWorkers();
+        for (WatermarkServer s : servers) n += s.getActiveRenders();
+        return n;
+    }
+
+    @Override public int getWorkerPoolSize() {
+        int n = 0;
+        for (ExportService s : services()) n += s.getWorkers();
+        for (WatermarkServer s : servers) n += s.getWorkers();
+        return n;
+    }
+
+    @Override public int getActiveEngines() {
+        return services().size() + servers.size();
+    }
+
+    @Override public double getImagesPerSecond1m() {
+        return completed.rate(60);
+    }
+
+    @Override public double getImagesPerSecond5m() {
+        return completed.rate(300);
+    }
+
+    @Override public long getImagesProcessed() {
+        return completed.total();
+    }
+
+    @Override public long getErrorCount() {
+        return errors.total();
+    }
+
+    @Override public long getErrorsLast5m() {
+        return errors.count(300);
+    }
+
+    @Override public long getRejectedRequests() {
+        long n = 0;
+        for (WatermarkServer s : servers) n += s.rejected.get();
+        return n;
+    }
+
+    @Override public double getSpriteCacheHitRatio() {
+        return ratio(WatermarkSprite.cacheHits() + WatermarkAssetCache.hits(),
+                WatermarkSprite.cacheMisses() + WatermarkAssetCache.misses());
+    }
+
+    @Override public double getThumbnailCacheHitRatio() {
+        return ratio(ThumbnailLoader.hits(), ThumbnailLoader.misses());
+    }
+
+    @Override public double getMetadataCacheHitRatio() {
+        return ratio(MetadataCache.hits(), MetadataCache.misses());
+    }
+
+    @Override public double getPreviewDecodeCacheHitRatio() {
+        return ratio(previewHits.get(), previewMisses.get());
+    }
+
+    @Override public long getPreviewRenders() {
+        return previewRenders.get();
+    }
+
+    @Override public double getLastPreviewMillis() {
+        return lastPreviewNanos / 1e6;
+    }
+
+    // 引擎默认共用同一个控制器，去重后再汇总
+    private Set<AdmissionController> admissions() {
+        Set<AdmissionController> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.add(AdmissionController.shared());
+        for (ExportService s : services()) set.add(s.getAdmission());
+        for (WatermarkServer s : servers) set.add(s.getAdmission());
+        return set;
+    }
+
+    @Override public long getHeapBudgetBytes() {
+        return AdmissionController.shared().getBudgetBytes();
+    }
+
+    @Override public long getHeapBudgetInUseBytes() {
+        long n = 0;
+        for (AdmissionController a : admissions()) n += a.getUsedBytes();
+        return n;
+    }
+
+    @Override public double getHeapBudgetUtilisation() {
+        long budget = getHeapBudgetBytes();
+        return budget <= 0 ? 0 : getHeapBudgetInUseBytes() / (double) budget;
+    }
+
+    @Override public int getMemoryBlockedJobs() {
+        int n = 0;
+        for (AdmissionController a : admissions()) n += a.getBlockedJobs();
+        return n;
+    }
+
+    @Override public void resizeWorkers(int workers) {
+        if (workers < 1) throw new IllegalArgumentException("线程数至少为 1: " + workers);
+        for (ExportService s : services()) s.setWorkers(workers);
+        for (WatermarkServer s : servers) s.setWorkers(workers);
+    }
+
+    @Override public void flushCaches() {
+        WatermarkSprite.clearCache();
+        WatermarkAssetCache.clear();
+        MetadataCache.clear();
+        for (WatermarkServer s : servers) s.clearPlans();
+        for (Runnable hook : flushHooks) hook.run();
+    }
+
+    private static double ratio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0 : hits / (double) total;
+    }
+}
@@ -0,0 +1,302 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * 轻量 EXIF 探测：JPEG 只顺着段头跳到 APP1(Exif) 与 SOF，TIFF 只读 IFD0 与 Exif 子 IFD，
+ * 取到拍摄时间、方向、机型和尺寸即停止，不解析 XMP、ICC、厂商备注等其余元数据。
+ * 只支持 JPEG 与 TIFF，其他格式 {@link #probe} 返回 null，由调用方回退到 metadata-extractor。
+ * {@link #probeWithThumbnail} 另外读 IFD1，取出相机写入的 JPEG 缩略图（通常 160x120，几 KB）。
+ */
+final class ExifProbe {
+    /** EXIF 日期时间格式（DateTimeFormatter 不可变，可在线程间共享） */
+    static final DateTimeFormatter EXIF_DATE_TIME = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss", Locale.ROOT);
+    private static final DateTimeFormatter EXIF_DATE = DateTimeFormatter.ofPattern("yyyy:MM:dd", Locale.ROOT);
+
+    private static final int TAG_IMAGE_WIDTH = 0x0100;
+    private static final int TAG_IMAGE_LENGTH = 0x0101;
+    private static final int TAG_MODEL = 0x0110;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATETIME_ORIGINAL = 0x9003;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201; // JPEGInterchangeFormat
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202; // JPEGInterchangeFormatLength
+    private static final int MAX_IFD_ENTRIES = 1024;
+    private static final int MAX_THUMBNAIL_BYTES = 256 * 1024;
+
+    LocalDateTime dateTimeOriginal; // 拍摄时间，无或无法解析时为 null
+    int orientation;                // EXIF 方向 1-8，0 表示未知
+    String model;                   // 相机型号
+    int width;                      // 像素尺寸，0 表示未知
+    int height;
+    byte[] thumbnail;               // IFD1 中的 JPEG 缩略图，仅 probeWithThumbnail 读取，没有时为 null
+
+    private final boolean wantThumbnail;
+    private long thumbnailOffset;   // 缩略图在文件中的绝对位置
+    private long thumbnailLength;
+
+    private ExifProbe(boolean wantThumbnail) {
+        this.wantThumbnail = wantThumbnail;
+    }
+
+    static ExifProbe probe(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return probe(new ChannelBytes(ch), false);
+        }
+    }
+
+    /** 同 {@link #probe(File)}，并读出 IFD1 的嵌入缩略图（只多读目录项与缩略图本身） */
+    static ExifProbe probeWithThumbnail(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return probe(new ChannelBytes(ch), true);
+        }
+    }
+
+    /** 从已读入的文件探测，不产生额外 I/O */
+    static ExifProbe probe(InputBuffer buffer) throws IOException {
+        return probe(new BufferBytes(buffer.bytes()), false);
+    }
+
+    /** 解析 EXIF 日期时间字符串；格式不完整时退而只取日期部分，都失败返回 null */
+    static LocalDateTime parseDateTime(String value) {
+        if (value == null) return null;
+        String s = value.trim();
+        try {
+            if (s.length() >= 19) return LocalDateTime.parse(s.substring(0, 19), EXIF_DATE_TIME);
+        } catch (DateTimeParseException ignore) {
+            // 时间部分缺失或为空格占位时只取日期
+        }
+        try {
+            if (s.length() >= 10) return LocalDate.parse(s.substring(0, 10), EXIF_DATE).atStartOfDay();
+        } catch (DateTimeParseException ignore) {
+            // 无效日期（如 "0000:00:00"）
+        }
+        return null;
+    }
+
+    private static ExifProbe probe(Bytes in, boolean wantThumbnail) throws IOException {
+        if (in.length() < 8) return null;
+        byte[] head = new byte[4];
+        in.read(0, head, 0, 4);
+        ExifProbe result = new ExifProbe(wantThumbnail);
+        if ((head[0] & 0xff) == 0xFF && (head[1] & 0xff) == 0xD8) {
+            result.readJpeg(in);
+        } else if ((head[0] == 'I' && head[1] == 'I' && head[2] == 42 && head[3] == 0)
+                || (head[0] == 'M' && head[1] == 'M' && head[2] == 0 && head[3] == 42)) {
+            result.readTiff(in, 0, in.length(), true);
+        } else {
+            return null;
+        }
+        if (result.thumbnailLength > 0) {
+            byte[] jpeg = new byte[(int) result.thumbnailLength];
+            in.read(result.thumbnailOffset, jpeg, 0, jpeg.length);
+            // 只接受以 SOI 开头的数据，偏移量写错的文件当作没有缩略图
+            if ((jpeg[0] & 0xff) == 0xFF && (jpeg[1] & 0xff) == 0xD8) result.thumbnail = jpeg;
+        }
+        return result;
+    }
+
+    /** 顺着段头前进：遇到 Exif APP1 解析其中的 TIFF 结构，遇到 SOF 取尺寸后停止 */
+    private void readJpeg(Bytes in) throws IOException {
+        long pos = 2;
+        byte[] seg = new byte[4];
+        boolean exifDone = false;
+        while (pos + 4 <= in.length()) {
+            in.read(pos, seg, 0, 4);
+            if ((seg[0] & 0xff) != 0xFF) return; // 段结构损坏
+            int marker = seg[1] & 0xff;
+            if (marker == 0xFF) { // 填充字节
+                pos++;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) return; // EOI / SOS：后面只有熵编码数据
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) { // 无长度的标记
+                pos += 2;
+                continue;
+            }
+            int length = ((seg[2] & 0xff) << 8) | (seg[3] & 0xff);
+            if (length < 2) return;
+            long payload = pos + 4;
+            if (marker == 0xE1 && !exifDone && length >= 8 + 6) {
+                byte[] id = new byte[6];
+                in.read(payload, id, 0, 6);
+                if (id[0] == 'E' && id[1] == 'x' && id[2] == 'i' && id[3] == 'f' && id[4] == 0 && id[5] == 0) {
+                    readTiff(in, payload + 6, pos + 2 + length, false);
+                    exifDone = true;
+                }
+            } else if (isStartOfFrame(marker) && length >= 7) {
+                byte[] sof = new byte[5];
+                in.read(payload, sof, 0, 5);
+                height = ((sof[1] & 0xff) << 8) | (sof[2] & 0xff);
+                width = ((sof[3] & 0xff) << 8) | (sof[4] & 0xff);
+                return; // Exif APP1 一定位于 SOF 之前
+            }
+            pos += 2 + length;
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * 解析从 base 开始、到 limit 结束的 TIFF 结构（偏移量都相对 base）。
+     * 只读 IFD0 与 Exif 子 IFD（需要缩略图时再读 IFD1）；readSize 为 true 时从 IFD0 取图像宽高（TIFF 文件本身）。
+     */
+    private void readTiff(Bytes in, long base, long limit, boolean readSize) throws IOException {
+        byte[] header = new byte[8];
+        if (base + 8 > limit) return;
+        in.read(base, header, 0, 8);
+        boolean le = header[0] == 'I';
+        long ifd0 = u32(header, 4, le);
+        long exifIfd = -1;
+        Ifd ifd = readIfd(in, base, limit, ifd0, le);
+        if (ifd == null) return;
+        for (int i = 0; i < ifd.count; i++) {
+            int tag = ifd.tag(i);
+            switch (tag) {
+                case TAG_MODEL: model = ifd.ascii(i, in, base, limit); break;
+                case TAG_ORIENTATION: orientation = (int) ifd.number(i); break;
+                case TAG_EXIF_IFD: exifIfd = ifd.number(i); break;
+                case TAG_IMAGE_WIDTH: if (readSize) width = (int) ifd.number(i); break;
+                case TAG_IMAGE_LENGTH: if (readSize) height = (int) ifd.number(i); break;
+                default: break;
+            }
+        }
+        if (wantThumbnail && ifd.next > 0) readThumbnailIfd(in, base, limit, ifd.next, le);
+        if (exifIfd <= 0) return;
+        Ifd exif = readIfd(in, base, limit, exifIfd, le);
+        if (exif == null) return;
+        for (int i = 0; i < exif.count; i++) {
+            if (exif.tag(i) == TAG_DATETIME_ORIGINAL) {
+                dateTimeOriginal = parseDateTime(exif.ascii(i, in, base, limit));
+                return;
+            }
+        }
+    }
+
+    /** IFD1 记录缩略图的位置与长度（JPEG 压缩的缩略图才有这两个标签） */
+    private void readThumbnailIfd(Bytes in, long base, long limit, long offset, boolean le) throws IOException {
+        Ifd ifd = readIfd(in, base, limit, offset, le);
+        if (ifd == null) return;
+        long off = 0;
+        long len = 0;
+        for (int i = 0; i < ifd.count; i++) {
+            switch (ifd.tag(i)) {
+                case TAG_THUMBNAIL_OFFSET: off = ifd.number(i); break;
+                case TAG_THUMBNAIL_LENGTH: len = ifd.number(i); break;
+                default: break;
+            }
+        }
+        if (off >= 8 && len >= 4 && len <= MAX_THUMBNAIL_BYTES && base + off + len <= limit) {
+            thumbnailOffset = base + off;
+            thumbnailLength = len;
+        }
+    }
+
+    private static Ifd readIfd(Bytes in, long base, long limit, long offset, boolean le) throws IOException {
+        if (offset < 8 || base + offset + 2 > limit) return null;
+        byte[] cnt = new byte[2];
+        in.read(base + offset, cnt, 0, 2);
+        int count = u16(cnt, 0, le);
+        if (count <= 0 || count > MAX_IFD_ENTRIES || base + offset + 2 + count * 12L > limit) return null;
+        // 目录项之后是下一个 IFD 的偏移量，越界时视为没有
+        boolean hasNext = base + offset + 2 + count * 12L + 4 <= limit;
+        byte[] entries = new byte[count * 12 + (hasNext ? 4 : 0)];
+        in.read(base + offset + 2, entries, 0, entries.length);
+        return new Ifd(entries, count, le, hasNext ? u32(entries, count * 12, le) : 0);
+    }
+
+    /** 一个 IFD 的全部 12 字节目录项（一次读入） */
+    private static final class Ifd {
+        final byte[] entries;
+        final int count;
+        final boolean le;
+        final long next; // 下一个 IFD 的偏移量，0 表示没有
+
+        Ifd(byte[] entries, int count, boolean le, long next) {
+            this.entries = entries; this.count = count; this.le = le; this.next = next;
+        }
+
+        int tag(int i) { return u16(entries, i * 12, le); }
+        int type(int i) { return u16(entries, i * 12 + 2, le); }
+        long valueCount(int i) { return u32(entries, i * 12 + 4, le); }
+
+        /** SHORT / LONG 标签的第一个值 */
+        long number(int i) {
+            int p = i * 12 + 8;
+            return type(i) == 3 ? u16(entries, p, le) : u32(entries, p, le);
+        }
+
+        String ascii(int i, Bytes in, long base, long limit) throws IOException {
+            if (type(i) != 2) return null;
+            long n = valueCount(i);
+            if (n <= 0 || n > 1024) return null;
+            byte[] raw = new byte[(int) n];
+            if (n <= 4) {
+                System.arraycopy(entries, i * 12 + 8, raw, 0, (int) n);
+            } else {
+                long off = base + u32(entries, i * 12 + 8, le);
+                if (off + n > limit) return null;
+                in.read(off, raw, 0, (int) n);
+            }
+            int len = 0;
+            while (len < raw.length && raw[len] != 0) len++;
+            return new String(raw, 0, len, StandardCharsets.US_ASCII).trim();
+        }
+    }
+
+    private static int u16(byte[] b, int p, boolean le) {
+        return le ? (b[p] & 0xff) | (b[p + 1] & 0xff) << 8
+                  : (b[p] & 0xff) << 8 | (b[p + 1] & 0xff);
+    }
+
+    private static long u32(byte[] b, int p, boolean le) {
+        long v = le ? (b[p] & 0xff) | (b[p + 1] & 0xff) << 8 | (b[p + 2] & 0xff) << 16 | (long) (b[p + 3] & 0xff) << 24
+                    : (long) (b[p] & 0xff) << 24 | (b[p + 1] & 0xff) << 16 | (b[p + 2] & 0xff) << 8 | (b[p + 3] & 0xff);
+        return v & 0xffffffffL;
+    }
+
+    /** 按绝对位置读取的字节来源（文件或内存缓冲） */
+    private interface Bytes {
+        long length() throws IOException;
+        /** 读满 len 字节，不足时抛出 EOFException */
+        void read(long pos, byte[] dst, int off, int len) throws IOException;
+    }
+
+    private static final class ChannelBytes implements Bytes {
+        private final FileChannel ch;
+        ChannelBytes(FileChannel ch) { this.ch = ch; }
+
+        @Override public long length() throws IOException { return ch.size(); }
+
+        @Override public void read(long pos, byte[] dst, int off, int len) throws IOException {
+            ByteBuffer b = ByteBuffer.wrap(dst, off, len);
+            while (b.hasRemaining()) {
+                int n = ch.read(b, pos + b.position() - off);
+                if (n < 0) throw new EOFException();
+            }
+        }
+    }
+
+    private static final class BufferBytes implements Bytes {
+        private final ByteBuffer buf;
+        BufferBytes(ByteBuffer buf) { this.buf = buf; }
+
+        @Override public long length() { return buf.limit(); }
+
+        @Override public void read(long pos, byte[] dst, int off, int len) throws IOException {
+            if (pos < 0 || pos + len > buf.limit()) throw new EOFException();
+            buf.get((int) pos, dst, off, len);
+        }
+    }
+}
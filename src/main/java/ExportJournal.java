@@ -0,0 +1,173 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 导出日志：保存在输出文件夹中的只追加日志，每行一条 JSON 记录。
+ * 批次开始时写入 begin（完整参数与源文件列表），每张图片写完（已原子替换到位）后追加 done，
+ * 失败追加 failed，全部成功后追加 end。程序崩溃或中途取消后，日志里没有 end 的批次可以
+ * 从第一张未完成的图片继续（见 {@link #findUnfinished(File)}）。末尾写了一半的行在读取时忽略。
+ */
+final class ExportJournal implements Closeable {
+    static final String FILE_NAME = ".photowatermark-journal.log";
+    private static final Gson GSON = new Gson(); // 单行输出
+
+    private Writer writer;
+
+    private ExportJournal(File file, boolean append) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8));
+    }
+
+    /** 开始新批次：覆盖输出文件夹中原有的日志；relativeDirs 为保持文件夹结构时各源文件的输出子文件夹，可为 null */
+    static ExportJournal begin(File outputDir, WatermarkTemplate settings, List<File> sources,
+                               Map<File, String> relativeDirs) throws IOException {
+        ExportJournal journal = new ExportJournal(new File(outputDir, FILE_NAME), false);
+        Record r = new Record("begin");
+        r.settings = settings;
+        r.sources = new ArrayList<>(sources.size());
+        for (File f : sources) r.sources.add(f.getAbsolutePath());
+        if (relativeDirs != null) {
+            r.relativeDirs = new HashMap<>();
+            for (File f : sources) {
+                String rel = relativeDirs.get(f);
+                if (rel != null && !rel.isEmpty()) r.relativeDirs.put(f.getAbsolutePath(), rel);
+            }
+        }
+        journal.append(r);
+        return journal;
+    }
+
+    /** 继续一个未完成的批次，新记录追加在原日志之后 */
+    static ExportJournal resume(Unfinished unfinished) throws IOException {
+        ExportJournal journal = new ExportJournal(new File(unfinished.outputDir, FILE_NAME), true);
+        journal.append(new Record("resume"));
+        return journal;
+    }
+
+    /** 一张图片已写到最终位置 */
+    void done(File source, File output) {
+        Record r = new Record("done");
+        r.source = source.getAbsolutePath();
+        r.output = output.getName();
+        append(r);
+    }
+
+    void failed(File source, String message) {
+        Record r = new Record("failed");
+        r.source = source.getAbsolutePath();
+        r.error = message;
+        append(r);
+    }
+
+    /** 批次全部成功完成 */
+    void finish() {
+        append(new Record("end"));
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer == null) return;
+        try {
+            writer.close();
+        } catch (IOException ignore) {
+            // 日志只用于恢复，关闭失败不影响已导出的文件
+        }
+        writer = null;
+    }
+
+    /** 每条记录立即写到操作系统，进程崩溃时最多丢失正在写的那一行 */
+    private synchronized void append(Record r) {
+        if (writer == null) return;
+        try {
+            writer.write(GSON.toJson(r));
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            close(); // 磁盘写满等情况下停止记录，导出本身继续
+        }
+    }
+
+    /** 输出文件夹中未完成的批次；没有日志或最后一个批次已完成时返回 null */
+    static Unfinished findUnfinished(File outputDir) {
+        if (outputDir == null) return null;
+        File f = new File(outputDir, FILE_NAME);
+        if (!f.isFile()) return null;
+        Record begin = null;
+        Set<String> done = new HashSet<>();
+        boolean ended = false;
+        try (BufferedReader r = Files.newBufferedReader(f.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                Record rec;
+                try {
+                    rec = GSON.fromJson(line, Record.class);
+                } catch (JsonParseException e) {
+                    continue; // 崩溃时写了一半的行
+                }
+                if (rec == null || rec.type == null) continue;
+                switch (rec.type) {
+                    case "begin": begin = rec; done.clear(); ended = false; break;
+                    case "done": if (rec.source != null) done.add(rec.source); break;
+                    case "end": ended = true; break;
+                    default: break;
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (begin == null || ended || begin.settings == null || begin.sources == null) return null;
+        Unfinished u = new Unfinished();
+        u.outputDir = outputDir;
+        u.settings = begin.settings;
+        u.total = begin.sources.size();
+        u.remaining = new ArrayList<>();
+        for (String s : begin.sources) {
+            if (!done.contains(s)) u.remaining.add(new File(s));
+        }
+        u.sources = new ArrayList<>(begin.sources.size());
+        for (String s : begin.sources) u.sources.add(new File(s));
+        if (begin.relativeDirs != null) {
+            u.relativeDirs = new HashMap<>();
+            for (File src : u.sources) {
+                String rel = begin.relativeDirs.get(src.getPath());
+                if (rel != null) u.relativeDirs.put(src, rel);
+            }
+        }
+        return u.remaining.isEmpty() ? null : u;
+    }
+
+    /** 未完成的批次：原批次参数与按原顺序排列的剩余源文件 */
+    static final class Unfinished {
+        File outputDir;
+        WatermarkTemplate settings;
+        List<File> sources;   // 原批次的全部源文件，用于分配与上次相同的输出文件名
+        List<File> remaining;
+        Map<File, String> relativeDirs; // 保持文件夹结构时的输出子文件夹，否则为 null
+        int total;
+    }
+
+    private static class Record {
+        String type;
+        long time;
+        WatermarkTemplate settings; // begin
+        List<String> sources;       // begin
+        Map<String, String> relativeDirs; // begin，保持文件夹结构时
+        String source;              // done / failed
+        String output;              // done
+        String error;               // failed
+
+        Record(String type) {
+            this.type = type;
+            this.time = System.currentTimeMillis();
+        }
+    }
+}
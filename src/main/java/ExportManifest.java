@@ -0,0 +1,102 @@
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 增量导出清单：保存在输出文件夹中，记录每个输出文件对应的导出指纹（见 {@link RenderPlan#fingerprint}）。
+ * 输出文件仍在、大小与修改时间未被改动且指纹一致时，再次导出直接跳过，不解码源图。
+ * 条目以相对于输出文件夹的路径为键（保持子文件夹结构导出时含子文件夹，分隔符统一为 /）。
+ * 文件结构：{"schemaVersion":1,"entries":{"输出文件相对路径":{"fingerprint":..., "length":..., "lastModified":...}}}
+ */
+final class ExportManifest {
+    static final String FILE_NAME = ".photowatermark-manifest.json";
+    private static final int SCHEMA_VERSION = 1;
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private final File file;
+    private final Map<String, Entry> entries;
+
+    private ExportManifest(File file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /** 读取输出文件夹中的清单；不存在或损坏时从空清单开始 */
+    static ExportManifest load(File outputDir) {
+        File f = new File(outputDir, FILE_NAME);
+        Map<String, Entry> entries = new TreeMap<>();
+        if (f.isFile()) {
+            try (Reader r = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)) {
+                Store store = GSON.fromJson(r, Store.class);
+                if (store != null && store.schemaVersion == SCHEMA_VERSION && store.entries != null) {
+                    entries.putAll(store.entries);
+                }
+            } catch (Exception ignore) {
+                // 清单只是加速手段，读不了就全部重新生成
+            }
+        }
+        return new ExportManifest(f, entries);
+    }
+
+    /** 输出文件存在、未被外部改动，且上次导出的指纹与本次一致 */
+    synchronized boolean isUpToDate(File output, String fingerprint) {
+        Entry e = entries.get(key(output));
+        return e != null && fingerprint.equals(e.fingerprint) && output.isFile()
+                && output.length() == e.length && output.lastModified() == e.lastModified;
+    }
+
+    /** 记录一次成功的导出（在输出文件写完之后调用） */
+    synchronized void record(File output, String fingerprint) {
+        Entry e = new Entry();
+        e.fingerprint = fingerprint;
+        e.length = output.length();
+        e.lastModified = output.lastModified();
+        entries.put(key(output), e);
+    }
+
+    private String key(File output) {
+        return file.getParentFile().toPath().relativize(output.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    /** 写回清单（先写临时文件再替换）；输出文件已被删除的条目一并清理 */
+    synchronized boolean save() {
+        entries.keySet().removeIf(name -> !new File(file.getParentFile(), name).isFile());
+        Store store = new Store();
+        store.schemaVersion = SCHEMA_VERSION;
+        store.entries = entries;
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            GSON.toJson(store, w);
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.copy(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                tmp.delete();
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Store {
+        int schemaVersion;
+        Map<String, Entry> entries;
+    }
+
+    private static class Entry {
+        String fingerprint;
+        long length;
+        long lastModified;
+    }
+}
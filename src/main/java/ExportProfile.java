@@ -0,0 +1,420 @@
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个导出批次的分阶段耗时统计：每张图片在工作线程上由线程内的 {@link Recorder} 记录各阶段的墙钟与 CPU 时间，
+ * 完成后并入按阶段的延迟直方图（p50/p95/p99），另计输入/输出字节数与峰值堆内存。
+ * 阶段可以嵌套（如分条导出时编码过程中按需解码），每个阶段只计自身时间，不含嵌套在其中的阶段。
+ * 渲染代码通过 {@link #stage(Stage)} 打点；当前线程没有记录器时（预览、HTTP 服务）打点不做任何事。
+ * 批次结束后 {@link #write(File, ExportService.Summary)} 在输出文件夹写出 JSON 报告。
+ */
+final class ExportProfile {
+    static final String FILE_NAME = ".photowatermark-report.json";
+    private static final int SCHEMA_VERSION = 1;
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+    private static final ThreadLocal<Recorder> CURRENT = new ThreadLocal<>();
+
+    /** 导出流水线的阶段，按执行顺序 */
+    enum Stage {
+        DISCOVER("发现"),   // 扫描导入的文件夹（整批一次）
+        PROBE("探测"),      // 增量比对与内存估算：读文件头/元数据缓存
+        READ("读取"),       // 把源文件读入内存（大文件为内存映射，实际读盘计入解码）
+        DECODE("解码"),
+        EXIF("EXIF"),
+        RESIZE("缩放"),
+        RENDER("绘制"),     // 合成水印、转换输出色彩类型
+        ENCODE("编码"),
+        WRITE("写出");      // 编码器写文件与原子替换
+
+        final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Histogram[] wall = new Histogram[Stage.values().length];
+    private final Histogram[] cpu = new Histogram[Stage.values().length];
+    private final Histogram totalWall = new Histogram();
+    private final Histogram totalCpu = new Histogram();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private volatile long elapsedNanos = -1;
+    private volatile long peakHeapBytes;
+
+    ExportProfile() {
+        for (int i = 0; i < wall.length; i++) {
+            wall[i] = new Histogram();
+            cpu[i] = new Histogram();
+        }
+        for (MemoryPoolMXBean pool : heapPools()) pool.resetPeakUsage();
+    }
+
+    /** 当前线程的 CPU 时间（纳秒），平台不支持时为 0 */
+    static long threadCpuNanos() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /** 在当前线程上开始记录一张图片，处理完后必须调用 {@link Recorder#finish()} */
+    Recorder begin() {
+        Recorder r = new Recorder(this, CURRENT.get());
+        CURRENT.set(r);
+        return r;
+    }
+
+    /** 进入一个阶段；当前线程没有记录器时返回空操作 */
+    static Span stage(Stage stage) {
+        Recorder r = CURRENT.get();
+        return r == null ? Span.NONE : r.open(stage);
+    }
+
+    /** 计入当前图片读入的字节数 */
+    static void addBytesIn(long bytes) {
+        Recorder r = CURRENT.get();
+        if (r != null) r.profile.bytesIn.add(bytes);
+    }
+
+    /** 计入当前图片写出的字节数 */
+    static void addBytesOut(long bytes) {
+        Recorder r = CURRENT.get();
+        if (r != null) r.profile.bytesOut.add(bytes);
+    }
+
+    /** 直接记录一次阶段耗时（不经线程内记录器，如提交线程上的探测、导入时的文件夹扫描） */
+    void record(Stage stage, long wallNanos, long cpuNanos) {
+        wall[stage.ordinal()].add(wallNanos);
+        cpu[stage.ordinal()].add(cpuNanos);
+    }
+
+    /** 批次结束：固定总耗时与峰值堆内存 */
+    void finish() {
+        elapsedNanos = System.nanoTime() - startNanos;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools()) {
+            if (pool.getPeakUsage() != null) peak += pool.getPeakUsage().getUsed();
+        }
+        peakHeapBytes = peak;
+    }
+
+    private long elapsed() {
+        long e = elapsedNanos;
+        return e >= 0 ? e : System.nanoTime() - startNanos;
+    }
+
+    /** 墙钟时间占比最高的阶段（不含发现），没有数据时为 null */
+    Stage bottleneck() {
+        Stage best = null;
+        long bestSum = 0;
+        for (Stage s : Stage.values()) {
+            if (s == Stage.DISCOVER) continue;
+            long sum = wall[s.ordinal()].sum();
+            if (sum > bestSum) {
+                best = s;
+                bestSum = sum;
+            }
+        }
+        return best;
+    }
+
+    /** 供 GUI 与命令行显示的多行摘要 */
+    String summaryText() {
+        long stagesWall = 0;
+        for (Stage s : Stage.values()) {
+            if (s != Stage.DISCOVER) stagesWall += wall[s.ordinal()].sum();
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("读入 %s，写出 %s，峰值堆内存 %s", bytes(bytesIn.sum()), bytes(bytesOut.sum()), bytes(peakHeapBytes)));
+        sb.append(String.format("%n%s %s %9s %9s %9s %s", pad("阶段", -6), pad("次数", 6), "p50", "p95", "p99", pad("占比", 6)));
+        for (Stage s : Stage.values()) {
+            Histogram h = wall[s.ordinal()];
+            if (h.count() == 0) continue;
+            String share = s == Stage.DISCOVER || stagesWall == 0 ? "-"
+                    : String.format("%.0f%%", h.sum() * 100.0 / stagesWall);
+            sb.append(String.format("%n%s %6d %9s %9s %9s %6s", pad(s.label, -6), h.count(),
+                    millis(h.percentile(0.50)), millis(h.percentile(0.95)), millis(h.percentile(0.99)), share));
+        }
+        Stage b = bottleneck();
+        if (b != null) sb.append("\n主要耗时在").append(b.label).append("阶段");
+        return sb.toString();
+    }
+
+    /** 在输出文件夹写出 JSON 报告（先写临时文件再替换），返回报告文件；写不了时返回 null */
+    File write(File outputDir, ExportService.Summary summary) {
+        Report report = new Report();
+        report.schemaVersion = SCHEMA_VERSION;
+        report.startedAt = Instant.ofEpochMilli(startMillis).toString();
+        report.elapsedMillis = elapsed() / 1_000_000;
+        report.total = summary.total;
+        report.succeeded = summary.succeeded;
+        report.unchanged = summary.unchanged;
+        report.failed = summary.failed;
+        report.cancelled = summary.cancelled;
+        report.bytesIn = bytesIn.sum();
+        report.bytesOut = bytesOut.sum();
+        report.peakHeapBytes = peakHeapBytes;
+        report.cpuTimeSupported = CPU_TIME;
+        Stage b = bottleneck();
+        report.bottleneck = b != null ? b.name().toLowerCase(Locale.ROOT) : null;
+        report.perImage = new StageReport(totalWall, totalCpu);
+        report.stages = new LinkedHashMap<>();
+        for (Stage s : Stage.values()) {
+            if (wall[s.ordinal()].count() > 0) {
+                report.stages.put(s.name().toLowerCase(Locale.ROOT), new StageReport(wall[s.ordinal()], cpu[s.ordinal()]));
+            }
+        }
+        File file = new File(outputDir, FILE_NAME);
+        File tmp = new File(outputDir, FILE_NAME + ".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            GSON.toJson(report, w);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.copy(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                tmp.delete();
+            } catch (IOException ex) {
+                return null;
+            }
+        }
+        return file;
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) pools.add(pool);
+        }
+        return pools;
+    }
+
+    // 按显示宽度补空格（中文占两列），width 为负时左对齐，使等宽字体下表格对齐
+    private static String pad(String text, int width) {
+        int cols = 0;
+        for (int i = 0; i < text.length(); i++) cols += text.charAt(i) >= 0x2E80 ? 2 : 1;
+        String spaces = " ".repeat(Math.max(0, Math.abs(width) - cols));
+        return width < 0 ? text + spaces : spaces + text;
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 10_000_000 ? String.format("%.2fms", nanos / 1e6) : String.format("%.0fms", nanos / 1e6);
+    }
+
+    private static String bytes(long n) {
+        if (n < 1024 * 1024) return String.format("%.1f KB", n / 1024.0);
+        if (n < 1024L * 1024 * 1024) return String.format("%.1f MB", n / (1024.0 * 1024));
+        return String.format("%.2f GB", n / (1024.0 * 1024 * 1024));
+    }
+
+    /** 一张图片在一个线程上的记录：各阶段累计自身时间，结束时并入批次统计 */
+    static final class Recorder {
+        private final ExportProfile profile;
+        private final Recorder outer; // 同一线程上被嵌套的记录器（一般为 null）
+        private final long[] wallNanos = new long[Stage.values().length];
+        private final long[] cpuNanos = new long[Stage.values().length];
+        private final boolean[] used = new boolean[Stage.values().length];
+        private final long startWall = System.nanoTime();
+        private final long startCpu = threadCpuNanos();
+        private Span open; // 最内层未结束的阶段
+
+        private Recorder(ExportProfile profile, Recorder outer) {
+            this.profile = profile;
+            this.outer = outer;
+        }
+
+        private Span open(Stage stage) {
+            Span s = new Span(this, stage, open);
+            open = s;
+            return s;
+        }
+
+        /** 结束这张图片：有耗时的阶段各计一个样本，另计整张图片的总耗时 */
+        void finish() {
+            profile.totalWall.add(System.nanoTime() - startWall);
+            profile.totalCpu.add(threadCpuNanos() - startCpu);
+            for (int i = 0; i < used.length; i++) {
+                if (used[i]) {
+                    profile.wall[i].add(wallNanos[i]);
+                    profile.cpu[i].add(cpuNanos[i]);
+                }
+            }
+            if (outer != null) CURRENT.set(outer); else CURRENT.remove();
+        }
+    }
+
+    /** 一个阶段的一次执行；用 try-with-resources 包住被计时的代码 */
+    static final class Span implements AutoCloseable {
+        static final Span NONE = new Span(null, null, null);
+
+        private final Recorder recorder;
+        private final Stage stage;
+        private final Span parent;
+        private final long startWall;
+        private final long startCpu;
+        private long childWall;
+        private long childCpu;
+
+        private Span(Recorder recorder, Stage stage, Span parent) {
+            this.recorder = recorder;
+            this.stage = stage;
+            this.parent = parent;
+            this.startWall = recorder != null ? System.nanoTime() : 0;
+            this.startCpu = recorder != null ? threadCpuNanos() : 0;
+        }
+
+        @Override
+        public void close() {
+            if (recorder == null) return;
+            long w = System.nanoTime() - startWall;
+            long c = threadCpuNanos() - startCpu;
+            int i = stage.ordinal();
+            recorder.wallNanos[i] += w - childWall;
+            recorder.cpuNanos[i] += Math.max(0, c - childCpu);
+            recorder.used[i] = true;
+            if (parent != null) {
+                parent.childWall += w;
+                parent.childCpu += c;
+            }
+            recorder.open = parent;
+        }
+    }
+
+    /**
+     * 无锁的对数线性直方图：每个 2 的幂区间分 16 个桶（相对误差约 6%），以微秒计，覆盖到数天。
+     * 内存固定，与样本数无关，长时间的夜间批次也不会增长。
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = SUB + (63 - SUB_BITS) * SUB;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void add(long nanos) {
+            long v = Math.max(0, nanos);
+            counts.incrementAndGet(index(v / 1000));
+            count.increment();
+            sum.add(v);
+            max.accumulateAndGet(v, Math::max);
+        }
+
+        long count() { return count.sum(); }
+        long sum() { return sum.sum(); }
+        long max() { return max.get(); }
+
+        /** 第 q 分位（0-1）的近似值（纳秒），取所在桶的中点且不超过最大值 */
+        long percentile(double q) {
+            long n = count();
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    long mid = (lowerBound(i) + lowerBound(i + 1)) / 2;
+                    return Math.min(max(), mid * 1000);
+                }
+            }
+            return max();
+        }
+
+        private static int index(long micros) {
+            if (micros < SUB) return (int) micros;
+            int exp = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exp - SUB_BITS)) - SUB;
+            return SUB + (exp - SUB_BITS) * SUB + sub;
+        }
+
+        private static long lowerBound(int index) {
+            if (index < SUB) return index;
+            int exp = (index - SUB) / SUB + SUB_BITS;
+            int sub = (index - SUB) % SUB;
+            return (long) (SUB + sub) << (exp - SUB_BITS);
+        }
+    }
+
+    // JSON 报告结构（时间单位：毫秒）
+    private static class Report {
+        int schemaVersion;
+        String startedAt;
+        long elapsedMillis;
+        int total;
+        int succeeded;
+        int unchanged;
+        int failed;
+        int cancelled;
+        long bytesIn;
+        long bytesOut;
+        long peakHeapBytes;
+        boolean cpuTimeSupported;
+        String bottleneck;
+        StageReport perImage;
+        Map<String, StageReport> stages;
+    }
+
+    private static class StageReport {
+        long count;
+        Timing wall;
+        Timing cpu;
+
+        StageReport(Histogram wall, Histogram cpu) {
+            this.count = wall.count();
+            this.wall = new Timing(wall);
+            this.cpu = new Timing(cpu);
+        }
+    }
+
+    private static class Timing {
+        double totalMillis;
+        double meanMillis;
+        double p50Millis;
+        double p95Millis;
+        double p99Millis;
+        double maxMillis;
+
+        Timing(Histogram h) {
+            long n = h.count();
+            totalMillis = round(h.sum());
+            meanMillis = n == 0 ? 0 : round(h.sum() / n);
+            p50Millis = round(h.percentile(0.50));
+            p95Millis = round(h.percentile(0.95));
+            p99Millis = round(h.percentile(0.99));
+            maxMillis = round(h.max());
+        }
+
+        private static double round(long nanos) {
+            return Math.round(nanos / 1e3) / 1e3;
+        }
+    }
+}
@@ -0,0 +1,417 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 批量导出引擎：在有界线程池上并行处理图片，逐个回调完成进度，支持取消。
+ * 任务开始前先经 {@link AdmissionController} 按估算内存准入，大图排队时后面的小图照常执行。
+ * 一个实例可以连续执行多个批次，用完后调用 {@link #shutdown()} 释放线程。
+ * 线程数可在运行中经 {@link #setWorkers(int)} 调整（JMX 见 {@link EngineMonitor}）。
+ */
+public class ExportService {
+
+    /** 单个导出任务（对应一个源文件） */
+    public interface Job {
+        File source();
+        void run() throws Exception;
+
+        /** 处理时预计占用的堆内存（字节），0 表示不参与内存准入 */
+        default long estimatedBytes() {
+            return 0;
+        }
+
+        /** 输出已是最新、可以直接跳过（增量导出）；在估算内存与解码之前检查 */
+        default boolean upToDate() {
+            return false;
+        }
+    }
+
+    /** 针对单个文件的处理逻辑，配合 {@link #job(File, Action)} 使用 */
+    public interface Action {
+        void run(File source) throws Exception;
+    }
+
+    /** 估算处理单个文件所需的堆内存（只应读取文件头） */
+    public interface Estimator {
+        long estimate(File source) throws Exception;
+    }
+
+    /** 判断单个文件的输出是否已是最新（只应读取文件属性与清单，不解码） */
+    public interface Freshness {
+        boolean isUpToDate(File source) throws Exception;
+    }
+
+    public static Job job(File source, Action action) {
+        return job(source, action, null);
+    }
+
+    public static Job job(File source, Action action, Estimator estimator) {
+        return job(source, action, estimator, null);
+    }
+
+    public static Job job(File source, Action action, Estimator estimator, Freshness freshness) {
+        return new Job() {
+            @Override public File source() { return source; }
+            @Override public void run() throws Exception { action.run(source); }
+            @Override public long estimatedBytes() {
+                if (estimator == null) return 0;
+                try {
+                    return estimator.estimate(source);
+                } catch (Exception e) {
+                    return 0; // 读不了文件头的交给 run() 报错
+                }
+            }
+            @Override public boolean upToDate() {
+                if (freshness == null) return false;
+                try {
+                    return freshness.isUpToDate(source);
+                } catch (Exception e) {
+                    return false; // 判断不了就重新生成
+                }
+            }
+        };
+    }
+
+    /** 任务完成回调（在工作线程或提交线程中调用，GUI 需自行切回 EDT） */
+    public interface Listener {
+        void onJobFinished(Job job, Throwable error, Progress progress);
+    }
+
+    /** 某一时刻的批次进度快照 */
+    public static final class Progress {
+        final int done;
+        final int failed;
+        final int total;
+        final long elapsedNanos;
+        final double memoryUtilisation; // 内存预算利用率
+        final int blockedJobs;          // 因内存不足排队的任务数
+
+        Progress(int done, int failed, int total, long elapsedNanos, double memoryUtilisation, int blockedJobs) {
+            this.done = done; this.failed = failed; this.total = total; this.elapsedNanos = elapsedNanos;
+            this.memoryUtilisation = memoryUtilisation; this.blockedJobs = blockedJobs;
+        }
+
+        public double filesPerSecond() {
+            return elapsedNanos <= 0 ? 0 : done / (elapsedNanos / 1e9);
+        }
+
+        /** 按当前速度估算剩余毫秒数，尚无数据时返回 -1 */
+        public long etaMillis() {
+            double rate = filesPerSecond();
+            if (rate <= 0) return -1;
+            return (long) ((total - done) / rate * 1000);
+        }
+    }
+
+    /** 批次结束后的汇总 */
+    public static final class Summary {
+        int total;
+        int succeeded; // 实际重新生成的数量
+        int unchanged; // 输出已是最新而跳过的数量
+        int failed;
+        int cancelled;
+        long elapsedMillis;
+        ExportProfile profile; // 分阶段耗时统计
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    /** 已估算内存、等待提交的任务 */
+    private static final class Pending {
+        final Job job;
+        final long bytes;
+
+        Pending(Job job, long bytes) {
+            this.job = job; this.bytes = bytes;
+        }
+    }
+
+    /** 可减少许可的信号量，用于运行中缩小在途上限 */
+    private static final class Permits extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        Permits(int permits) {
+            super(permits);
+        }
+
+        void shrink(int n) {
+            reducePermits(n);
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final AdmissionController admission;
+    private final AtomicInteger queued = new AtomicInteger(); // 当前批次尚未开始的任务数
+    private volatile int maxInFlight;
+    private volatile Permits inFlight; // 当前批次的在途许可，批次之间为 null
+    private volatile boolean cancelled;
+
+    public ExportService(int workers) {
+        this(workers, AdmissionController.shared());
+    }
+
+    public ExportService(int workers, AdmissionController admission) {
+        this.admission = admission;
+        int n = Math.max(1, workers);
+        // 在途上限等于线程数：内存预算只分给真正在执行的任务，不给排在线程池队列里的任务占坑；
+        // 提交线程靠信号量限流，队列长度不会超过在途上限；队列本身不设容量，运行中调整线程数时无需重建
+        this.maxInFlight = n;
+        this.executor = new ThreadPoolExecutor(n, n, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new WorkerThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+        EngineMonitor.track(this);
+    }
+
+    public static int defaultWorkers() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getWorkers() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * 调整线程数与在途上限，可在批次执行中调用：增大时立即多提交任务，
+     * 减小时正在处理的任务照常完成，之后按新上限提交。
+     */
+    public synchronized void setWorkers(int workers) {
+        int n = Math.max(1, workers);
+        int old = maxInFlight;
+        if (n == old) return;
+        // 核心线程数不能大于最大线程数，两者按方向依次调整
+        if (n > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(n);
+            executor.setCorePoolSize(n);
+        } else {
+            executor.setCorePoolSize(n);
+            executor.setMaximumPoolSize(n);
+        }
+        maxInFlight = n;
+        Permits permits = inFlight;
+        if (permits != null) {
+            if (n > old) permits.release(n - old);
+            else permits.shrink(old - n);
+        }
+    }
+
+    public int getActiveWorkers() {
+        return executor.getActiveCount();
+    }
+
+    /** 当前批次已提交、尚未开始处理的任务数 */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /**
+     * 执行一个批次并阻塞直到全部任务结束（或被取消）。不要在 EDT 上调用。
+     * 提交顺序基本按列表顺序；放不下的任务最多积压 {@code maxInFlight} 个，
+     * 积压满或列表取完后提交线程才阻塞等待最早排队的任务，避免大图一直被小图插队。
+     */
+    public Summary run(List<? extends Job> jobs, Listener listener) throws InterruptedException {
+        return run(jobs, listener, new ExportProfile());
+    }
+
+    /** 同 {@link #run(List, Listener)}，耗时记入调用方提供的统计（可在导出前先记入文件夹扫描等阶段） */
+    Summary run(List<? extends Job> jobs, Listener listener, ExportProfile profile) throws InterruptedException {
+        Summary summary = new Summary();
+        summary.total = jobs.size();
+        summary.profile = profile;
+        Permits inFlight;
+        synchronized (this) {
+            inFlight = new Permits(maxInFlight);
+            this.inFlight = inFlight;
+        }
+        queued.set(jobs.size());
+        Phaser running = new Phaser(1); // 每个已提交的任务登记一方，结束时注销
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicInteger unchanged = new AtomicInteger();
+        long start = System.nanoTime();
+        // 已是最新的任务不进线程池，在提交线程上直接计为完成
+        Consumer<Job> onUnchanged = job -> {
+            queued.decrementAndGet();
+            unchanged.incrementAndGet();
+            int d = done.incrementAndGet();
+            if (listener != null) {
+                listener.onJobFinished(job, null, new Progress(d, failed.get(), summary.total,
+                        System.nanoTime() - start, admission.getUtilisation(), admission.getBlockedJobs()));
+            }
+        };
+
+        try {
+            Iterator<? extends Job> it = jobs.iterator();
+            List<Pending> waiting = new ArrayList<>();
+            try {
+                while (!cancelled) {
+                    inFlight.acquire();
+                    Pending next = admitNext(it, waiting, onUnchanged, profile);
+                    if (next == null) {
+                        inFlight.release();
+                        break;
+                    }
+                    if (cancelled) {
+                        admission.release(next.bytes);
+                        inFlight.release();
+                        queued.decrementAndGet();
+                        skipped.incrementAndGet();
+                        break;
+                    }
+                    running.register();
+                    try {
+                        executor.execute(() -> {
+                            queued.decrementAndGet();
+                            try {
+                                if (cancelled) {
+                                    skipped.incrementAndGet();
+                                    return;
+                                }
+                                Job job = next.job;
+                                Throwable error = null;
+                                ExportProfile.Recorder recorder = profile.begin();
+                                try {
+                                    job.run();
+                                } catch (Throwable t) {
+                                    error = t;
+                                    failed.incrementAndGet();
+                                    summary.errors.add(job.source().getName() + ": " + t.getMessage());
+                                } finally {
+                                    recorder.finish();
+                                }
+                                EngineMonitor.imageFinished(error != null);
+                                int d = done.incrementAndGet();
+                                if (listener != null) {
+                                    listener.onJobFinished(job, error, new Progress(d, failed.get(), summary.total,
+                                            System.nanoTime() - start, admission.getUtilisation(), admission.getBlockedJobs()));
+                                }
+                            } finally {
+                                admission.release(next.bytes);
+                                inFlight.release();
+                                running.arriveAndDeregister();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        admission.release(next.bytes);
+                        inFlight.release();
+                        running.arriveAndDeregister();
+                        throw e;
+                    }
+                }
+            } finally {
+                // 取消或异常时，未提交的任务都记为未处理
+                for (Pending p : waiting) {
+                    admission.dequeue(p.bytes);
+                    queued.decrementAndGet();
+                    skipped.incrementAndGet();
+                }
+                while (it.hasNext()) {
+                    it.next();
+                    queued.decrementAndGet();
+                    skipped.incrementAndGet();
+                }
+            }
+            // 已提交的任务全部注销即表示在途任务全部结束（线程数可能中途调整过，不能靠取回许可判断）
+            running.awaitAdvanceInterruptibly(running.arrive());
+        } finally {
+            // 正常结束、中断或提交失败都要清掉，之后的 setWorkers 不再调整这一批次的许可
+            synchronized (this) {
+                this.inFlight = null;
+            }
+        }
+        // 取消只作用于本批次：批次开始前收到的取消同样生效，结束后复位供下一批次使用
+        cancelled = false;
+        // 探测阶段新得到的元数据攒批写盘，批次结束时写完剩下的
+        MetadataCache.flush();
+
+        summary.failed = failed.get();
+        summary.unchanged = unchanged.get();
+        summary.succeeded = done.get() - summary.failed - summary.unchanged;
+        summary.cancelled = skipped.get();
+        summary.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        profile.finish();
+        return summary;
+    }
+
+    /**
+     * 选出下一个可以开始的任务并占用其内存预算：优先已排队且现在放得下的任务，
+     * 其次从列表继续取（已是最新的交给 onUnchanged，放不下的加入排队）；都不行时阻塞等待最早排队的任务。
+     * 全部提交完返回 null。增量比对与内存估算的耗时记为探测阶段。
+     */
+    private Pending admitNext(Iterator<? extends Job> it, List<Pending> waiting, Consumer<Job> onUnchanged,
+                              ExportProfile profile) throws InterruptedException {
+        for (Iterator<Pending> w = waiting.iterator(); w.hasNext(); ) {
+            Pending p = w.next();
+            if (admission.tryAcquire(p.bytes)) {
+                w.remove();
+                admission.dequeue(p.bytes);
+                return p;
+            }
+        }
+        while (it.hasNext() && waiting.size() < maxInFlight && !cancelled) {
+            Job job = it.next();
+            long wall = System.nanoTime();
+            long cpu = ExportProfile.threadCpuNanos();
+            boolean fresh = job.upToDate();
+            long bytes = fresh ? 0 : job.estimatedBytes();
+            profile.record(ExportProfile.Stage.PROBE, System.nanoTime() - wall, ExportProfile.threadCpuNanos() - cpu);
+            if (fresh) {
+                onUnchanged.accept(job);
+                continue;
+            }
+            Pending p = new Pending(job, bytes);
+            if (admission.tryAcquire(p.bytes)) return p;
+            waiting.add(p);
+            admission.enqueue(p.bytes);
+        }
+        if (waiting.isEmpty()) return null;
+        Pending head = waiting.remove(0);
+        try {
+            admission.acquire(head.bytes);
+        } catch (InterruptedException e) {
+            waiting.add(0, head);
+            throw e;
+        }
+        admission.dequeue(head.bytes);
+        return head;
+    }
+
+    /** 请求取消当前批次（尚未开始时作用于即将开始的批次）：未开始的任务将被跳过，正在处理的任务会自然结束 */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void shutdown() {
+        EngineMonitor.untrack(this);
+        executor.shutdown();
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger SEQ = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "export-worker-" + SEQ.incrementAndGet());
+            t.setDaemon(true);
+            // 略低于 EDT，保证界面在满负荷导出时仍然流畅
+            t.setPriority(Math.max(Thread.MIN_PRIORITY, Thread.NORM_PRIORITY - 1));
+            return t;
+        }
+    }
+}
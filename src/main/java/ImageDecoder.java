@@ -0,0 +1,372 @@
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.function.IntBinaryOperator;
+import org.w3c.dom.Node;
+
+/**
+ * 按需降采样解码：先读文件头取得原图尺寸，再用 {@link ImageReadParam#setSourceSubsampling}
+ * 以 2 的幂次隔行隔列解码，使解码结果不小于输出所需尺寸，剩余的缩放交给 {@link Resampler}。
+ * 输出远小于原图（例如 6000x4000 导出为网页尺寸）时，解码内存与耗时都成倍下降。
+ */
+final class ImageDecoder {
+
+    /** 解码结果：image 可能已降采样，width/height 始终为原图尺寸 */
+    static final class Decoded {
+        final File file;
+        final BufferedImage image;
+        final int width;
+        final int height;
+        final int subsampling;
+
+        Decoded(File file, BufferedImage image, int width, int height, int subsampling) {
+            this.file = file;
+            this.image = image;
+            this.width = width;
+            this.height = height;
+            this.subsampling = subsampling;
+        }
+    }
+
+    /** 逐行接收 {@link Source#readRows} 的解码结果 */
+    interface RowSink {
+        /** row 是只含第 y 行的图像，其缓冲在回调返回后即被下一行覆盖；返回 false 中止解码 */
+        boolean accept(int y, BufferedImage row);
+    }
+
+    /** 已打开的图片：文件头已读取，可多次按区域解码（分条导出时逐条读取） */
+    static final class Source implements Closeable {
+        final File file;
+        final int width;
+        final int height;
+        private final ImageInputStream iis;
+        private final ImageReader reader;
+
+        private Source(File file, ImageInputStream iis, ImageReader reader) throws IOException {
+            this.file = file;
+            this.iis = iis;
+            this.reader = reader;
+            reader.setInput(iis, false, true);
+            this.width = reader.getWidth(0);
+            this.height = reader.getHeight(0);
+        }
+
+        /**
+         * 该格式能否只解码指定区域：TIFF 按条带/瓦片存储可以直接定位，
+         * JPEG、PNG 等顺序格式每次按区域读取都要从头解码到区域末尾。
+         */
+        boolean seekableRegions() {
+            try {
+                return reader.getFormatName().toLowerCase(Locale.ROOT).startsWith("tif");
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * 能否用 {@link #readRows} 单遍逐行解码：基线 JPEG 与非隔行 PNG，且像素按分量存储（非调色板、非位打包）。
+         * 渐进式 JPEG 与隔行 PNG 按遍输出整幅，只能按区域读取。
+         */
+        boolean streamsRows() {
+            try {
+                String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+                boolean sequential;
+                if (format.equals("jpeg")) sequential = baselineJpeg();
+                else if (format.equals("png")) sequential = nonInterlacedPng();
+                else return false;
+                return sequential && reader.getImageTypes(0).next().getSampleModel(1, 1) instanceof ComponentSampleModel;
+            } catch (IOException | RuntimeException e) {
+                return false;
+            }
+        }
+
+        // 依次跳过 JPEG 段直到帧头：SOF2/6/10/14 为渐进式；结构异常时按不可逐行处理
+        private boolean baselineJpeg() throws IOException {
+            ByteOrder order = iis.getByteOrder();
+            iis.mark();
+            try {
+                iis.setByteOrder(ByteOrder.BIG_ENDIAN);
+                iis.seek(0);
+                if (iis.readUnsignedShort() != 0xFFD8) return false;
+                while (true) {
+                    int marker = iis.readUnsignedShort();
+                    if ((marker & 0xFF00) != 0xFF00) return false;
+                    if (marker >= 0xFFC0 && marker <= 0xFFCF && marker != 0xFFC4 && marker != 0xFFC8 && marker != 0xFFCC) {
+                        return (marker & 0x3) != 0x2;
+                    }
+                    int length = iis.readUnsignedShort();
+                    if (length < 2) return false;
+                    iis.skipBytes(length - 2);
+                }
+            } finally {
+                iis.reset();
+                iis.setByteOrder(order);
+            }
+        }
+
+        // PNG 解码器读完文件头就丢弃了之前的流，隔行方式从它解析好的 IHDR 取
+        private boolean nonInterlacedPng() throws IOException {
+            IIOMetadata metadata = reader.getImageMetadata(0);
+            if (metadata == null) return false;
+            for (Node n = metadata.getAsTree("javax_imageio_png_1.0").getFirstChild(); n != null; n = n.getNextSibling()) {
+                if (n.getNodeName().equals("IHDR")) {
+                    Node method = n.getAttributes().getNamedItem("interlaceMethod");
+                    return method != null && "none".equals(method.getNodeValue());
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 单遍顺序解码整幅首帧（按 subsampling 隔点取样），每解出一行交给 sink，内存中只有一行的缓冲：
+         * 解码目标图像的行跨度为 0，所有行都落在同一段缓冲上，解码器每写完一行的进度回调里把它交出去。
+         * 只适用于 {@link #streamsRows()} 为 true 的图片；sink 中止时返回 false。
+         */
+        boolean readRows(int subsampling, RowSink sink) throws IOException {
+            int sub = Math.max(1, subsampling);
+            int w = subsampled(width, sub);
+            int h = subsampled(height, sub);
+            ImageTypeSpecifier type = reader.getImageTypes(0).next();
+            ColorModel cm = type.getColorModel();
+            ComponentSampleModel line = (ComponentSampleModel) type.getSampleModel(w, 1);
+            WritableRaster lineRaster = Raster.createWritableRaster(line, null);
+            ComponentSampleModel aliased = new ComponentSampleModel(line.getDataType(), w, h, line.getPixelStride(), 0,
+                    line.getBankIndices(), line.getBandOffsets());
+            BufferedImage target = new BufferedImage(cm, new AliasedRaster(aliased, lineRaster),
+                    cm.isAlphaPremultiplied(), null);
+            BufferedImage row = new BufferedImage(cm, lineRaster, cm.isAlphaPremultiplied(), null);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestination(target);
+            if (sub > 1) param.setSourceSubsampling(sub, sub, 0, 0);
+            RowListener listener = new RowListener(row, sink);
+            reader.addIIOReadUpdateListener(listener);
+            WatermarkEvents.Decode event = new WatermarkEvents.Decode();
+            event.begin();
+            try {
+                reader.read(0, param);
+            } finally {
+                reader.removeIIOReadUpdateListener(listener);
+            }
+            event.end();
+            if (listener.stopped) return false;
+            if (listener.failure != null) throw new IOException(listener.failure + ": " + file.getName());
+            if (listener.next != h) throw new IOException("图片数据不完整: " + file.getName());
+            if (event.shouldCommit()) {
+                event.path = file.getPath();
+                event.format = reader.getFormatName();
+                event.sourceWidth = width;
+                event.sourceHeight = height;
+                event.width = w;
+                event.height = h;
+                event.subsampling = sub;
+                event.bytes = iis.length();
+                event.commit();
+            }
+            return true;
+        }
+
+        /**
+         * 行跨度为 0 的解码目标：所有行共用 line 的缓冲。解码器整行写入（JPEG 的 setRect）时直接转交给 line，
+         * 走其针对同类栅格的整块拷贝，而不是通用栅格的逐像素路径。
+         */
+        private static final class AliasedRaster extends WritableRaster {
+            private final WritableRaster line;
+
+            AliasedRaster(ComponentSampleModel model, WritableRaster line) {
+                super(model, line.getDataBuffer(), new Point());
+                this.line = line;
+            }
+
+            @Override
+            public void setRect(int dx, int dy, Raster src) {
+                if (src.getHeight() == 1) line.setRect(dx, -src.getMinY(), src);
+                else super.setRect(dx, dy, src);
+            }
+        }
+
+        /** 把解码器的逐行进度转交给 RowSink，行序不连续时中止（该解码器不支持逐行输出） */
+        private final class RowListener implements IIOReadUpdateListener {
+            private final BufferedImage row;
+            private final RowSink sink;
+            int next;
+            boolean stopped;
+            String failure;
+
+            RowListener(BufferedImage row, RowSink sink) {
+                this.row = row;
+                this.sink = sink;
+            }
+
+            @Override
+            public void passStarted(ImageReader source, BufferedImage image, int pass, int minPass, int maxPass,
+                                    int minX, int minY, int periodX, int periodY, int[] bands) {
+                if (periodX != 1 || periodY != 1) fail("解码器按隔行遍输出");
+            }
+
+            @Override
+            public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY, int width, int height,
+                                    int periodX, int periodY, int[] bands) {
+                if (stopped || failure != null) return;
+                if (minY != next || height != 1 || periodY != 1) {
+                    fail("解码器未按行顺序输出");
+                    return;
+                }
+                next++;
+                if (!sink.accept(minY, row)) {
+                    stopped = true;
+                    reader.abort();
+                }
+            }
+
+            private void fail(String message) {
+                if (failure == null) failure = message;
+                reader.abort();
+            }
+
+            @Override public void passComplete(ImageReader source, BufferedImage image) { }
+            @Override public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail, int pass, int minPass,
+                                                       int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) { }
+            @Override public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail, int minX, int minY,
+                                                  int width, int height, int periodX, int periodY, int[] bands) { }
+            @Override public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail) { }
+        }
+
+        /**
+         * 读取文件内嵌的缩略图（{@link ImageReader#readThumbnail}，如 JPEG 的 JFIF/JFXX 缩略图）中
+         * 不小于 minW x minH 的最小一张；格式不支持或没有合适的返回 null。
+         */
+        BufferedImage thumbnail(int minW, int minH) throws IOException {
+            if (!reader.readerSupportsThumbnails() || !reader.hasThumbnails(0)) return null;
+            int best = -1;
+            long bestPixels = Long.MAX_VALUE;
+            for (int i = 0; i < reader.getNumThumbnails(0); i++) {
+                int w = reader.getThumbnailWidth(0, i);
+                int h = reader.getThumbnailHeight(0, i);
+                if (w >= minW && h >= minH && (long) w * h < bestPixels) {
+                    best = i;
+                    bestPixels = (long) w * h;
+                }
+            }
+            return best < 0 ? null : reader.readThumbnail(0, best);
+        }
+
+        /** 解码整幅首帧 */
+        Decoded decode(int subsampling) throws IOException {
+            int sub = Math.max(1, subsampling);
+            return new Decoded(file, read(null, sub), width, height, sub);
+        }
+
+        /** 解码原图坐标下的区域（null 为整幅），按 subsampling 隔点取样 */
+        @SuppressWarnings("try")
+        BufferedImage read(Rectangle region, int subsampling) throws IOException {
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (region != null) param.setSourceRegion(region);
+            if (subsampling > 1) param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            BufferedImage image;
+            WatermarkEvents.Decode event = new WatermarkEvents.Decode();
+            event.begin();
+            try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.DECODE)) {
+                image = reader.read(0, param);
+            }
+            event.end();
+            if (image == null) throw new IOException("无法读取图片: " + file.getName());
+            if (event.shouldCommit()) {
+                event.path = file.getPath();
+                event.format = reader.getFormatName();
+                event.sourceWidth = width;
+                event.sourceHeight = height;
+                event.width = image.getWidth();
+                event.height = image.getHeight();
+                event.subsampling = subsampling;
+                event.region = region != null ? region.y + "-" + (region.y + region.height) : null;
+                event.bytes = iis.length();
+                event.commit();
+            }
+            return image;
+        }
+
+        @Override
+        public void close() throws IOException {
+            CodecRegistry.release(reader);
+            iis.close();
+        }
+    }
+
+    private ImageDecoder() { }
+
+    /** 直接读文件（只需要文件头时使用） */
+    static Source open(File file) throws IOException {
+        // 直接用随机访问流，省去 ImageIO 每次查找流 SPI
+        return open(file, new FileImageInputStream(file));
+    }
+
+    /** 从已整体读入的 {@link InputBuffer} 解码，与 EXIF 解析共用同一份字节 */
+    static Source open(InputBuffer buffer) throws IOException {
+        return open(buffer.file, buffer.imageStream());
+    }
+
+    private static Source open(File file, ImageInputStream iis) throws IOException {
+        ImageReader reader = null;
+        try {
+            reader = CodecRegistry.reader(file, iis);
+            return new Source(file, iis, reader);
+        } catch (IOException | RuntimeException e) {
+            if (reader != null) CodecRegistry.release(reader);
+            iis.close();
+            throw e;
+        }
+    }
+
+    /** 只读文件头，返回原图尺寸 */
+    static Dimension probeSize(File file) throws IOException {
+        try (Source src = open(file)) {
+            return new Dimension(src.width, src.height);
+        }
+    }
+
+    /**
+     * 解码首帧。policy 根据原图宽高返回降采样倍数（1 为完整解码），
+     * 文件只打开一次，文件头与像素数据在同一个流上读取。
+     */
+    static Decoded read(File file, IntBinaryOperator policy) throws IOException {
+        try (Source src = open(file)) {
+            return src.decode(policy.applyAsInt(src.width, src.height));
+        }
+    }
+
+    /**
+     * 最大的 2 的幂 s，使按 s 降采样后的尺寸仍不小于 minW x minH；放大或无需缩放时为 1。
+     */
+    static int subsampling(int srcW, int srcH, int minW, int minH) {
+        int s = 1;
+        while (s < (1 << 16)) {
+            int next = s * 2;
+            if (subsampled(srcW, next) < minW || subsampled(srcH, next) < minH) break;
+            s = next;
+        }
+        return s;
+    }
+
+    /** 按 subsampling 降采样后的边长 */
+    static int subsampled(int size, int subsampling) {
+        return (size + subsampling - 1) / subsampling;
+    }
+}
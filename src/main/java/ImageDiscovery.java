@@ -0,0 +1,177 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 递归发现图片文件：每个文件夹作为一个任务在 ForkJoinPool 上扫描（{@link Files#walkFileTree} 只走一层），
+ * 子文件夹拆分为新任务并行扫描。每扫完一个文件夹就把其中的图片（按文件名排序）交给回调，
+ * 不必等整棵目录树扫描完，导入列表可以边扫描边显示。
+ * 每个结果带有相对于导入文件夹的子路径，导出时可据此保持原文件夹结构。
+ * 扫描的墙钟时间与各线程 CPU 时间之和记入 {@link ExportProfile} 的发现阶段。
+ */
+final class ImageDiscovery {
+    /** 每批最多交给回调的文件数，超大文件夹分批交付 */
+    private static final int BATCH_SIZE = 512;
+
+    /** 发现的图片及其相对于导入文件夹的子文件夹（"" 表示在导入文件夹本身或直接导入的文件） */
+    static final class Found {
+        final File file;
+        final String relativeDir;
+
+        Found(File file, String relativeDir) {
+            this.file = file; this.relativeDir = relativeDir;
+        }
+    }
+
+    /** 接收一批结果；在扫描线程上调用，实现需线程安全 */
+    interface Sink {
+        void accept(List<Found> batch);
+    }
+
+    private final ForkJoinPool pool;
+    private final Sink sink;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder cpuNanos = new LongAdder();
+    private volatile long wallNanos = -1;
+    private volatile boolean cancelled;
+
+    private ImageDiscovery(Sink sink) {
+        // 扫描以等待文件系统为主，线程数略多于核数
+        this.pool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+        this.sink = sink;
+    }
+
+    /** 开始在后台扫描：文件直接作为结果，文件夹递归扫描；全部完成后在扫描线程上调用 onDone */
+    static ImageDiscovery start(List<File> inputs, Sink sink, Runnable onDone) {
+        ImageDiscovery d = new ImageDiscovery(sink);
+        List<Found> direct = new ArrayList<>();
+        List<Path> dirs = new ArrayList<>();
+        for (File f : inputs) {
+            if (f.isDirectory()) {
+                dirs.add(f.toPath());
+            } else if (f.isFile() && PhotoWatermarkApp.isImageFileName(f.getName())) {
+                direct.add(new Found(f, ""));
+            }
+        }
+        d.pool.execute(() -> {
+            try {
+                if (!direct.isEmpty()) sink.accept(direct);
+                List<ScanDir> tasks = new ArrayList<>();
+                for (Path dir : dirs) tasks.add(d.new ScanDir(dir, dir));
+                ForkJoinTask.invokeAll(tasks);
+            } finally {
+                d.wallNanos = System.nanoTime() - d.startNanos;
+                d.pool.shutdown();
+                if (onDone != null) onDone.run();
+            }
+        });
+        return d;
+    }
+
+    /** 同步扫描并返回全部结果（按路径排序），供命令行使用；profile 不为 null 时记入发现阶段 */
+    static List<Found> scan(List<File> inputs, ExportProfile profile) throws InterruptedException {
+        List<Found> all = new ArrayList<>();
+        ImageDiscovery d = start(inputs, batch -> {
+            synchronized (all) {
+                all.addAll(batch);
+            }
+        }, null);
+        d.pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        if (profile != null) d.recordTo(profile);
+        all.sort(Comparator.comparing(f -> f.file.getPath()));
+        return all;
+    }
+
+    /** 扫描完成后把耗时记入 profile 的发现阶段（CPU 为各扫描线程之和） */
+    void recordTo(ExportProfile profile) {
+        if (wallNanos >= 0) profile.record(ExportProfile.Stage.DISCOVER, wallNanos, cpuNanos.sum());
+    }
+
+    /** 停止扫描：尚未开始的文件夹不再扫描，之后不再交付结果 */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * 不跟随链接遍历时 attrs 是链接本身的属性：指向文件的符号链接按目标判断（指向文件夹的仍不进入，避免循环），
+     * 失效的链接跳过。
+     */
+    private static boolean isFile(Path p, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile()) return true;
+        if (!attrs.isSymbolicLink()) return false;
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class).isRegularFile();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** 扫描一个文件夹：图片分批交付，子文件夹作为子任务并行扫描 */
+    private final class ScanDir extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path root;
+        private final Path dir;
+
+        ScanDir(Path root, Path dir) {
+            this.root = root; this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) return;
+            long cpu = ExportProfile.threadCpuNanos();
+            List<File> images = new ArrayList<>();
+            List<ScanDir> children = new ArrayList<>();
+            try {
+                // 深度 1：只列出本层，子文件夹以 visitFile 的形式出现，交给子任务
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) {
+                        if (attrs.isDirectory()) {
+                            children.add(new ScanDir(root, p));
+                        } else if (PhotoWatermarkApp.isImageFileName(p.getFileName().toString()) && isFile(p, attrs)) {
+                            images.add(p.toFile());
+                        }
+                        return cancelled ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path p, IOException e) {
+                        return FileVisitResult.CONTINUE; // 无权限等文件跳过
+                    }
+                });
+            } catch (IOException e) {
+                cpuNanos.add(ExportProfile.threadCpuNanos() - cpu);
+                return; // 文件夹不可读时跳过整棵子树
+            }
+            // 先派出子任务，本层结果交付的同时子文件夹已在其他线程上扫描
+            for (ScanDir child : children) child.fork();
+            if (!images.isEmpty() && !cancelled) {
+                images.sort(null);
+                String rel = root.relativize(dir).toString().replace(File.separatorChar, '/');
+                for (int i = 0; i < images.size(); i += BATCH_SIZE) {
+                    List<Found> batch = new ArrayList<>();
+                    for (File f : images.subList(i, Math.min(images.size(), i + BATCH_SIZE))) batch.add(new Found(f, rel));
+                    sink.accept(batch);
+                }
+            }
+            // join 时本线程可能替其他任务干活，那部分 CPU 由那些任务自己计
+            cpuNanos.add(ExportProfile.threadCpuNanos() - cpu);
+            for (ScanDir child : children) child.join();
+        }
+    }
+}
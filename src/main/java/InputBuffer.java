@@ -0,0 +1,246 @@
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 单次读取的输入文件：整个文件只读一遍，EXIF 解析（metadata-extractor）与像素解码（ImageIO）共用同一份字节。
+ * 本地文件用只读内存映射；NFS/SMB 等网络文件系统上的文件一次顺序读入池化的堆缓冲区，
+ * 避免映射页在网络上被零散地按需拉取。小文件直接读入缓冲区（映射的固定开销比读取更大）。
+ */
+final class InputBuffer implements Closeable {
+    /** 小于该大小的文件不做映射，直接读入缓冲区 */
+    private static final long MAP_THRESHOLD = 256 * 1024;
+    /** 网络文件超过该大小时不再占用堆缓冲区，改用映射（例如分条导出的超大 TIFF） */
+    private static final long MAX_HEAP_READ = 64L * 1024 * 1024;
+    private static final int POOL_LIMIT = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /** 池中数组的总字节上限；超过单个上限的数组用完即丢，不常驻堆中 */
+    private static final long POOL_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_POOLED_ARRAY = 16 * 1024 * 1024;
+    private static final Set<String> NETWORK_FILE_SYSTEMS = Set.of(
+            "nfs", "nfs4", "cifs", "smbfs", "smb2", "smb3", "afpfs", "webdav", "davfs", "fuse.sshfs", "9p", "ncpfs");
+
+    private static final ArrayDeque<byte[]> POOL = new ArrayDeque<>();
+    private static long pooledBytes; // 受 POOL 锁保护
+    private static final Map<Path, Boolean> NETWORK_DIRS = new ConcurrentHashMap<>();
+
+    final File file;
+    private final ByteBuffer buffer; // 只读，position 恒为 0
+    private byte[] pooled;           // 来自池的数组，关闭时归还
+
+    private InputBuffer(File file, ByteBuffer buffer, byte[] pooled) {
+        this.file = file;
+        this.buffer = buffer;
+        this.pooled = pooled;
+    }
+
+    @SuppressWarnings("try")
+    static InputBuffer open(File file) throws IOException {
+        Path path = file.toPath();
+        try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.READ);
+             FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("文件过大: " + file.getName());
+            ExportProfile.addBytesIn(size);
+            if (!usesHeap(path, size)) {
+                return new InputBuffer(file, ch.map(FileChannel.MapMode.READ_ONLY, 0, size), null);
+            }
+            byte[] array = borrow((int) size);
+            ByteBuffer dst = ByteBuffer.wrap(array, 0, (int) size);
+            while (dst.hasRemaining()) {
+                if (ch.read(dst) < 0) break; // 读取过程中文件被截短
+            }
+            return new InputBuffer(file, ByteBuffer.wrap(array, 0, dst.position()).slice().asReadOnlyBuffer(), array);
+        }
+    }
+
+    /** 包装已在内存中的字节（如 HTTP 上传）；name 只用于按扩展名挑选解码器，不对应磁盘文件 */
+    static InputBuffer wrap(String name, byte[] bytes) {
+        return new InputBuffer(new File(name), ByteBuffer.wrap(bytes).asReadOnlyBuffer(), null);
+    }
+
+    /** 打开该文件会占用的堆内存（映射的文件不占堆），供内存准入估算 */
+    static long heapBytes(File file) {
+        long size = file.length();
+        return usesHeap(file.toPath(), size) ? size : 0;
+    }
+
+    private static boolean usesHeap(Path path, long size) {
+        if (size < MAP_THRESHOLD) return true;
+        return size <= MAX_HEAP_READ && isNetwork(path);
+    }
+
+    /** 文件是否位于网络文件系统上（按所在目录缓存判断结果） */
+    static boolean isNetwork(Path path) {
+        Path abs = path.toAbsolutePath();
+        if (abs.toString().startsWith("\\\\")) return true; // Windows UNC 路径
+        Path dir = abs.getParent() != null ? abs.getParent() : abs;
+        return NETWORK_DIRS.computeIfAbsent(dir, d -> {
+            try {
+                return NETWORK_FILE_SYSTEMS.contains(Files.getFileStore(d).type().toLowerCase(Locale.ROOT));
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    long length() {
+        return buffer.limit();
+    }
+
+    /** 文件内容的只读视图（独立的 position），供按偏移量直接读取的解析器使用 */
+    ByteBuffer bytes() {
+        return buffer.duplicate();
+    }
+
+    /** 供 ImageIO 解码的流；每次调用得到独立的读取位置 */
+    ImageInputStream imageStream() {
+        return new BufferImageInputStream(buffer.duplicate());
+    }
+
+    /** 供 metadata-extractor 等按字节流读取的输入；每次调用得到独立的读取位置 */
+    InputStream inputStream() {
+        return new BufferInputStream(buffer.duplicate());
+    }
+
+    @Override
+    public void close() {
+        byte[] array = pooled;
+        pooled = null;
+        if (array != null) giveBack(array);
+    }
+
+    private static byte[] borrow(int size) {
+        synchronized (POOL) {
+            for (Iterator<byte[]> it = POOL.iterator(); it.hasNext(); ) {
+                byte[] a = it.next();
+                if (a.length >= size) {
+                    it.remove();
+                    pooledBytes -= a.length;
+                    return a;
+                }
+            }
+        }
+        if (size > MAX_POOLED_ARRAY) return new byte[size];
+        // 按 2 的幂分配，便于下一个大小相近的文件复用
+        int capacity = Math.max(64 * 1024, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+        return new byte[Math.max(size, Math.min(capacity, MAX_POOLED_ARRAY))];
+    }
+
+    private static void giveBack(byte[] array) {
+        if (array.length > MAX_POOLED_ARRAY) return;
+        synchronized (POOL) {
+            if (POOL.size() >= POOL_LIMIT || pooledBytes + array.length > POOL_BYTES) return;
+            POOL.push(array);
+            pooledBytes += array.length;
+        }
+    }
+
+    /** 基于 ByteBuffer 的 ImageInputStream：随机访问即改变下标，无需缓存 */
+    private static final class BufferImageInputStream extends ImageInputStreamImpl {
+        private final ByteBuffer buf;
+
+        BufferImageInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= buf.limit()) return -1;
+            return buf.get((int) streamPos++) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            if (off < 0 || len < 0 || off + len > b.length) throw new IndexOutOfBoundsException();
+            bitOffset = 0;
+            if (len == 0) return 0;
+            if (streamPos >= buf.limit()) return -1;
+            int n = (int) Math.min(len, buf.limit() - streamPos);
+            buf.get((int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return buf.limit();
+        }
+
+        @Override
+        public boolean isCached() {
+            return true;
+        }
+
+        @Override
+        public boolean isCachedMemory() {
+            return true;
+        }
+    }
+
+    /** 基于 ByteBuffer 的 InputStream，支持 mark/reset */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        BufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buf.hasRemaining()) return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int k = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + k);
+            return k;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            buf.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buf.reset();
+        }
+    }
+}
@@ -23,9 +23,13 @@ public class LastSessionManager {
     public static LastSession load() {
         File f = getLastSessionFile();
         if (!f.exists()) return null;
+        WatermarkEvents.SettingsIO event = WatermarkEvents.settings();
         try (Reader r = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)) {
-            return GSON.fromJson(r, LastSession.class);
+            LastSession session = GSON.fromJson(r, LastSession.class);
+            WatermarkEvents.commit(event, f, "load", session != null ? 1 : 0, true);
+            return session;
         } catch (Exception e) {
+            WatermarkEvents.commit(event, f, "load", 0, false);
             // 备份损坏
             try { Files.copy(f.toPath(), new File(f.getParentFile(), f.getName()+".corrupt-"+System.currentTimeMillis()).toPath(), StandardCopyOption.REPLACE_EXISTING); } catch (Exception ignore) {}
             return null;
@@ -34,6 +38,13 @@ public class LastSessionManager {
 
     public static boolean save(LastSession session) {
         if (session == null) return false;
+        WatermarkEvents.SettingsIO event = WatermarkEvents.settings();
+        boolean ok = write(session);
+        WatermarkEvents.commit(event, getLastSessionFile(), "save", 1, ok);
+        return ok;
+    }
+
+    private static boolean write(LastSession session) {
         File f = getLastSessionFile();
         File tmp = new File(f.getParentFile(), f.getName()+".tmp");
         try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
@@ -53,6 +64,7 @@ public class LastSessionManager {
 class LastSession {
     String lastTemplateId; // 用户当时选中的模板（如果选择了）
     WatermarkTemplate lastSettings; // 完整快照
+    String lastOutputFolder; // 上次的输出文件夹（用于继续未完成的导出）
     long savedAt;
 }
 
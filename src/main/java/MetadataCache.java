@@ -0,0 +1,569 @@
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+
+import java.awt.*;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片元数据（拍摄时间、方向、宽高、机型）的磁盘缓存，与 templates.json 放在同一目录。
+ * 键为 (规范路径, 文件大小, 修改时间)，文件被改动后自动失效。
+ * 存储为只追加的二进制日志，每条记录带路径的 64 位哈希：首次使用时整个文件一次读入，
+ * 只扫描各记录的长度与哈希建立开放寻址索引，记录内容在查到时才解码，十万条也只需几毫秒。
+ * 新结果先记在内存里，攒满 {@value #FLUSH_BATCH} 条、最早一条已等待超过 2 秒、导出批次结束（{@link #flush()}）
+ * 或进程退出时一次追加到末尾，并行导出的线程不必逐张排队等文件锁；同一路径的旧记录过多时在加载时压缩重写。
+ * GUI、命令行、监视模式与 HTTP 服务可能同时使用同一个缓存文件：加载、追加、压缩与清空都持有
+ * 锁文件 metadata.cache.lock 上的 {@link FileLock}，追加前先接着扫描其他进程新写入的记录，只截掉确认不完整的尾部。
+ * 锁文件中保存缓存文件的代数，压缩或清空时加一，其他进程据此重新加载，不会按旧文件的偏移量写入新文件。
+ */
+final class MetadataCache {
+    private static final int MAGIC = 0x50574D43; // "PWMC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int MIN_RECORD = 8 * 4 + 4 * 2 + 2 + 2 + 2; // 哈希..机型长度，不含两段字符串
+    private static final int MAX_RECORD = 1 << 20;
+
+    private static final int FLUSH_BATCH = 256;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    // LOCK 只保护内存中的 RECENT 与待写列表；FILE 串行化文件读写并保护其余状态。需要两者时先 FILE 后 LOCK
+    private static final Object LOCK = new Object();
+    private static final Object FILE = new Object();
+    private static volatile Snapshot snapshot;                       // 启动时读入的日志，首次使用时加载，之后只读
+    private static final Map<String, Entry> RECENT = new HashMap<>(); // 本次运行新得到的记录，优先于 snapshot
+    private static final List<Entry> UNSAVED = new ArrayList<>();    // RECENT 中尚未写入文件的记录
+    private static long firstUnsaved;                                // UNSAVED 中最早一条的加入时间（nanoTime）
+    private static boolean flushing;                                 // 已有线程负责写入当前这批
+    private static long validEnd;                                    // 已确认的最后一条完整记录的结束位置
+    private static long generation;                                  // 加载时缓存文件的代数（见锁文件）
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(MetadataCache::flush, "metadata-cache-flush"));
+    }
+
+    private MetadataCache() { }
+
+    /** 一张图片缓存的元数据 */
+    static final class Entry {
+        final String path;
+        final long length;
+        final long lastModified;
+        final LocalDateTime dateTimeOriginal; // 无拍摄时间为 null
+        final int orientation;                // EXIF 方向，0 表示未知
+        final int width;
+        final int height;
+        final String model;                   // 相机型号，无则为 null
+
+        Entry(String path, long length, long lastModified, LocalDateTime dateTimeOriginal,
+              int orientation, int width, int height, String model) {
+            this.path = path; this.length = length; this.lastModified = lastModified;
+            this.dateTimeOriginal = dateTimeOriginal; this.orientation = orientation;
+            this.width = width; this.height = height; this.model = model;
+        }
+
+        Dimension size() {
+            return new Dimension(width, height);
+        }
+    }
+
+    /** 缓存命中直接返回，否则读文件头与 EXIF 并写入缓存 */
+    static Entry get(File file) throws IOException {
+        File canonical = file.getCanonicalFile();
+        Entry cached = lookup(canonical);
+        if (cached != null) return cached;
+        ExifProbe probe = ExifProbe.probe(canonical);
+        Dimension size = probe != null && probe.width > 0 ? null : ImageDecoder.probeSize(canonical);
+        LocalDateTime date = probe != null ? probe.dateTimeOriginal : fallbackDate(canonical);
+        return store(canonical, probe, size, date);
+    }
+
+    /** 同 {@link #get(File)}，未命中时从已读入的缓冲解析，不再读文件 */
+    static Entry get(InputBuffer buffer) throws IOException {
+        File canonical = buffer.file.getCanonicalFile();
+        Entry cached = lookup(canonical);
+        if (cached != null) return cached;
+        ExifProbe probe = ExifProbe.probe(buffer);
+        Dimension size = null;
+        if (probe == null || probe.width <= 0) {
+            try (ImageDecoder.Source src = ImageDecoder.open(buffer)) {
+                size = new Dimension(src.width, src.height);
+            }
+        }
+        LocalDateTime date = probe != null ? probe.dateTimeOriginal : fallbackDate(buffer);
+        return store(canonical, probe, size, date);
+    }
+
+    static long hits() { return HITS.get(); }
+    static long misses() { return MISSES.get(); }
+
+    /** 把尚未写入的新记录追加到缓存文件；导出批次结束时调用，写入失败只影响缓存 */
+    static void flush() {
+        synchronized (FILE) {
+            List<Entry> batch;
+            synchronized (LOCK) {
+                flushing = false;
+                if (UNSAVED.isEmpty()) return;
+                batch = new ArrayList<>(UNSAVED);
+                UNSAVED.clear();
+            }
+            snapshot();
+            append(batch);
+        }
+    }
+
+    /** 清空内存索引并删除缓存文件 */
+    static void clear() {
+        synchronized (FILE) {
+            synchronized (LOCK) {
+                RECENT.clear();
+                UNSAVED.clear();
+            }
+            snapshot = Snapshot.EMPTY;
+            validEnd = 0;
+            try {
+                locked(lock -> {
+                    Files.deleteIfExists(cacheFile());
+                    bumpGeneration(lock);
+                    return null;
+                });
+            } catch (IOException ignore) {
+                // 删除失败时下次加载仍会按键校验，不影响正确性
+            }
+        }
+    }
+
+    static Path cacheFile() {
+        return TemplateManager.getTemplatesFile().toPath().resolveSibling("metadata.cache");
+    }
+
+    private static Path lockFile() {
+        return TemplateManager.getTemplatesFile().toPath().resolveSibling("metadata.cache.lock");
+    }
+
+    /** 持有锁文件时执行的操作，参数为锁文件的通道（读写代数用） */
+    private interface Locked<T> {
+        T run(FileChannel lock) throws IOException;
+    }
+
+    // 锁住整个锁文件；同一进程内的调用都已在 FILE 中串行，不会重复加锁
+    private static <T> T locked(Locked<T> op) throws IOException {
+        try (FileChannel ch = FileChannel.open(lockFile(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = ch.lock();
+            try {
+                return op.run(ch);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private static long readGeneration(FileChannel lock) throws IOException {
+        if (lock.size() < 8) return 0;
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        while (buf.hasRemaining()) {
+            if (lock.read(buf, buf.position()) < 0) return 0;
+        }
+        return buf.getLong(0);
+    }
+
+    /** 缓存文件被替换或删除：代数加一，其他进程下次写入前会重新加载 */
+    private static void bumpGeneration(FileChannel lock) throws IOException {
+        generation = readGeneration(lock) + 1;
+        ByteBuffer buf = ByteBuffer.allocate(8).putLong(generation).flip();
+        while (buf.hasRemaining()) lock.write(buf, buf.position());
+    }
+
+    /** JPEG/TIFF 以外的格式由 metadata-extractor 完整解析；无法解析视为没有拍摄时间 */
+    private static LocalDateTime fallbackDate(File file) throws IOException {
+        try {
+            return exifDate(ImageMetadataReader.readMetadata(file));
+        } catch (ImageProcessingException e) {
+            return null;
+        }
+    }
+
+    private static LocalDateTime fallbackDate(InputBuffer buffer) throws IOException {
+        try (InputStream in = buffer.inputStream()) {
+            return exifDate(ImageMetadataReader.readMetadata(in, buffer.length()));
+        } catch (ImageProcessingException e) {
+            return null;
+        }
+    }
+
+    private static LocalDateTime exifDate(Metadata metadata) {
+        Directory exif = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+        if (exif != null && exif.containsTag(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL)) {
+            return ExifProbe.parseDateTime(exif.getString(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL));
+        }
+        return null;
+    }
+
+    private static Entry lookup(File canonical) {
+        String path = canonical.getPath();
+        long length = canonical.length();
+        long lastModified = canonical.lastModified();
+        Entry e;
+        synchronized (LOCK) {
+            e = RECENT.get(path);
+        }
+        if (e == null) e = snapshot().find(path);
+        if (e != null && e.length == length && e.lastModified == lastModified) {
+            HITS.incrementAndGet();
+            return e;
+        }
+        MISSES.incrementAndGet();
+        return null;
+    }
+
+    private static Entry store(File canonical, ExifProbe probe, Dimension size, LocalDateTime date) {
+        Entry e = new Entry(canonical.getPath(), canonical.length(), canonical.lastModified(), date,
+                probe != null ? probe.orientation : 0,
+                size != null ? size.width : probe.width,
+                size != null ? size.height : probe.height,
+                probe != null ? probe.model : null);
+        boolean due;
+        synchronized (LOCK) {
+            RECENT.put(e.path, e);
+            if (UNSAVED.isEmpty()) firstUnsaved = System.nanoTime();
+            UNSAVED.add(e);
+            due = !flushing && (UNSAVED.size() >= FLUSH_BATCH || System.nanoTime() - firstUnsaved >= FLUSH_INTERVAL_NANOS);
+            if (due) flushing = true;
+        }
+        if (due) flush();
+        return e;
+    }
+
+    // ---- 存储格式（大端） ----
+    // 文件头：int MAGIC, int VERSION
+    // 记录：int 记录长度（不含自身）, long 路径哈希, long 大小, long 修改时间, long 拍摄时间(UTC 秒, 无则 MIN_VALUE),
+    //       int 宽, int 高, short 方向, short 路径字节数, 路径(UTF-8), short 机型字节数, 机型(UTF-8)
+
+    private static Snapshot snapshot() {
+        Snapshot s = snapshot;
+        if (s != null) return s;
+        synchronized (FILE) {
+            if (snapshot == null) snapshot = load();
+            return snapshot;
+        }
+    }
+
+    private static Snapshot load() {
+        try {
+            return locked(lock -> {
+                generation = readGeneration(lock);
+                return read(lock);
+            });
+        } catch (IOException e) {
+            validEnd = 0;
+            return Snapshot.EMPTY;
+        }
+    }
+
+    // 持有锁时读入整个缓存文件并建立索引
+    private static Snapshot read(FileChannel lock) throws IOException {
+        Path file = cacheFile();
+        validEnd = 0;
+        if (!Files.isRegularFile(file)) return Snapshot.EMPTY;
+        ByteBuffer data;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE - 8) return discard(file, lock);
+            data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining()) {
+                if (ch.read(data) < 0) break;
+            }
+            data.flip();
+        } catch (IOException e) {
+            return discard(file, lock);
+        }
+        if (data.limit() < HEADER_BYTES || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) return discard(file, lock);
+
+        // 只读长度与哈希（直接按字节数组取值，启动时未经 JIT 也足够快）；同一路径后写的记录覆盖先写的
+        byte[] raw = data.array();
+        int limit = data.limit();
+        Snapshot snap = new Snapshot(data, limit / (MIN_RECORD + 32));
+        int pos = HEADER_BYTES;
+        while (pos + 4 + 8 <= limit) {
+            int len = int32(raw, pos);
+            if (len < MIN_RECORD || len > MAX_RECORD || len > limit - pos - 4) break; // 末尾记录未写完整
+            snap.put(((long) int32(raw, pos + 4) << 32) | (int32(raw, pos + 8) & 0xffffffffL), pos);
+            pos += 4 + len;
+        }
+        validEnd = pos;
+        if (snap.records > 1024 && snap.records > snap.live * 2) compact(file, snap, lock);
+        return snap;
+    }
+
+    private static int int32(byte[] b, int p) {
+        return (b[p] & 0xff) << 24 | (b[p + 1] & 0xff) << 16 | (b[p + 2] & 0xff) << 8 | (b[p + 3] & 0xff);
+    }
+
+    private static Entry decode(ByteBuffer data, int pos) {
+        try {
+            int len = data.getInt(pos);
+            ByteBuffer buf = data.slice(pos + 4 + 8, len - 8);
+            long length = buf.getLong();
+            long lastModified = buf.getLong();
+            long date = buf.getLong();
+            int width = buf.getInt();
+            int height = buf.getInt();
+            int orientation = buf.getShort();
+            String path = string(buf);
+            String model = string(buf);
+            if (path == null || buf.hasRemaining()) return null;
+            return new Entry(path, length, lastModified,
+                    date == NO_DATE ? null : LocalDateTime.ofEpochSecond(date, 0, ZoneOffset.UTC),
+                    orientation, width, height, model);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            return null; // 记录内容损坏，视为未命中，之后会被新记录覆盖
+        }
+    }
+
+    private static String string(ByteBuffer buf) {
+        int n = Short.toUnsignedInt(buf.getShort());
+        if (n == 0) return null;
+        byte[] b = new byte[n];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer encode(Entry e, byte[] path) {
+        byte[] model = e.model != null ? e.model.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (model.length > 0xFFFF) model = new byte[0];
+        int len = MIN_RECORD + path.length + model.length;
+        ByteBuffer buf = ByteBuffer.allocate(4 + len);
+        buf.putInt(len)
+           .putLong(hash(path))
+           .putLong(e.length)
+           .putLong(e.lastModified)
+           .putLong(e.dateTimeOriginal != null ? e.dateTimeOriginal.toEpochSecond(ZoneOffset.UTC) : NO_DATE)
+           .putInt(e.width)
+           .putInt(e.height)
+           .putShort((short) e.orientation)
+           .putShort((short) path.length).put(path)
+           .putShort((short) model.length).put(model);
+        buf.flip();
+        return buf;
+    }
+
+    /** 路径 UTF-8 字节的 FNV-1a 64 位哈希（0 留作空槽标记） */
+    private static long hash(byte[] path) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : path) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * 一次追加一批记录；写入失败只影响缓存，不影响调用方。持有 FILE 时调用。
+     * 持锁后先确认缓存文件仍是加载时的那一代（否则重新加载），再从已确认的位置扫描到文件末尾，
+     * 跳过其他进程追加的完整记录，只截掉崩溃时写了一半的尾部（持锁期间不会有其他进程正在写）。
+     */
+    private static void append(List<Entry> entries) {
+        List<ByteBuffer> encoded = new ArrayList<>(entries.size());
+        int total = 0;
+        for (Entry e : entries) {
+            byte[] path = e.path.getBytes(StandardCharsets.UTF_8);
+            if (path.length > 0xFFFF) continue;
+            ByteBuffer record = encode(e, path);
+            total += record.remaining();
+            encoded.add(record);
+        }
+        if (encoded.isEmpty()) return;
+        ByteBuffer records = ByteBuffer.allocate(total);
+        for (ByteBuffer r : encoded) records.put(r);
+        records.flip();
+        try {
+            locked(lock -> {
+                long gen = readGeneration(lock);
+                if (gen != generation) {
+                    generation = gen;
+                    snapshot = read(lock);
+                }
+                try (FileChannel ch = FileChannel.open(cacheFile(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    long size = ch.size();
+                    long end = validEnd;
+                    if (end < HEADER_BYTES || end > size) end = header(ch, lock);
+                    end = scanRecords(ch, end, size);
+                    if (end < size) ch.truncate(end);
+                    writeFully(ch, records, end);
+                    validEnd = end + records.limit();
+                }
+                return null;
+            });
+        } catch (IOException ex) {
+            validEnd = 0; // 下次写入时重新确认文件头与末尾
+        }
+    }
+
+    /** 确认文件头；文件为空或文件头无效（已确认不是缓存数据）时重建，返回第一条记录的位置 */
+    private static long header(FileChannel ch, FileChannel lock) throws IOException {
+        if (ch.size() >= HEADER_BYTES) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(ch, head, 0);
+            if (head.getInt(0) == MAGIC && head.getInt(4) == VERSION) return HEADER_BYTES;
+            bumpGeneration(lock);
+        }
+        ch.truncate(0);
+        writeFully(ch, ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip(), 0);
+        return HEADER_BYTES;
+    }
+
+    /** 从 pos 起按记录长度前进，返回最后一条完整记录的结束位置 */
+    private static long scanRecords(FileChannel ch, long pos, long size) throws IOException {
+        ByteBuffer len = ByteBuffer.allocate(4);
+        while (pos + 4 + 8 <= size) {
+            len.clear();
+            readFully(ch, len, pos);
+            int n = len.getInt(0);
+            if (n < MIN_RECORD || n > MAX_RECORD || n > size - pos - 4) break;
+            pos += 4 + n;
+        }
+        return pos;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) throw new EOFException();
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        long p = pos;
+        while (buf.hasRemaining()) p += ch.write(buf, p);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    /** 只保留每个路径的最新记录（原样复制字节），写入临时文件后原子替换；持有锁时调用 */
+    private static void compact(Path file, Snapshot snap, FileChannel lock) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long end;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip());
+            for (int pos : snap.offsets) {
+                if (pos != 0) writeFully(out, snap.data.slice(pos, 4 + snap.data.getInt(pos)));
+            }
+            end = out.size();
+            // 先让其他进程的已确认位置失效，再替换文件；代数写不进去时不压缩
+            bumpGeneration(lock);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                return; // 保持原文件（其他进程只是多重新加载一次）
+            }
+        }
+        validEnd = end;
+    }
+
+    /** 文件头不符或无法读取：删除后从空缓存开始；持有锁时调用 */
+    private static Snapshot discard(Path file, FileChannel lock) {
+        validEnd = 0;
+        try {
+            Files.deleteIfExists(file);
+            bumpGeneration(lock);
+        } catch (IOException ignore) {
+            // 下次写入时会截断重建
+        }
+        return Snapshot.EMPTY;
+    }
+
+    /** 读入内存的日志与其上的 路径哈希 -> 记录偏移 开放寻址表 */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(ByteBuffer.allocate(0), 0);
+
+        final ByteBuffer data;
+        long[] keys;
+        int[] offsets;
+        int records; // 扫描到的记录数（含被覆盖的旧记录）
+        int live;    // 不同路径数
+
+        /** expected 为预计的记录数，按它预分配表，加载时不必扩容 */
+        Snapshot(ByteBuffer data, int expected) {
+            this.data = data;
+            int capacity = Integer.highestOneBit(Math.max(8, expected) * 2 - 1) << 1;
+            keys = new long[capacity];
+            offsets = new int[capacity];
+        }
+
+        void put(long hash, int pos) {
+            if ((live + 1) * 2 > keys.length) grow();
+            records++;
+            int mask = keys.length - 1;
+            int i = (int) (hash ^ (hash >>> 32)) & mask;
+            while (keys[i] != 0 && keys[i] != hash) i = (i + 1) & mask;
+            if (keys[i] == 0) live++;
+            keys[i] = hash;
+            offsets[i] = pos;
+        }
+
+        Entry find(String path) {
+            if (live == 0) return null;
+            long hash = hash(path.getBytes(StandardCharsets.UTF_8));
+            int mask = keys.length - 1;
+            int i = (int) (hash ^ (hash >>> 32)) & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == hash) {
+                    Entry e = decode(data, offsets[i]);
+                    return e != null && e.path.equals(path) ? e : null;
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldOffsets = offsets;
+            keys = new long[oldKeys.length * 2];
+            offsets = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                long k = oldKeys[j];
+                if (k == 0) continue;
+                int i = (int) (k ^ (k >>> 32)) & mask;
+                while (keys[i] != 0) i = (i + 1) & mask;
+                keys[i] = k;
+                offsets[i] = oldOffsets[j];
+            }
+        }
+    }
+}
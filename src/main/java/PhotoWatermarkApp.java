@@ -1,26 +1,19 @@
-import com.drew.imaging.ImageMetadataReader;
-import com.drew.metadata.Metadata;
-import com.drew.metadata.Directory;
-import com.drew.metadata.exif.ExifSubIFDDirectory;
 
 import javax.imageio.ImageIO;
-import javax.imageio.ImageWriter;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.stream.FileImageOutputStream;
-import javax.imageio.IIOImage;
 import java.awt.*;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Scanner;
 
 public class PhotoWatermarkApp {
 
+    // 水印日期的输出格式（不可变，线程间共享）
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
+
     // 水印位置枚举
     public enum WatermarkPosition {
         TOP_LEFT, TOP_CENTER, TOP_RIGHT,
@@ -29,6 +22,10 @@ public class PhotoWatermarkApp {
     }
 
     public static void main(String[] args) {
+        // 带参数启动时走非交互的命令行批处理（见 PhotoWatermarkCli），退出码反映是否有失败
+        if (args.length > 0) {
+            System.exit(PhotoWatermarkCli.run(args));
+        }
         Scanner scanner = new Scanner(System.in);
 
         // 获取用户输入的图片路径
@@ -70,12 +67,7 @@ public class PhotoWatermarkApp {
                 System.out.println("水印添加成功！");
             } else if (inputPath.isDirectory()) {
                 // 处理目录中的所有图片文件
-                File[] files = inputPath.listFiles((dir, name) -> {
-                    String lowerName = name.toLowerCase();
-                    return lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg") ||
-                           lowerName.endsWith(".png") || lowerName.endsWith(".gif") ||
-                           lowerName.endsWith(".bmp") || lowerName.endsWith(".tif") || lowerName.endsWith(".tiff");
-                });
+                File[] files = inputPath.listFiles((dir, name) -> isImageFileName(name));
                 
                 if (files == null || files.length == 0) {
                     System.out.println("错误: 目录中没有找到支持的图片文件。");
@@ -123,19 +115,23 @@ public class PhotoWatermarkApp {
     }
 
     // 处理图片并添加水印
-    private static void processImage(File imageFile, int fontSize, Color color, WatermarkPosition position, String outputFormat) throws IOException, ParseException {
-        // 读取图片
-        BufferedImage image = ImageIO.read(imageFile);
-
-        // 读取EXIF信息获取拍摄时间
-        String watermarkText = getExifDateTime(imageFile);
+    private static void processImage(File imageFile, int fontSize, Color color, WatermarkPosition position, String outputFormat) throws IOException {
+        // 读取图片与EXIF拍摄时间：文件只读一次，两者共用同一份缓冲
+        BufferedImage image;
+        String watermarkText;
+        try (InputBuffer buffer = InputBuffer.open(imageFile);
+             ImageDecoder.Source source = ImageDecoder.open(buffer)) {
+            image = source.decode(1).image;
+            watermarkText = getExifDateTime(buffer);
+        }
         if (watermarkText == null) {
             // 如果没有EXIF时间信息，使用当前日期
-            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-            watermarkText = dateFormat.format(new Date());
+            watermarkText = LocalDate.now().format(DATE_FORMAT);
         }
 
-        // 创建Graphics2D对象用于绘制水印
+        // 创建Graphics2D对象用于绘制水印（解码事件由 ImageDecoder 发出，这里记录合成与编码）
+        WatermarkEvents.Composite composite = new WatermarkEvents.Composite();
+        composite.begin();
         Graphics2D g2d = image.createGraphics();
 
         // 设置抗锯齿，使文字更平滑
@@ -201,6 +197,16 @@ public class PhotoWatermarkApp {
 
         // 释放资源
         g2d.dispose();
+        composite.end();
+        if (composite.shouldCommit()) {
+            composite.path = imageFile.getPath();
+            composite.mode = "TEXT";
+            composite.width = image.getWidth();
+            composite.height = image.getHeight();
+            composite.dirtyWidth = textWidth;
+            composite.dirtyHeight = textHeight;
+            composite.commit();
+        }
 
         // 创建保存目录 - 现在统一使用原目录名_watermark作为子目录
         String parentDirPath = imageFile.getParent();
@@ -225,361 +231,61 @@ public class PhotoWatermarkApp {
             outputFileName = outputFileName.replaceAll("\\.[^.]+$", ".jpg");
         }
         File outputFile = new File(outputDir, outputFileName);
+        WatermarkEvents.Encode encode = new WatermarkEvents.Encode();
+        encode.begin();
         ImageIO.write(image, outputFormat, outputFile);
+        encode.end();
+        if (encode.shouldCommit()) {
+            encode.path = outputFile.getPath();
+            encode.format = outputFormat;
+            encode.quality = "PNG".equals(outputFormat) ? 0 : 75; // ImageIO 默认质量
+            encode.width = image.getWidth();
+            encode.height = image.getHeight();
+            encode.bytes = outputFile.length();
+            encode.commit();
+        }
 
         System.out.println("图片已保存至: " + outputFile.getAbsolutePath());
     }
 
-    // 从图片文件中读取EXIF信息获取拍摄时间
-    private static String getExifDateTime(File imageFile) {
+    // 从图片文件中读取EXIF信息获取拍摄时间（经元数据缓存，同一文件不重复解析）
+    static String getExifDateTime(File imageFile) {
         try {
-            Metadata metadata = ImageMetadataReader.readMetadata(imageFile);
-            Directory directory = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
-            if (directory != null) {
-                String dateTime = directory.getString(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL);
-                if (dateTime != null) {
-                    // EXIF时间格式通常为: yyyy:MM:dd HH:mm:ss
-                    // 提取年月日部分
-                    SimpleDateFormat exifFormat = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.ENGLISH);
-                    Date date = exifFormat.parse(dateTime);
-                    SimpleDateFormat outputFormat = new SimpleDateFormat("yyyy-MM-dd");
-                    return outputFormat.format(date);
-                }
-            }
+            return formatDate(MetadataCache.get(imageFile).dateTimeOriginal);
         } catch (Exception e) {
             System.out.println("读取EXIF信息时出错: " + e.getMessage());
         }
         return null;
     }
 
-    // 获取图片格式
-    private static String getImageFormat(String fileName) {
-        int dotIndex = fileName.lastIndexOf(".");
-        if (dotIndex > 0) {
-            return fileName.substring(dotIndex + 1).toUpperCase();
-        }
-        return "JPG";
-    }
-
-    public static void processImageWithImageWatermark(File imageFile, File outputFile, File watermarkImageFile, String positionStr, String outputFormat, int jpegQuality, int width, int height, double scale, double watermarkScale, int watermarkOpacity, double rotationDegrees) {
+    // 从已读入内存的文件解析 EXIF 拍摄日期，与像素解码共用同一份字节
+    static String getExifDateTime(InputBuffer buffer) {
         try {
-            // 1. Load the source image
-            BufferedImage image = ImageIO.read(imageFile);
-            int newW = image.getWidth(), newH = image.getHeight();
-
-            // 2. Resize the source image if needed
-            if (scale > 0 && scale != 1.0) {
-                newW = (int)(image.getWidth() * scale);
-                newH = (int)(image.getHeight() * scale);
-            } else {
-                if (width > 0) newW = width;
-                if (height > 0) newH = height;
-            }
-
-            if (newW != image.getWidth() || newH != image.getHeight()) {
-                Image scaled = image.getScaledInstance(newW, newH, Image.SCALE_SMOOTH);
-                BufferedImage scaledImg = new BufferedImage(newW, newH, image.getType() == 0 ? BufferedImage.TYPE_INT_ARGB : image.getType());
-                Graphics2D g2dScale = scaledImg.createGraphics();
-                g2dScale.drawImage(scaled, 0, 0, null);
-                g2dScale.dispose();
-                image = scaledImg;
-            }
-
-            // 3. Load the watermark image
-            BufferedImage watermark = ImageIO.read(watermarkImageFile);
-
-            // 4. Scale the watermark image
-            int wmWidth = (int)(watermark.getWidth() * watermarkScale);
-            int wmHeight = (int)(watermark.getHeight() * watermarkScale);
-            wmWidth = Math.max(1, wmWidth); wmHeight = Math.max(1, wmHeight);
-            Image scaledWatermark = watermark.getScaledInstance(wmWidth, wmHeight, Image.SCALE_SMOOTH);
-            BufferedImage scaledWatermarkImg = new BufferedImage(wmWidth, wmHeight, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D gW = scaledWatermarkImg.createGraphics();
-            gW.drawImage(scaledWatermark, 0, 0, null);
-            gW.dispose();
-
-            // 5. Prepare graphics
-            Graphics2D g2d = image.createGraphics();
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, watermarkOpacity / 100f));
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-            // 6. Calculate position (unrotated bounding box inside)
-            int x = 0, y = 0;
-            int padding = 20;
-            WatermarkPosition position = getPositionFromString(positionStr);
-            switch (position) {
-                case TOP_LEFT:      x = padding; y = padding; break;
-                case TOP_CENTER:    x = (image.getWidth() - wmWidth) / 2; y = padding; break;
-                case TOP_RIGHT:     x = image.getWidth() - wmWidth - padding; y = padding; break;
-                case MIDDLE_LEFT:   x = padding; y = (image.getHeight() - wmHeight) / 2; break;
-                case CENTER:        x = (image.getWidth() - wmWidth) / 2; y = (image.getHeight() - wmHeight) / 2; break;
-                case MIDDLE_RIGHT:  x = image.getWidth() - wmWidth - padding; y = (image.getHeight() - wmHeight) / 2; break;
-                case BOTTOM_LEFT:   x = padding; y = image.getHeight() - wmHeight - padding; break;
-                case BOTTOM_CENTER: x = (image.getWidth() - wmWidth) / 2; y = image.getHeight() - wmHeight - padding; break;
-                case BOTTOM_RIGHT:  x = image.getWidth() - wmWidth - padding; y = image.getHeight() - wmHeight - padding; break;
-            }
-
-            double rad = Math.toRadians(rotationDegrees);
-            double cx = x + wmWidth / 2.0;
-            double cy = y + wmHeight / 2.0;
-            AffineTransform oldTx = g2d.getTransform();
-            g2d.rotate(rad, cx, cy);
-            g2d.drawImage(scaledWatermarkImg, x, y, null);
-            g2d.setTransform(oldTx);
-            g2d.dispose();
-
-            // 8. Save
-            if ("PNG".equalsIgnoreCase(outputFormat)) {
-                ImageIO.write(image, "PNG", outputFile);
-            } else {
-                ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-                ImageWriteParam param = writer.getDefaultWriteParam();
-                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                param.setCompressionQuality(jpegQuality / 100f);
-                FileImageOutputStream output = new FileImageOutputStream(outputFile);
-                writer.setOutput(output);
-                writer.write(null, new IIOImage(image, null, null), param);
-                output.close();
-                writer.dispose();
-            }
-
+            return formatDate(MetadataCache.get(buffer).dateTimeOriginal);
         } catch (Exception e) {
-            e.printStackTrace();
+            System.out.println("读取EXIF信息时出错: " + e.getMessage());
         }
+        return null;
     }
 
-    public static void processImageGUI(File imageFile, File outputFile, int fontSize, Color color, String positionStr, String outputFormat, int jpegQuality, int width, int height, double scale, String watermarkText, String fontName, int opacity, boolean shadow, boolean stroke, boolean bold, boolean italic, double rotationDegrees) {
-        try {
-            BufferedImage image = ImageIO.read(imageFile);
-            int newW = image.getWidth(), newH = image.getHeight();
-            if (scale > 0) {
-                newW = (int)(image.getWidth() * scale);
-                newH = (int)(image.getHeight() * scale);
-            } else {
-                if (width > 0) newW = width;
-                if (height > 0) newH = height;
-            }
-            if (newW != image.getWidth() || newH != image.getHeight()) {
-                Image scaled = image.getScaledInstance(newW, newH, Image.SCALE_SMOOTH);
-                BufferedImage scaledImg = new BufferedImage(newW, newH, image.getType() == 0 ? BufferedImage.TYPE_INT_ARGB : image.getType());
-                Graphics2D g2dScale = scaledImg.createGraphics();
-                g2dScale.drawImage(scaled, 0, 0, null);
-                g2dScale.dispose();
-                image = scaledImg;
-            }
-            Graphics2D g2d = image.createGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            int fontStyle = Font.PLAIN;
-            if (bold && italic) fontStyle = Font.BOLD | Font.ITALIC;
-            else if (bold) fontStyle = Font.BOLD;
-            else if (italic) fontStyle = Font.ITALIC;
-            if ("Arial".equals(fontName) || "系统字体".equals(fontName)) fontName = "Arial";
-            Font font = new Font(fontName, fontStyle, fontSize);
-            g2d.setFont(font);
-            Color watermarkColor = new Color(color.getRed(), color.getGreen(), color.getBlue(), (int)(opacity * 2.55));
-            g2d.setColor(watermarkColor);
-            FontMetrics fontMetrics = g2d.getFontMetrics();
-            int textWidth = fontMetrics.stringWidth(watermarkText);
-            int textHeight = fontMetrics.getAscent();
-            int x = 0, y = 0;
-            int padding = 20;
-            WatermarkPosition position = getPositionFromString(positionStr);
-            switch (position) {
-                case TOP_LEFT: x = padding; y = padding + textHeight; break;
-                case TOP_CENTER: x = (image.getWidth() - textWidth) / 2; y = padding + textHeight; break;
-                case TOP_RIGHT: x = image.getWidth() - textWidth - padding; y = padding + textHeight; break;
-                case MIDDLE_LEFT: x = padding; y = (image.getHeight() + textHeight) / 2; break;
-                case CENTER: x = (image.getWidth() - textWidth) / 2; y = (image.getHeight() + textHeight) / 2; break;
-                case MIDDLE_RIGHT: x = image.getWidth() - textWidth - padding; y = (image.getHeight() + textHeight) / 2; break;
-                case BOTTOM_LEFT: x = padding; y = image.getHeight() - padding; break;
-                case BOTTOM_CENTER: x = (image.getWidth() - textWidth) / 2; y = image.getHeight() - padding; break;
-                case BOTTOM_RIGHT: x = image.getWidth() - textWidth - padding; y = image.getHeight() - padding; break;
-            }
-            double rad = Math.toRadians(rotationDegrees);
-            double cx = x + textWidth / 2.0;
-            double cy = (y - textHeight) + textHeight / 2.0; // y baseline; top = y - textHeight
-            AffineTransform old = g2d.getTransform();
-            g2d.rotate(rad, cx, cy);
-            if (shadow) {
-                g2d.setColor(new Color(0,0,0,(int)(opacity * 1.5)));
-                g2d.drawString(watermarkText, x+2, y+2);
-                g2d.setColor(watermarkColor);
-            }
-            if (stroke) {
-                g2d.setStroke(new BasicStroke(2f));
-                g2d.setColor(Color.WHITE);
-                g2d.drawString(watermarkText, x-1, y-1);
-                g2d.setColor(watermarkColor);
-            }
-            g2d.drawString(watermarkText, x, y);
-            g2d.setTransform(old);
-            g2d.dispose();
-            if ("PNG".equalsIgnoreCase(outputFormat)) {
-                ImageIO.write(image, "PNG", outputFile);
-            } else {
-                ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-                ImageWriteParam param = writer.getDefaultWriteParam();
-                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                param.setCompressionQuality(jpegQuality / 100f);
-                FileImageOutputStream output = new FileImageOutputStream(outputFile);
-                writer.setOutput(output);
-                writer.write(null, new IIOImage(image, null, null), param);
-                output.close();
-                writer.dispose();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    static String formatDate(LocalDateTime dateTime) {
+        return dateTime != null ? dateTime.format(DATE_FORMAT) : null;
     }
 
-    public static void processImageGUICustom(File imageFile, File outputFile, int fontSize, Color color, String outputFormat, int jpegQuality, int width, int height, double scale, String watermarkText, String fontName, int opacity, boolean shadow, boolean stroke, boolean bold, boolean italic, int customX, int customY, double rotationDegrees) {
-        try {
-            BufferedImage image = ImageIO.read(imageFile);
-            int origW = image.getWidth();
-            int origH = image.getHeight();
-            int newW = origW, newH = origH;
-            if (scale > 0 && scale != 1.0) {
-                newW = (int)(origW * scale);
-                newH = (int)(origH * scale);
-            } else {
-                if (width > 0) newW = width;
-                if (height > 0) newH = height;
-            }
-            if (newW != origW || newH != origH) {
-                Image scaled = image.getScaledInstance(newW, newH, Image.SCALE_SMOOTH);
-                BufferedImage scaledImg = new BufferedImage(newW, newH, image.getType() == 0 ? BufferedImage.TYPE_INT_ARGB : image.getType());
-                Graphics2D g2Scale = scaledImg.createGraphics();
-                g2Scale.drawImage(scaled, 0, 0, null);
-                g2Scale.dispose();
-                image = scaledImg;
-            }
-            double fx = (double)newW / origW;
-            double fy = (double)newH / origH;
-            int drawXTop = (int)Math.round(customX * fx);
-            int drawYTop = (int)Math.round(customY * fy);
-
-            Graphics2D g2d = image.createGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            int fontStyle = Font.PLAIN;
-            if (bold && italic) fontStyle = Font.BOLD | Font.ITALIC;
-            else if (bold) fontStyle = Font.BOLD;
-            else if (italic) fontStyle = Font.ITALIC;
-            if ("Arial".equals(fontName) || "系统字体".equals(fontName)) fontName = "Arial";
-            Font font = new Font(fontName, fontStyle, fontSize);
-            g2d.setFont(font);
-            Color watermarkColor = new Color(color.getRed(), color.getGreen(), color.getBlue(), (int)(opacity * 2.55));
-            g2d.setColor(watermarkColor);
-            FontMetrics fm = g2d.getFontMetrics();
-            int textWidth = fm.stringWidth(watermarkText);
-            int textAscent = fm.getAscent();
-            int x = Math.max(0, Math.min(drawXTop, newW - textWidth));
-            int yTop = Math.max(0, Math.min(drawYTop, newH - textAscent));
-            int yBase = yTop + textAscent;
-            double rad = Math.toRadians(rotationDegrees);
-            double cx = x + textWidth / 2.0;
-            double cy = yTop + textAscent / 2.0;
-            AffineTransform old = g2d.getTransform();
-            g2d.rotate(rad, cx, cy);
-            if (shadow) {
-                g2d.setColor(new Color(0,0,0,(int)(opacity * 1.5)));
-                g2d.drawString(watermarkText, x+2, yBase+2);
-                g2d.setColor(watermarkColor);
-            }
-            if (stroke) {
-                g2d.setStroke(new BasicStroke(2f));
-                g2d.setColor(Color.WHITE);
-                g2d.drawString(watermarkText, x-1, yBase-1);
-                g2d.setColor(watermarkColor);
-            }
-            g2d.drawString(watermarkText, x, yBase);
-            g2d.setTransform(old);
-            g2d.dispose();
-
-            if ("PNG".equalsIgnoreCase(outputFormat)) {
-                ImageIO.write(image, "PNG", outputFile);
-            } else {
-                ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-                ImageWriteParam param = writer.getDefaultWriteParam();
-                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                param.setCompressionQuality(jpegQuality / 100f);
-                FileImageOutputStream output = new FileImageOutputStream(outputFile);
-                writer.setOutput(output);
-                writer.write(null, new IIOImage(image, null, null), param);
-                output.close();
-                writer.dispose();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    // 是否为支持的图片扩展名
+    static boolean isImageFileName(String name) {
+        String lowerName = name.toLowerCase();
+        return lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg") ||
+               lowerName.endsWith(".png") || lowerName.endsWith(".gif") ||
+               lowerName.endsWith(".bmp") || lowerName.endsWith(".tif") || lowerName.endsWith(".tiff");
     }
 
-    public static void processImageWithImageWatermarkCustom(File imageFile, File outputFile, File watermarkImageFile, String outputFormat, int jpegQuality, int width, int height, double scale, double watermarkScale, int watermarkOpacity, int customX, int customY, double rotationDegrees) {
-        try {
-            BufferedImage image = ImageIO.read(imageFile);
-            int origW = image.getWidth();
-            int origH = image.getHeight();
-            int newW = origW, newH = origH;
-            if (scale > 0 && scale != 1.0) {
-                newW = (int)(origW * scale);
-                newH = (int)(origH * scale);
-            } else {
-                if (width > 0) newW = width;
-                if (height > 0) newH = height;
-            }
-            if (newW != origW || newH != origH) {
-                Image scaled = image.getScaledInstance(newW, newH, Image.SCALE_SMOOTH);
-                BufferedImage scaledImg = new BufferedImage(newW, newH, image.getType() == 0 ? BufferedImage.TYPE_INT_ARGB : image.getType());
-                Graphics2D g2Scale = scaledImg.createGraphics();
-                g2Scale.drawImage(scaled, 0, 0, null);
-                g2Scale.dispose();
-                image = scaledImg;
-            }
-            double fx = (double)newW / origW;
-            double fy = (double)newH / origH;
-            int drawX = (int)Math.round(customX * fx);
-            int drawY = (int)Math.round(customY * fy);
-
-            BufferedImage watermark = ImageIO.read(watermarkImageFile);
-            int wmWidth = Math.max(1, (int)(watermark.getWidth() * watermarkScale));
-            int wmHeight = Math.max(1, (int)(watermark.getHeight() * watermarkScale));
-            Image scaledWatermark = watermark.getScaledInstance(wmWidth, wmHeight, Image.SCALE_SMOOTH);
-            BufferedImage scaledWatermarkImg = new BufferedImage(wmWidth, wmHeight, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D gW = scaledWatermarkImg.createGraphics();
-            gW.drawImage(scaledWatermark, 0, 0, null);
-            gW.dispose();
-
-            drawX = Math.max(0, Math.min(drawX, image.getWidth() - wmWidth));
-            drawY = Math.max(0, Math.min(drawY, image.getHeight() - wmHeight));
-
-            Graphics2D g2d = image.createGraphics();
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, watermarkOpacity / 100f));
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            double rad = Math.toRadians(rotationDegrees);
-            double cx = drawX + wmWidth / 2.0;
-            double cy = drawY + wmHeight / 2.0;
-            AffineTransform old = g2d.getTransform();
-            g2d.rotate(rad, cx, cy);
-            g2d.drawImage(scaledWatermarkImg, drawX, drawY, null);
-            g2d.setTransform(old);
-            g2d.dispose();
-
-            if ("PNG".equalsIgnoreCase(outputFormat)) {
-                ImageIO.write(image, "PNG", outputFile);
-            } else {
-                ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-                ImageWriteParam param = writer.getDefaultWriteParam();
-                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                param.setCompressionQuality(jpegQuality / 100f);
-                FileImageOutputStream output = new FileImageOutputStream(outputFile);
-                writer.setOutput(output);
-                writer.write(null, new IIOImage(image, null, null), param);
-                output.close();
-                writer.dispose();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+    // 获取图片格式
+    private static String getImageFormat(String fileName) {
+        int dotIndex = fileName.lastIndexOf(".");
+        if (dotIndex > 0) {
+            return fileName.substring(dotIndex + 1).toUpperCase();
         }
+        return "JPG";
     }
 }
@@ -0,0 +1,466 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 命令行批处理模式：不打开任何窗口，按参数导出一批图片，与 GUI 共用同一套渲染计划、并行导出引擎、
+ * 增量清单与导出日志。由 {@link PhotoWatermarkApp#main(String[])} 在带参数启动时调用。
+ * 退出码：0 全部成功（含未变化跳过），1 有图片失败或未处理，2 参数错误。
+ */
+final class PhotoWatermarkCli {
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+
+    private static final long PROGRESS_INTERVAL_NANOS = 1_000_000_000L;
+
+    private PhotoWatermarkCli() { }
+
+    /** 参数错误，提示后以 {@link #EXIT_USAGE} 退出 */
+    private static final class UsageException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+    /** 解析后的命令行参数；未指定的格式参数为 null，沿用模板中的值 */
+    private static final class Options {
+        final List<String> inputs = new ArrayList<>();
+        String template;
+        File outputDir;
+        int workers = ExportService.defaultWorkers();
+        String format;
+        Integer quality;
+        Integer scalePercent;
+        Integer width;
+        Integer height;
+        String resample;
+        String position;
+        String text;
+        boolean incremental;
+        boolean recursive;
+        boolean keepFolders;
+        boolean resume;
+        boolean watch;
+        Integer serve;
+        String host = "127.0.0.1";
+        Integer queue;
+        boolean help;
+    }
+
+    static int run(String[] args) {
+        // 必须在任何 AWT 类初始化之前设置；用户显式指定时尊重其设置
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        Options opts;
+        try {
+            opts = parse(args);
+        } catch (UsageException e) {
+            System.err.println("错误: " + e.getMessage());
+            System.err.println("使用 --help 查看用法。");
+            return EXIT_USAGE;
+        }
+        if (opts.help) {
+            usage(System.out);
+            return EXIT_OK;
+        }
+        try {
+            if (opts.serve != null) return serve(opts);
+            if (opts.watch) return watch(opts);
+            return opts.resume ? resume(opts) : export(opts);
+        } catch (UsageException e) {
+            System.err.println("错误: " + e.getMessage());
+            return EXIT_USAGE;
+        } catch (IOException e) {
+            System.err.println("错误: " + e.getMessage());
+            return EXIT_FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("导出被中断，可使用 --resume 继续。");
+            return EXIT_FAILED;
+        }
+    }
+
+    private static int export(Options opts) throws UsageException, IOException, InterruptedException {
+        if (opts.inputs.isEmpty()) throw new UsageException("未指定输入图片");
+        WatermarkTemplate settings = resolveTemplate(opts.template);
+        applyOverrides(settings, opts);
+        ExportProfile profile = new ExportProfile();
+        List<ImageDiscovery.Found> found = expandInputs(opts.inputs, opts.recursive, profile);
+        if (found.isEmpty()) throw new UsageException("没有找到支持的图片文件");
+        File outDir = prepareOutputDir(opts.outputDir);
+        RenderPlan plan = RenderPlan.compile(WatermarkSpec.fromTemplate(settings));
+        List<File> files = new ArrayList<>(found.size());
+        Map<File, String> relativeDirs = opts.keepFolders ? new HashMap<>() : null;
+        for (ImageDiscovery.Found f : found) {
+            files.add(f.file);
+            if (relativeDirs != null) relativeDirs.put(f.file, f.relativeDir);
+            File target = plan.outputFile(f.file, outDir, relativeDirs != null ? f.relativeDir : null).getParentFile();
+            if (target.getCanonicalFile().equals(f.file.getCanonicalFile().getParentFile())) {
+                throw new UsageException("禁止导出到原文件夹: " + f.file.getParent());
+            }
+        }
+        ExportJournal journal = ExportJournal.begin(outDir, settings, files, relativeDirs);
+        ExportManifest manifest = opts.incremental ? ExportManifest.load(outDir) : null;
+        return runExport(plan.jobs(files, outDir, relativeDirs, manifest, journal), opts.workers, outDir, manifest, journal,
+                profile);
+    }
+
+    // 监视模式：持续处理放入输入文件夹的新图片，直到进程被终止（Ctrl+C）
+    private static int watch(Options opts) throws UsageException, IOException {
+        if (opts.inputs.isEmpty()) throw new UsageException("--watch 需要至少一个要监视的文件夹");
+        List<File> folders = new ArrayList<>();
+        for (String input : opts.inputs) {
+            File dir = new File(input);
+            if (!dir.isDirectory()) throw new UsageException("--watch 只接受文件夹: " + input);
+            folders.add(dir.getCanonicalFile());
+        }
+        WatermarkTemplate settings = resolveTemplate(opts.template);
+        applyOverrides(settings, opts);
+        File outDir = prepareOutputDir(opts.outputDir);
+        if (folders.contains(outDir)) throw new UsageException("输出文件夹不能是被监视的文件夹: " + outDir);
+        RenderPlan plan = RenderPlan.compile(WatermarkSpec.fromTemplate(settings));
+        WatchFolderDaemon daemon = new WatchFolderDaemon(plan, folders, outDir, opts.workers);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close, "watch-shutdown"));
+        System.err.println("正在监视 " + folders + "，输出到 " + outDir + "（Ctrl+C 退出）");
+        daemon.run();
+        return EXIT_OK;
+    }
+
+    // 服务模式：命令行中的文件夹是允许按 path 读取的根目录，-t 为默认模板；阻塞到进程被终止
+    private static int serve(Options opts) throws UsageException, IOException, InterruptedException {
+        List<File> roots = new ArrayList<>();
+        for (String input : opts.inputs) {
+            File dir = new File(input);
+            if (!dir.isDirectory()) throw new UsageException("--serve 的位置参数须为允许读取的文件夹: " + input);
+            roots.add(dir);
+        }
+        WatermarkTemplate settings = resolveTemplate(opts.template);
+        applyOverrides(settings, opts);
+        RenderPlan.compile(WatermarkSpec.fromTemplate(settings)); // 启动前校验默认模板（如水印图片是否存在）
+        int queue = opts.queue != null ? opts.queue : opts.workers * 4;
+        WatermarkServer server = new WatermarkServer(new InetSocketAddress(opts.host, opts.serve),
+                settings, roots, opts.workers, queue);
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            stopped.countDown();
+        }, "server-shutdown"));
+        server.start();
+        System.err.printf("水印服务已启动: http://%s:%d/watermark（渲染线程 %d，队列 %d，Ctrl+C 退出）%n",
+                opts.host, server.getAddress().getPort(), opts.workers, queue);
+        stopped.await();
+        return EXIT_OK;
+    }
+
+    // 按输出文件夹日志中记录的参数继续未完成的批次；命令行上的模板与格式参数被忽略
+    private static int resume(Options opts) throws UsageException, IOException, InterruptedException {
+        if (!opts.inputs.isEmpty() || opts.template != null) {
+            System.err.println("提示: --resume 使用上次导出时的参数与文件列表，忽略命令行中的输入与模板。");
+        }
+        File outDir = prepareOutputDir(opts.outputDir);
+        ExportJournal.Unfinished unfinished = ExportJournal.findUnfinished(outDir);
+        if (unfinished == null) {
+            System.out.println("输出文件夹中没有未完成的导出。");
+            return EXIT_OK;
+        }
+        System.err.printf("继续上次导出：已完成 %d / %d 张，剩余 %d 张%n",
+                unfinished.total - unfinished.remaining.size(), unfinished.total, unfinished.remaining.size());
+        RenderPlan plan = RenderPlan.compile(WatermarkSpec.fromTemplate(unfinished.settings));
+        ExportJournal journal = ExportJournal.resume(unfinished);
+        ExportManifest manifest = opts.incremental ? ExportManifest.load(outDir) : null;
+        return runExport(plan.jobs(unfinished.remaining, unfinished.sources, outDir, unfinished.relativeDirs, manifest, journal),
+                opts.workers, outDir, manifest, journal, new ExportProfile());
+    }
+
+    // 在导出引擎上执行，进度与失败写到 stderr（进度每秒最多一行），汇总写到 stdout，分阶段耗时报告写到输出文件夹（见 ExportProfile）
+    private static int runExport(List<ExportService.Job> jobs, int workers, File outDir, ExportManifest manifest,
+                                 ExportJournal journal, ExportProfile profile) throws InterruptedException {
+        ExportService service = new ExportService(workers);
+        AtomicLong lastPrint = new AtomicLong(System.nanoTime());
+        ExportService.Summary summary = null;
+        try {
+            summary = service.run(jobs, (job, error, p) -> {
+                if (error != null) {
+                    System.err.println("失败: " + job.source().getPath() + ": "
+                            + (error.getMessage() != null ? error.getMessage() : error.toString()));
+                }
+                long now = System.nanoTime();
+                long last = lastPrint.get();
+                if ((now - last >= PROGRESS_INTERVAL_NANOS || p.done == p.total) && lastPrint.compareAndSet(last, now)) {
+                    long eta = p.etaMillis();
+                    System.err.printf("%d / %d  ·  %.1f 张/秒  ·  剩余约 %s%n", p.done, p.total, p.filesPerSecond(),
+                            eta < 0 ? "--:--" : String.format("%02d:%02d", eta / 60000, (eta / 1000) % 60));
+                }
+            }, profile);
+        } finally {
+            service.shutdown();
+            if (manifest != null) manifest.save();
+            // 全部成功才结束日志；失败或中断时保留，供 --resume 继续
+            if (summary != null && summary.failed == 0 && summary.cancelled == 0) journal.finish();
+            journal.close();
+        }
+        if (manifest != null) {
+            System.out.printf("导出完成：重新生成 %d 张，未变化跳过 %d 张，失败 %d 张", summary.succeeded, summary.unchanged, summary.failed);
+        } else {
+            System.out.printf("导出完成：成功 %d 张，失败 %d 张", summary.succeeded, summary.failed);
+        }
+        if (summary.cancelled > 0) System.out.printf("，未处理 %d 张", summary.cancelled);
+        System.out.printf("，耗时 %.1f 秒%n", summary.elapsedMillis / 1000.0);
+        System.out.println(profile.summaryText());
+        File report = profile.write(outDir, summary);
+        if (report != null) System.out.println("性能报告: " + report.getPath());
+        return summary.failed > 0 || summary.cancelled > 0 ? EXIT_FAILED : EXIT_OK;
+    }
+
+    private static Options parse(String[] args) throws UsageException {
+        Options o = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            switch (a) {
+                case "-h": case "--help": o.help = true; break;
+                case "-t": case "--template": o.template = value(args, ++i, a); break;
+                case "-o": case "--output": o.outputDir = new File(value(args, ++i, a)); break;
+                case "-w": case "--workers": o.workers = intValue(args, ++i, a, 1, 256); break;
+                case "-f": case "--format": {
+                    String f = value(args, ++i, a).toUpperCase(Locale.ROOT);
+                    if (f.equals("JPG")) f = "JPEG";
+                    if (!f.equals("JPEG") && !f.equals("PNG")) throw new UsageException(a + " 只支持 JPEG 或 PNG");
+                    o.format = f;
+                    break;
+                }
+                case "-q": case "--quality": o.quality = intValue(args, ++i, a, 1, 100); break;
+                case "--scale": o.scalePercent = intValue(args, ++i, a, 1, 1000); break;
+                case "--width": o.width = intValue(args, ++i, a, 0, 100_000); break;
+                case "--height": o.height = intValue(args, ++i, a, 0, 100_000); break;
+                case "--resample": {
+                    String r = value(args, ++i, a).toUpperCase(Locale.ROOT);
+                    try {
+                        Resampler.valueOf(r);
+                    } catch (IllegalArgumentException e) {
+                        throw new UsageException(a + " 可选值: " + Arrays.toString(Resampler.values()));
+                    }
+                    o.resample = r;
+                    break;
+                }
+                case "--position": {
+                    String p = value(args, ++i, a).toUpperCase(Locale.ROOT);
+                    try {
+                        PhotoWatermarkApp.WatermarkPosition.valueOf(p);
+                    } catch (IllegalArgumentException e) {
+                        throw new UsageException(a + " 可选值: " + Arrays.toString(PhotoWatermarkApp.WatermarkPosition.values()));
+                    }
+                    o.position = p;
+                    break;
+                }
+                case "--text": o.text = value(args, ++i, a); break;
+                case "--incremental": o.incremental = true; break;
+                case "-r": case "--recursive": o.recursive = true; break;
+                case "--keep-folders": o.keepFolders = true; break;
+                case "--resume": o.resume = true; break;
+                case "--watch": o.watch = true; break;
+                case "--serve": o.serve = intValue(args, ++i, a, 0, 65535); break;
+                case "--host": o.host = value(args, ++i, a); break;
+                case "--queue": o.queue = intValue(args, ++i, a, 1, 100_000); break;
+                case "--": o.inputs.addAll(Arrays.asList(args).subList(i + 1, args.length)); i = args.length; break;
+                default:
+                    if (a.startsWith("-") && a.length() > 1) throw new UsageException("未知参数: " + a);
+                    o.inputs.add(a);
+            }
+        }
+        if (!o.help && o.serve == null && o.outputDir == null) throw new UsageException("必须用 -o 指定输出文件夹");
+        return o;
+    }
+
+    private static String value(String[] args, int i, String name) throws UsageException {
+        if (i >= args.length) throw new UsageException(name + " 缺少参数值");
+        return args[i];
+    }
+
+    private static int intValue(String[] args, int i, String name, int min, int max) throws UsageException {
+        String v = value(args, i, name);
+        try {
+            int n = Integer.parseInt(v.trim());
+            if (n < min || n > max) throw new UsageException(name + " 取值范围 " + min + "-" + max + ": " + v);
+            return n;
+        } catch (NumberFormatException e) {
+            throw new UsageException(name + " 需要整数: " + v);
+        }
+    }
+
+    /** -t 可以是模板 JSON 文件，也可以是模板库中的模板名称（不区分大小写）或 ID；未指定时使用日期水印 */
+    private static WatermarkTemplate resolveTemplate(String nameOrFile) throws UsageException, IOException {
+        if (nameOrFile == null) return defaultTemplate();
+        File f = new File(nameOrFile);
+        if (f.isFile()) return TemplateManager.readTemplateFile(f);
+        List<WatermarkTemplate> templates = TemplateManager.loadTemplates();
+        for (WatermarkTemplate t : templates) {
+            if (nameOrFile.equalsIgnoreCase(t.name) || nameOrFile.equals(t.id)) return t;
+        }
+        StringBuilder msg = new StringBuilder("找不到模板文件或名称: ").append(nameOrFile);
+        if (!templates.isEmpty()) {
+            msg.append("\n已保存的模板:");
+            for (WatermarkTemplate t : templates) msg.append("\n  ").append(t.name);
+        }
+        throw new UsageException(msg.toString());
+    }
+
+    // 与交互模式的默认值一致：右下角白色拍摄日期
+    private static WatermarkTemplate defaultTemplate() {
+        WatermarkTemplate t = new WatermarkTemplate();
+        t.name = "命令行默认";
+        t.mode = "TEXT";
+        t.position = PhotoWatermarkApp.WatermarkPosition.BOTTOM_RIGHT.name();
+        t.scalePercent = 100;
+        t.resampleMode = Resampler.AREA.name();
+        t.namingRule = "保留原文件名";
+        t.outputFormat = "JPEG";
+        t.jpegQuality = 90;
+        t.text = RenderPlan.DATE_TOKEN;
+        t.fontName = "系统字体";
+        t.fontSize = 36;
+        t.color = "#FFFFFF";
+        t.textOpacity = 100;
+        return t;
+    }
+
+    private static void applyOverrides(WatermarkTemplate t, Options o) {
+        if (o.format != null) t.outputFormat = o.format;
+        if (o.quality != null) t.jpegQuality = o.quality;
+        if (o.scalePercent != null) t.scalePercent = o.scalePercent;
+        if (o.width != null) t.targetWidth = o.width;
+        if (o.height != null) t.targetHeight = o.height;
+        if (o.resample != null) t.resampleMode = o.resample;
+        if (o.position != null) t.position = o.position;
+        if (o.text != null) {
+            t.mode = "TEXT";
+            t.text = o.text;
+        }
+    }
+
+    private static File prepareOutputDir(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("无法创建输出文件夹: " + dir);
+        return dir.getCanonicalFile();
+    }
+
+    /**
+     * 展开输入参数：文件按原样加入，文件夹取其中的图片（recursive 时包括全部子文件夹，见 {@link ImageDiscovery}），
+     * 含 * ? [ { 的参数按 glob 匹配，含 ** 时匹配任意层子文件夹。结果按参数顺序、同一参数内按路径排序，
+     * 重复的文件只保留一次。每个结果带有相对于该文件夹（glob 为通配符前的目录）的子路径。
+     * 每个文件夹或 glob 参数的扫描耗时记为一次发现阶段。
+     */
+    private static List<ImageDiscovery.Found> expandInputs(List<String> inputs, boolean recursive, ExportProfile profile)
+            throws UsageException, IOException, InterruptedException {
+        Map<File, ImageDiscovery.Found> files = new LinkedHashMap<>();
+        for (String input : inputs) {
+            List<ImageDiscovery.Found> matched = new ArrayList<>();
+            long wall = System.nanoTime();
+            long cpu = ExportProfile.threadCpuNanos();
+            if (isGlob(input)) {
+                matched.addAll(glob(input));
+                profile.record(ExportProfile.Stage.DISCOVER, System.nanoTime() - wall, ExportProfile.threadCpuNanos() - cpu);
+            } else {
+                File f = new File(input);
+                if (f.isDirectory() && recursive) {
+                    matched.addAll(ImageDiscovery.scan(List.of(f), profile));
+                } else if (f.isDirectory()) {
+                    File[] listed = f.listFiles((dir, name) -> PhotoWatermarkApp.isImageFileName(name));
+                    if (listed != null) {
+                        for (File file : listed) matched.add(new ImageDiscovery.Found(file, ""));
+                    }
+                    profile.record(ExportProfile.Stage.DISCOVER, System.nanoTime() - wall, ExportProfile.threadCpuNanos() - cpu);
+                } else if (f.isFile()) {
+                    matched.add(new ImageDiscovery.Found(f, ""));
+                } else {
+                    throw new UsageException("输入不存在: " + input);
+                }
+            }
+            matched.sort(Comparator.comparing(found -> found.file.getPath()));
+            for (ImageDiscovery.Found found : matched) files.putIfAbsent(found.file.getCanonicalFile(), found);
+        }
+        return new ArrayList<>(files.values());
+    }
+
+    private static boolean isGlob(String s) {
+        return s.indexOf('*') >= 0 || s.indexOf('?') >= 0 || s.indexOf('[') >= 0 || s.indexOf('{') >= 0;
+    }
+
+    // 从第一个含通配符的路径段之前的目录开始遍历，用相对路径匹配 glob
+    private static List<ImageDiscovery.Found> glob(String pattern) throws IOException {
+        String p = File.separatorChar == '\\' ? pattern.replace('\\', '/') : pattern;
+        String[] segments = p.split("/", -1);
+        int first = 0;
+        while (!isGlob(segments[first])) first++;
+        String base = String.join("/", Arrays.asList(segments).subList(0, first));
+        String rest = String.join("/", Arrays.asList(segments).subList(first, segments.length));
+        Path root = Paths.get(!base.isEmpty() ? base : p.startsWith("/") ? "/" : ".");
+        if (!Files.isDirectory(root)) return new ArrayList<>();
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + rest);
+        // 与 shell 的 globstar 一致，开头的 **/ 也匹配零层子文件夹
+        PathMatcher top = rest.startsWith("**/") ? FileSystems.getDefault().getPathMatcher("glob:" + rest.substring(3)) : matcher;
+        int depth = rest.contains("**") ? Integer.MAX_VALUE : segments.length - first;
+        List<ImageDiscovery.Found> out = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root, depth)) {
+            walk.filter(Files::isRegularFile)
+                .filter(path -> {
+                    Path rel = root.relativize(path);
+                    return matcher.matches(rel) || top.matches(rel);
+                })
+                .filter(path -> PhotoWatermarkApp.isImageFileName(path.getFileName().toString()))
+                .forEach(path -> out.add(new ImageDiscovery.Found(path.toFile(),
+                        root.relativize(path.getParent()).toString().replace(File.separatorChar, '/'))));
+        }
+        return out;
+    }
+
+    static void usage(PrintStream out) {
+        out.println("用法: java -jar PhotoWatermark.jar [选项] -o <输出文件夹> <图片|文件夹|glob>...");
+        out.println("      java -jar PhotoWatermark.jar --resume -o <输出文件夹>");
+        out.println("      java -jar PhotoWatermark.jar --watch [选项] -o <输出文件夹> <文件夹>...");
+        out.println("      java -jar PhotoWatermark.jar --serve <端口> [选项] [允许读取的文件夹]...");
+        out.println();
+        out.println("  -t, --template <名称|文件>  已保存的模板名称，或单个模板的 JSON 文件（默认：右下角拍摄日期）");
+        out.println("  -o, --output <文件夹>       输出文件夹（必填，不能与源图片所在文件夹相同）");
+        out.println("  -w, --workers <n>           并行线程数（默认 CPU 核数: " + ExportService.defaultWorkers() + "）");
+        out.println("  -f, --format <JPEG|PNG>     输出格式");
+        out.println("  -q, --quality <1-100>       JPEG 质量");
+        out.println("      --scale <百分比>        按比例缩放（100 为原始大小，优先于宽高）");
+        out.println("      --width <px>            目标宽度（0 保持）");
+        out.println("      --height <px>           目标高度（0 保持）");
+        out.println("      --resample <算法>       缩放算法: " + Arrays.toString(Resampler.values()));
+        out.println("      --position <位置>       九宫格位置，如 BOTTOM_RIGHT");
+        out.println("      --text <文本>           文字水印内容，" + RenderPlan.DATE_TOKEN + " 替换为拍摄日期");
+        out.println("  -r, --recursive             文件夹输入包括全部子文件夹");
+        out.println("      --keep-folders          在输出文件夹下保持源图片的子文件夹结构");
+        out.println("      --incremental           跳过输出已是最新的图片");
+        out.println("      --resume                继续输出文件夹中未完成的导出");
+        out.println("      --watch                 持续监视输入文件夹，新图片写完后自动导出（始终增量）");
+        out.println("      --serve <端口>          启动 HTTP 水印服务（POST 上传或 GET ?path= 读取，?template= 选模板）");
+        out.println("      --host <地址>           服务监听地址（默认 127.0.0.1）");
+        out.println("      --queue <n>             服务渲染队列长度，满时返回 429（默认线程数的 4 倍）");
+        out.println("  -h, --help                  显示本帮助");
+        out.println();
+        out.println("glob 示例: \"photos/*.jpg\"、\"photos/**/*.{jpg,png}\"（请加引号，避免被 shell 提前展开）");
+        out.println("退出码: 0 全部成功，1 有图片失败或未处理，2 参数错误");
+    }
+}
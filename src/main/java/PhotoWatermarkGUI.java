@@ -12,7 +12,9 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Iterator;
 import java.util.UUID;
 import java.util.logging.Level;
@@ -38,13 +40,15 @@ public class PhotoWatermarkGUI extends JFrame {
         }
     }
 
-    // 图片列表项数据结构，包含文件、缩略图和选中状态
+    // 图片列表项数据结构，包含文件、相对于导入文件夹的子文件夹、缩略图和选中状态
     private static class ImageEntry {
         File file;
-        ImageIcon thumbnail;
+        String relativeDir; // "" 表示直接位于导入的文件夹中（或单独导入的文件）
+        ImageIcon thumbnail; // 后台生成完成前为占位图标 THUMB_PLACEHOLDER
         boolean selected;
-        ImageEntry(File file, ImageIcon thumbnail, boolean selected) {
+        ImageEntry(File file, String relativeDir, ImageIcon thumbnail, boolean selected) {
             this.file = file;
+            this.relativeDir = relativeDir;
             this.thumbnail = thumbnail;
             this.selected = selected;
         }
@@ -59,6 +63,18 @@ public class PhotoWatermarkGUI extends JFrame {
     private JTextField outputFolderField;
     private File outputFolder;
     private List<File> importedFiles = new ArrayList<>();
+    // 导入批次代号：清空列表时递增，之前的扫描结果与缩略图不再加入列表
+    private volatile int importGeneration;
+    private ImageDiscovery activeDiscovery;
+    // 当前列表各次导入的扫描（已完成），导出时计入性能报告的发现阶段；仅在 EDT 上访问
+    private final List<ImageDiscovery> finishedDiscoveries = new ArrayList<>();
+    // 缩略图在后台线程池上生成，可见行优先，其余按导入顺序
+    private static final ImageIcon THUMB_PLACEHOLDER = ThumbnailLoader.placeholder(THUMB_WIDTH, THUMB_HEIGHT);
+    private final ThumbnailLoader<ImageEntry> thumbnailLoader = new ThumbnailLoader<>(ThumbnailLoader.defaultThreads());
+    private int pendingThumbnails; // 仅在 EDT 上访问
+    private final List<String> unreadableFiles = new ArrayList<>();
+    // 读不出缩略图、等待从列表移除的项；攒到空闲时一次扫描移除，而不是每张都查找整个列表。仅在 EDT 上访问
+    private final Set<ImageEntry> unreadableEntries = new HashSet<>();
     private JComboBox<String> formatComboBox;
     private JComboBox<String> namingRuleComboBox;
     private JTextField prefixField;
@@ -69,6 +85,7 @@ public class PhotoWatermarkGUI extends JFrame {
     private JTextField widthField;
     private JTextField heightField;
     private JSlider scaleSlider; // Changed from JTextField
+    private JComboBox<Resampler> resampleComboBox; // 缩放算法（速度/质量取舍）
     private JLabel selectedImageSizeLabel;
     private JLabel widthLabel;
     private JLabel heightLabel;
@@ -76,6 +93,11 @@ public class PhotoWatermarkGUI extends JFrame {
     private JTextField fontSizeField;
     private JPanel advancedPanel;
     private JProgressBar progressBar;
+    private JSpinner workerSpinner; // 并行导出线程数
+    private JButton exportButton;
+    private JButton resumeExportButton;
+    private JButton cancelExportButton;
+    private volatile ExportService activeExport; // 正在进行的导出（无则为 null）
     private JLabel statusLabel;
     private JTextField watermarkTextField;
     private JComboBox<String> fontComboBox;
@@ -84,6 +106,8 @@ public class PhotoWatermarkGUI extends JFrame {
     private JCheckBox strokeCheckBox;
     private JCheckBox boldCheckBox;
     private JCheckBox italicCheckBox;
+    private JCheckBox incrementalCheckBox;
+    private JCheckBox keepFoldersCheckBox;
     private Color selectedColor = Color.BLACK;
     private JPanel colorPanel; // 用于颜色选择的面板，供预览监听
     private JSlider rotationSlider; // 新增：旋转角度
@@ -100,23 +124,32 @@ public class PhotoWatermarkGUI extends JFrame {
     // 预览区JPanel
     private JPanel previewPanel;
     private BufferedImage previewImage;
-    private BufferedImage originalImage; // 原始选中图片
+    private WatermarkSprite previewSprite; // 叠加在 previewImage 上的水印
+    private Point previewSpritePos;
+    private File originalFile; // 原始选中图片对应的文件
+    private int originalWidth, originalHeight; // 原图尺寸（读文件头获得，像素在预览线程中按需降采样解码）
+    private volatile ImageDecoder.Decoded previewSource; // 预览复用的解码结果
     private BufferedImage watermarkImageBuffered; // 图片水印缓存
     private int customX = -1, customY = -1; // 自定义位置（以图像像素为单位，文本为包围盒左上角，图片水印为左上角）
     // Preview worker for async rendering
     private volatile SwingWorker<PreviewResult, Void> previewWorker;
     private volatile int previewTaskSeq = 0;
+    private volatile RenderPlan previewPlan; // 预览复用的渲染计划（参数变化时重新编译）
 
     // 模板管理相关
     private JComboBox<WatermarkTemplate> templateComboBox; // 模板下拉
     private List<WatermarkTemplate> templates = new ArrayList<>(); // 模板列表
 
     // Result holder for preview generation
+    // 底图不做修改（可能就是缓存的解码结果），水印精灵在绘制预览面板时叠加
     private static class PreviewResult {
         final BufferedImage image;
+        final WatermarkSprite sprite; // 为 null 时不叠加水印
+        final Point spritePos;        // 精灵包围盒在底图上的左上角
         final int origW, origH, newW, newH;
-        PreviewResult(BufferedImage image, int origW, int origH, int newW, int newH) {
-            this.image = image; this.origW = origW; this.origH = origH; this.newW = newW; this.newH = newH;
+        PreviewResult(BufferedImage image, WatermarkSprite sprite, Point spritePos, int origW, int origH, int newW, int newH) {
+            this.image = image; this.sprite = sprite; this.spritePos = spritePos;
+            this.origW = origW; this.origH = origH; this.newW = newW; this.newH = newH;
         }
     }
 
@@ -125,6 +158,11 @@ public class PhotoWatermarkGUI extends JFrame {
         // 从直接退出改为自定义处理
         setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         setPreferredSize(new Dimension(1200, 700)); // 扩展宽度以适应三列
+        // JMX 清空缓存时一并丢弃预览复用的解码结果与计划
+        EngineMonitor.onFlush(() -> {
+            previewSource = null;
+            previewPlan = null;
+        });
 
         // 初始化图片列表模型与组件（在使用前）
         imageListModel = new DefaultListModel<>();
@@ -179,7 +217,18 @@ public class PhotoWatermarkGUI extends JFrame {
                     double scale = Math.min((double)panelWidth/imgWidth, (double)panelHeight/imgHeight);
                     int drawWidth = (int)(imgWidth * scale);
                     int drawHeight = (int)(imgHeight * scale);
-                    g.drawImage(previewImage, (panelWidth-drawWidth)/2, (panelHeight-drawHeight)/2, drawWidth, drawHeight, null);
+                    int x0 = (panelWidth-drawWidth)/2, y0 = (panelHeight-drawHeight)/2;
+                    g.drawImage(previewImage, x0, y0, drawWidth, drawHeight, null);
+                    if (previewSprite != null) {
+                        // 水印按与底图相同的变换叠加，底图本身保持不变
+                        Graphics2D g2 = (Graphics2D) g.create();
+                        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                        g2.clipRect(x0, y0, drawWidth, drawHeight);
+                        g2.translate(x0, y0);
+                        g2.scale((double) drawWidth / imgWidth, (double) drawHeight / imgHeight);
+                        previewSprite.draw(g2, previewSpritePos.x, previewSpritePos.y);
+                        g2.dispose();
+                    }
                 }
             }
         };
@@ -193,14 +242,14 @@ public class PhotoWatermarkGUI extends JFrame {
         previewPanel.addMouseMotionListener(new java.awt.event.MouseMotionAdapter() {
             @Override
             public void mouseDragged(java.awt.event.MouseEvent e) {
-                if (originalImage == null) return;
+                if (originalFile == null) return;
                 Object sel = positionComboBox != null ? positionComboBox.getSelectedItem() : null;
                 if (sel == null || !"CUSTOM".equals(sel.toString())) return;
                 Rectangle r = getImageDrawRect();
                 if (r == null) return;
                 if (!r.contains(e.getPoint())) return;
-                int baseW = (previewImage != null ? previewImage.getWidth() : originalImage.getWidth());
-                int baseH = (previewImage != null ? previewImage.getHeight() : originalImage.getHeight());
+                int baseW = (previewImage != null ? previewImage.getWidth() : originalWidth);
+                int baseH = (previewImage != null ? previewImage.getHeight() : originalHeight);
                 double scale = r.getWidth() / (double) baseW;
                 int imgX = (int)Math.round((e.getX() - r.x) / scale);
                 int imgY = (int)Math.round((e.getY() - r.y) / scale);
@@ -211,8 +260,8 @@ public class PhotoWatermarkGUI extends JFrame {
                 nx = Math.max(0, Math.min(nx, baseW - d.width));
                 ny = Math.max(0, Math.min(ny, baseH - d.height));
                 // Convert back to original image coordinate space for storage
-                double fx = baseW / (double) originalImage.getWidth();
-                double fy = baseH / (double) originalImage.getHeight();
+                double fx = baseW / (double) originalWidth;
+                double fy = baseH / (double) originalHeight;
                 customX = (int)Math.round(nx / fx);
                 customY = (int)Math.round(ny / fy);
                 updatePreview();
@@ -222,13 +271,13 @@ public class PhotoWatermarkGUI extends JFrame {
             @Override
             public void mousePressed(java.awt.event.MouseEvent e) {
                 // 与拖拽相同逻辑，按下即可定位
-                if (originalImage == null) return;
+                if (originalFile == null) return;
                 Object sel = positionComboBox != null ? positionComboBox.getSelectedItem() : null;
                 if (sel == null || !"CUSTOM".equals(sel.toString())) return;
                 Rectangle r = getImageDrawRect();
                 if (r == null || !r.contains(e.getPoint())) return;
-                int baseW = (previewImage != null ? previewImage.getWidth() : originalImage.getWidth());
-                int baseH = (previewImage != null ? previewImage.getHeight() : originalImage.getHeight());
+                int baseW = (previewImage != null ? previewImage.getWidth() : originalWidth);
+                int baseH = (previewImage != null ? previewImage.getHeight() : originalHeight);
                 double scale = r.getWidth() / (double) baseW;
                 int imgX = (int)Math.round((e.getX() - r.x) / scale);
                 int imgY = (int)Math.round((e.getY() - r.y) / scale);
@@ -237,8 +286,8 @@ public class PhotoWatermarkGUI extends JFrame {
                 int ny = imgY - d.height / 2;
                 nx = Math.max(0, Math.min(nx, baseW - d.width));
                 ny = Math.max(0, Math.min(ny, baseH - d.height));
-                double fx = baseW / (double) originalImage.getWidth();
-                double fy = baseH / (double) originalImage.getHeight();
+                double fx = baseW / (double) originalWidth;
+                double fy = baseH / (double) originalHeight;
                 customX = (int)Math.round(nx / fx);
                 customY = (int)Math.round(ny / fy);
                 updatePreview();
@@ -303,24 +352,22 @@ public class PhotoWatermarkGUI extends JFrame {
                 ImageEntry entry = imageList.getSelectedValue();
                 if (entry != null && entry.file != null) {
                     try {
-                        originalImage = ImageIO.read(entry.file);
-                        updatePreview();
-                        if (originalImage != null) {
-                            selectedImageSizeLabel.setText(String.format("选中尺寸: %d x %d", originalImage.getWidth(), originalImage.getHeight()));
-                        } else {
-                            selectedImageSizeLabel.setText("选中尺寸: N/A");
-                        }
+                        // 尺寸取自元数据缓存（未命中时只读文件头），像素解码放到预览线程并按输出尺寸降采样
+                        Dimension size = MetadataCache.get(entry.file).size();
+                        originalFile = entry.file;
+                        originalWidth = size.width;
+                        originalHeight = size.height;
+                        selectedImageSizeLabel.setText(String.format("选中尺寸: %d x %d", originalWidth, originalHeight));
                     } catch (IOException ex) {
                         selectedImageSizeLabel.setText("选中尺寸: N/A");
-                        originalImage = null;
+                        originalFile = null;
                         previewImage = null;
-                        updatePreview();
                     }
                 } else {
-                    originalImage = null;
+                    originalFile = null;
                     previewImage = null;
-                    updatePreview();
                 }
+                updatePreview();
             }
         });
 
@@ -331,11 +378,11 @@ public class PhotoWatermarkGUI extends JFrame {
         positionComboBox.addItemListener(e -> {
             // 已有的监听调用updatePreview，这里补充：当切换为CUSTOM时，初始化到居中
             Object sel = positionComboBox.getSelectedItem();
-            if (sel != null && "CUSTOM".equals(sel.toString()) && originalImage != null) {
+            if (sel != null && "CUSTOM".equals(sel.toString()) && originalFile != null) {
                 // 计算当前水印包围盒尺寸，置于中心
                 Dimension d = getCurrentWatermarkBounds();
-                int W = originalImage.getWidth();
-                int H = originalImage.getHeight();
+                int W = originalWidth;
+                int H = originalHeight;
                 customX = Math.max(0, (W - d.width) / 2);
                 customY = Math.max(0, (H - d.height) / 2);
             }
@@ -354,6 +401,7 @@ public class PhotoWatermarkGUI extends JFrame {
             JSlider s = (JSlider) e.getSource();
             if (!s.getValueIsAdjusting()) updatePreview();
         });
+        if (resampleComboBox != null) resampleComboBox.addItemListener(e -> updatePreview());
         if (rotationSlider != null) rotationSlider.addChangeListener(e -> {
             JSlider s = (JSlider) e.getSource();
             if (!s.getValueIsAdjusting()) updatePreview();
@@ -371,6 +419,7 @@ public class PhotoWatermarkGUI extends JFrame {
         refreshTemplateComboBox();
         // 启动时尝试加载上次会话或应用默认模板
         loadLastSessionOrDefault();
+        refreshResumeButton();
         // 关闭前进行检查与交互
         addWindowListener(new WindowAdapter() {
             @Override public void windowClosing(WindowEvent e) { handleCloseRequest(); }
@@ -380,6 +429,13 @@ public class PhotoWatermarkGUI extends JFrame {
     // 加载上次会话或默认模板
     private void loadLastSessionOrDefault() {
         LastSession s = LastSessionManager.load();
+        if (s != null && s.lastOutputFolder != null) {
+            File dir = new File(s.lastOutputFolder);
+            if (dir.isDirectory()) {
+                outputFolder = dir;
+                outputFolderField.setText(dir.getAbsolutePath());
+            }
+        }
         if (s != null) {
             // 优先用 lastTemplateId 找模板
             if (s.lastTemplateId != null) {
@@ -429,6 +485,7 @@ public class PhotoWatermarkGUI extends JFrame {
         t.targetWidth = 0;
         t.targetHeight = 0;
         t.scalePercent = 100;
+        t.resampleMode = Resampler.AREA.name();
         t.namingRule = "保留原文件名";
         t.prefix = "wm_";
         t.suffix = "_watermarked";
@@ -457,6 +514,7 @@ public class PhotoWatermarkGUI extends JFrame {
             WatermarkTemplate selected = (WatermarkTemplate) templateComboBox.getSelectedItem();
             if (selected != null) session.lastTemplateId = selected.id; else session.lastTemplateId = null;
             session.lastSettings = snapshotCurrentSettings();
+            session.lastOutputFolder = outputFolder != null ? outputFolder.getAbsolutePath() : null;
             session.savedAt = System.currentTimeMillis();
             LastSessionManager.save(session);
         } catch (Exception ignore) { }
@@ -475,33 +533,17 @@ public class PhotoWatermarkGUI extends JFrame {
 
     // 预览区刷新方法：绘制水印（支持九宫格位置与图片水印）
     private void updatePreview() {
-        if (originalImage == null) {
+        if (originalFile == null) {
             previewImage = null;
+            previewSprite = null;
             previewPanel.repaint();
             return;
         }
         // Snapshot current UI state (on EDT)
-        final BufferedImage orig = originalImage;
-        final BufferedImage wmImg = watermarkImageBuffered;
-        final boolean isTextMode = watermarkModeComboBox == null || watermarkModeComboBox.getSelectedIndex() == 0;
-        final String pos = positionComboBox != null ? (String) positionComboBox.getSelectedItem() : "CENTER";
-        final int fontSize = parseInt(fontSizeField != null ? fontSizeField.getText() : "150");
-        final boolean bold = boldCheckBox != null && boldCheckBox.isSelected();
-        final boolean italic = italicCheckBox != null && italicCheckBox.isSelected();
-        final String fontNameRaw = fontComboBox != null ? (String) fontComboBox.getSelectedItem() : "SansSerif";
-        final String fontName = (fontNameRaw == null || "系统字体".equals(fontNameRaw)) ? "SansSerif" : fontNameRaw;
-        final float textOpacity = opacitySlider != null ? opacitySlider.getValue() / 100f : 1.0f;
-        final Color color = selectedColor;
-        final boolean shadow = shadowCheckBox != null && shadowCheckBox.isSelected();
-        final boolean stroke = strokeCheckBox != null && strokeCheckBox.isSelected();
-        final String watermarkText = watermarkTextField != null ? watermarkTextField.getText() : "";
-        final int width = parseInt(widthField != null ? widthField.getText() : "0");
-        final int height = parseInt(heightField != null ? heightField.getText() : "0");
-        final double scale = scaleSlider != null ? scaleSlider.getValue() / 100.0 : 1.0;
-        final double wmScale = imageWatermarkScaleSlider != null ? imageWatermarkScaleSlider.getValue() / 100.0 : 0.5;
-        final float wmOpacity = imageWatermarkOpacitySlider != null ? imageWatermarkOpacitySlider.getValue() / 100f : 0.8f;
-        final int cx = customX, cy = customY;
-        final double rotationDegrees = rotationSlider != null ? rotationSlider.getValue() : 0;
+        final File origFile = originalFile;
+        final WatermarkSpec spec = WatermarkSpec.fromTemplate(snapshotCurrentSettings());
+        // 图片水印尚未选择时仅显示原图
+        final boolean watermarkReady = spec.textMode || watermarkImageFile != null;
 
         // Cancel previous worker if running
         SwingWorker<PreviewResult, Void> old = previewWorker;
@@ -510,9 +552,23 @@ public class PhotoWatermarkGUI extends JFrame {
         }
         final int seq = ++previewTaskSeq;
         previewWorker = new SwingWorker<PreviewResult, Void>() {
-            @Override protected PreviewResult doInBackground() {
-                if (isCancelled() || orig == null) return null;
-                return computePreview(orig, wmImg, isTextMode, pos, fontSize, bold, italic, fontName, textOpacity, color, shadow, stroke, watermarkText, cx, cy, width, height, scale, wmScale, wmOpacity, rotationDegrees);
+            @Override protected PreviewResult doInBackground() throws IOException {
+                if (isCancelled()) return null;
+                long begin = System.nanoTime();
+                if (!watermarkReady) {
+                    ImageDecoder.Decoded src = loadPreviewSource(origFile, (w, h) -> 1);
+                    return new PreviewResult(src.image, null, null, src.width, src.height, src.width, src.height);
+                }
+                // 参数未变时复用已编译的计划（与导出使用同一套渲染逻辑）
+                RenderPlan plan = previewPlan;
+                if (plan == null || !plan.spec.equals(spec)) {
+                    plan = RenderPlan.compile(spec);
+                    previewPlan = plan;
+                }
+                if (isCancelled()) return null;
+                PreviewResult result = computePreview(loadPreviewSource(origFile, plan::decodeSubsampling), plan);
+                if (result != null) EngineMonitor.previewRendered(System.nanoTime() - begin);
+                return result;
             }
             @Override protected void done() {
                 if (isCancelled() || seq != previewTaskSeq) return; // superseded
@@ -520,6 +576,8 @@ public class PhotoWatermarkGUI extends JFrame {
                     PreviewResult res = get();
                     if (res == null) return;
                     previewImage = res.image;
+                    previewSprite = res.sprite;
+                    previewSpritePos = res.spritePos;
                     if (selectedImageSizeLabel != null) {
                         selectedImageSizeLabel.setText(String.format("选中尺寸: %d x %d，目标尺寸: %d x %d", res.origW, res.origH, res.newW, res.newH));
                     }
@@ -530,155 +588,42 @@ public class PhotoWatermarkGUI extends JFrame {
         previewWorker.execute();
     }
 
-    // Heavy preview computation off the EDT
-    private PreviewResult computePreview(BufferedImage original, BufferedImage watermarkImg, boolean isTextMode, String pos,
-                                         int fontSize, boolean bold, boolean italic, String fontName, float textOpacity,
-                                         Color color, boolean shadow, boolean stroke, String watermarkText,
-                                         int customX, int customY, int targetWInput, int targetHInput, double scale,
-                                         double wmScale, float wmOpacity, double rotationDegrees) {
-        int origW = original.getWidth();
-        int origH = original.getHeight();
-        int newW = origW, newH = origH;
-        if (scale > 0 && Math.abs(scale - 1.0) > 1e-9) {
-            newW = Math.max(1, (int) Math.round(origW * scale));
-            newH = Math.max(1, (int) Math.round(origH * scale));
-        } else {
-            if (targetWInput > 0) newW = targetWInput;
-            if (targetHInput > 0) newH = targetHInput;
+    // 取得预览用的解码结果：同一文件已有足够分辨率的解码时直接复用，否则按所需倍数重新降采样解码
+    private ImageDecoder.Decoded loadPreviewSource(File file, java.util.function.IntBinaryOperator policy) throws IOException {
+        ImageDecoder.Decoded cached = previewSource;
+        if (cached != null && cached.file.equals(file)
+                && cached.subsampling <= policy.applyAsInt(cached.width, cached.height)) {
+            EngineMonitor.previewDecode(true);
+            return cached;
         }
+        EngineMonitor.previewDecode(false);
+        ImageDecoder.Decoded decoded = ImageDecoder.read(file, policy);
+        previewSource = decoded;
+        return decoded;
+    }
+
+    // Heavy preview computation off the EDT
+    private PreviewResult computePreview(ImageDecoder.Decoded source, RenderPlan plan) {
+        int origW = source.width;
+        int origH = source.height;
         if (Thread.currentThread().isInterrupted()) return null;
-        // Scale/copy base
-        BufferedImage base;
-        if (newW != origW || newH != origH) {
-            Image scaled = original.getScaledInstance(newW, newH, Image.SCALE_SMOOTH);
-            base = new BufferedImage(newW, newH, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D gb = base.createGraphics();
-            gb.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            gb.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            gb.drawImage(scaled, 0, 0, null);
-            gb.dispose();
-        } else {
-            base = new BufferedImage(origW, origH, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D gc = base.createGraphics();
-            gc.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            gc.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            gc.drawImage(original, 0, 0, null);
-            gc.dispose();
-        }
+        // 无需缩放时直接使用解码结果，不再整幅复制
+        BufferedImage base = plan.resize(source);
         if (Thread.currentThread().isInterrupted()) return null;
-
-        Graphics2D g2d = base.createGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        String posSafe = (pos == null ? "CENTER" : pos);
-        int W = base.getWidth();
-        int H = base.getHeight();
-        int margin = 20;
-        double fx = W / (double) origW;
-        double fy = H / (double) origH;
-
-        if (isTextMode) {
-            int style = (bold ? Font.BOLD : Font.PLAIN) | (italic ? Font.ITALIC : Font.PLAIN);
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, Math.max(0f, Math.min(1f, textOpacity))));
-            g2d.setFont(new Font(fontName, style, fontSize));
-            g2d.setColor(color);
-            FontMetrics fm = g2d.getFontMetrics();
-            int tw = fm.stringWidth(watermarkText);
-            int th = fm.getAscent();
-            int x, y;
-            if ("CUSTOM".equals(posSafe)) {
-                int topX = (int) Math.round(customX * fx);
-                int topY = (int) Math.round(customY * fy);
-                topX = Math.max(0, Math.min(topX, W - tw));
-                topY = Math.max(0, Math.min(topY, H - th));
-                x = topX; y = topY + th;
-            } else {
-                switch (posSafe) {
-                    case "TOP_LEFT": x = margin; y = margin + th; break;
-                    case "TOP_CENTER": x = (W - tw) / 2; y = margin + th; break;
-                    case "TOP_RIGHT": x = W - tw - margin; y = margin + th; break;
-                    case "MIDDLE_LEFT": x = margin; y = (H + th) / 2; break;
-                    case "CENTER": x = (W - tw) / 2; y = (H + th) / 2; break;
-                    case "MIDDLE_RIGHT": x = W - tw - margin; y = (H + th) / 2; break;
-                    case "BOTTOM_LEFT": x = margin; y = H - margin; break;
-                    case "BOTTOM_CENTER": x = (W - tw) / 2; y = H - margin; break;
-                    case "BOTTOM_RIGHT": x = W - tw - margin; y = H - margin; break;
-                    default: x = (W - tw) / 2; y = (H + th) / 2; break;
-                }
-            }
-            double centerX = x + tw / 2.0;
-            double centerY = y - th / 2.0; // baseline center
-            AffineTransform oldTx = g2d.getTransform();
-            g2d.rotate(Math.toRadians(rotationDegrees), centerX, centerY);
-            if (shadow) {
-                g2d.setColor(new Color(0, 0, 0, 120));
-                g2d.drawString(watermarkText, x + 2, y + 2);
-                g2d.setColor(color);
-            }
-            if (stroke) {
-                g2d.setColor(Color.BLACK);
-                g2d.drawString(watermarkText, x - 1, y);
-                g2d.drawString(watermarkText, x + 1, y);
-                g2d.drawString(watermarkText, x, y - 1);
-                g2d.drawString(watermarkText, x, y + 1);
-                g2d.setColor(color);
-            }
-            g2d.drawString(watermarkText, x, y);
-            g2d.setTransform(oldTx);
-        } else if (watermarkImg != null) {
-            int w = Math.max(1, (int) (watermarkImg.getWidth() * wmScale));
-            int h = Math.max(1, (int) (watermarkImg.getHeight() * wmScale));
-            Image scaled = watermarkImg.getScaledInstance(w, h, Image.SCALE_SMOOTH);
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, Math.max(0f, Math.min(1f, wmOpacity))));
-            int x, y;
-            if ("CUSTOM".equals(posSafe)) {
-                int topX = (int) Math.round(customX * fx);
-                int topY = (int) Math.round(customY * fy);
-                topX = Math.max(0, Math.min(topX, W - w));
-                topY = Math.max(0, Math.min(topY, H - h));
-                x = topX; y = topY;
-            } else {
-                switch (posSafe) {
-                    case "TOP_LEFT": x = margin; y = margin; break;
-                    case "TOP_CENTER": x = (W - w) / 2; y = margin; break;
-                    case "TOP_RIGHT": x = W - w - margin; y = margin; break;
-                    case "MIDDLE_LEFT": x = margin; y = (H - h) / 2; break;
-                    case "CENTER": x = (W - w) / 2; y = (H - h) / 2; break;
-                    case "MIDDLE_RIGHT": x = W - w - margin; y = (H - h) / 2; break;
-                    case "BOTTOM_LEFT": x = margin; y = H - h - margin; break;
-                    case "BOTTOM_CENTER": x = (W - w) / 2; y = H - h - margin; break;
-                    case "BOTTOM_RIGHT": x = W - w - margin; y = H - h - margin; break;
-                    default: x = (W - w) / 2; y = (H - h) / 2; break;
-                }
-            }
-            // Rotate around center and draw once
-            double centerX = x + w / 2.0;
-            double centerY = y + h / 2.0;
-            AffineTransform oldTx = g2d.getTransform();
-            g2d.rotate(Math.toRadians(rotationDegrees), centerX, centerY);
-            g2d.drawImage(scaled, x, y, null);
-            g2d.setTransform(oldTx);
-        }
-        g2d.dispose();
-        return new PreviewResult(base, origW, origH, newW, newH);
+        WatermarkSprite sprite = plan.sprite(plan.resolveText(source.file));
+        Point pos = plan.place(base.getWidth(), base.getHeight(), origW, origH, sprite.boxWidth, sprite.boxHeight);
+        return new PreviewResult(base, sprite, pos, origW, origH, base.getWidth(), base.getHeight());
     }
 
     // 计算当前水印包围盒尺寸（文本包围盒/图片水印缩放后的尺寸）
     private Dimension getCurrentWatermarkBounds() {
         boolean isTextMode = watermarkModeComboBox == null || watermarkModeComboBox.getSelectedIndex() == 0;
         if (isTextMode) {
-            String text = watermarkTextField != null ? watermarkTextField.getText() : "";
-            int fontSize = 150;
-            try { fontSize = Integer.parseInt(fontSizeField.getText()); } catch (Exception ignore) {}
-            boolean bold = boldCheckBox != null && boldCheckBox.isSelected();
-            boolean italic = italicCheckBox != null && italicCheckBox.isSelected();
-            int style = (bold ? Font.BOLD : Font.PLAIN) | (italic ? Font.ITALIC : Font.PLAIN);
-            String fontName = fontComboBox != null ? (String) fontComboBox.getSelectedItem() : "SansSerif";
-            if (fontName == null || "系统字体".equals(fontName)) fontName = "SansSerif";
+            WatermarkSpec spec = WatermarkSpec.fromTemplate(snapshotCurrentSettings());
+            String text = spec.text;
             BufferedImage tmp = new BufferedImage(1,1,BufferedImage.TYPE_INT_ARGB);
             Graphics2D g = tmp.createGraphics();
-            g.setFont(new Font(fontName, style, fontSize));
+            g.setFont(spec.font());
             FontMetrics fm = g.getFontMetrics();
             int tw = fm.stringWidth(text);
             int th = fm.getAscent();
@@ -695,11 +640,11 @@ public class PhotoWatermarkGUI extends JFrame {
 
     // 获取图像在预览面板中的绘制矩形
     private Rectangle getImageDrawRect() {
-        if (originalImage == null) return null;
+        if (originalFile == null) return null;
         int panelWidth = previewPanel.getWidth();
         int panelHeight = previewPanel.getHeight();
-        int imgWidth = (previewImage != null ? previewImage.getWidth() : originalImage.getWidth());
-        int imgHeight = (previewImage != null ? previewImage.getHeight() : originalImage.getHeight());
+        int imgWidth = (previewImage != null ? previewImage.getWidth() : originalWidth);
+        int imgHeight = (previewImage != null ? previewImage.getHeight() : originalHeight);
         double scale = Math.min((double)panelWidth/imgWidth, (double)panelHeight/imgHeight);
         int drawWidth = (int)(imgWidth * scale);
         int drawHeight = (int)(imgHeight * scale);
@@ -878,6 +823,7 @@ public class PhotoWatermarkGUI extends JFrame {
         gridPanel.add(textLabel, gbc);
         gbc.gridx = 1;
         watermarkTextField = new JTextField("© 2025 by YourName");
+        watermarkTextField.setToolTipText("可使用 " + RenderPlan.DATE_TOKEN + " 插入照片拍摄日期");
         watermarkTextField.setPreferredSize(new Dimension(120, 28));
         gridPanel.add(watermarkTextField, gbc);
         gbc.gridx = 2;
@@ -1086,6 +1032,48 @@ public class PhotoWatermarkGUI extends JFrame {
         gbc.gridwidth = 1; // Reset gridwidth
         gbc.weightx = 0;
 
+        // 缩放算法
+        gbc.gridx = 0; gbc.gridy++;
+        gridPanel.add(new JLabel("缩放算法:"), gbc);
+        gbc.gridx = 1;
+        resampleComboBox = new JComboBox<>(Resampler.values());
+        resampleComboBox.setSelectedItem(Resampler.AREA);
+        resampleComboBox.setToolTipText("快速：逐级双线性；均衡：区域平均；高质量：Lanczos-3");
+        gridPanel.add(resampleComboBox, gbc);
+        gbc.gridx = 2;
+        gridPanel.add(new JLabel(""), gbc);
+
+        // 并行导出线程数
+        gbc.gridx = 0; gbc.gridy++;
+        gridPanel.add(new JLabel("并行线程:"), gbc);
+        gbc.gridx = 1;
+        int cores = ExportService.defaultWorkers();
+        workerSpinner = new JSpinner(new SpinnerNumberModel(cores, 1, Math.max(64, cores), 1));
+        workerSpinner.setToolTipText("同时处理的图片数量，默认等于CPU核心数");
+        gridPanel.add(workerSpinner, gbc);
+        gbc.gridx = 2;
+        gridPanel.add(new JLabel(""), gbc);
+
+        // 增量导出：输出文件夹中的清单记录每张图的导出指纹，未变化的图片直接跳过
+        gbc.gridx = 0; gbc.gridy++;
+        gridPanel.add(new JLabel("增量导出:"), gbc);
+        gbc.gridx = 1;
+        incrementalCheckBox = new JCheckBox("跳过未变化的图片");
+        incrementalCheckBox.setToolTipText("源图、水印参数均未改变且输出文件仍在时不重新生成");
+        gridPanel.add(incrementalCheckBox, gbc);
+        gbc.gridx = 2;
+        gridPanel.add(new JLabel(""), gbc);
+
+        // 保持文件夹结构：按导入文件夹中的相对子文件夹输出
+        gbc.gridx = 0; gbc.gridy++;
+        gridPanel.add(new JLabel("文件夹结构:"), gbc);
+        gbc.gridx = 1;
+        keepFoldersCheckBox = new JCheckBox("保持子文件夹结构");
+        keepFoldersCheckBox.setToolTipText("导入文件夹中的子文件夹在输出文件夹下原样重建，而不是全部输出到同一文件夹");
+        gridPanel.add(keepFoldersCheckBox, gbc);
+        gbc.gridx = 2;
+        gridPanel.add(new JLabel(""), gbc);
+
         gbc.gridx = 0; gbc.gridy++;
         gridPanel.add(new JLabel(""), gbc);
         gbc.gridx = 1;
@@ -1106,7 +1094,7 @@ public class PhotoWatermarkGUI extends JFrame {
         // 导出按钮面板
         JPanel exportPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         exportPanel.setBackground(Color.WHITE);
-        JButton exportButton = new JButton("导出图片");
+        exportButton = new JButton("导出图片");
         exportButton.setBackground(Color.WHITE);
         exportButton.setForeground(new Color(0, 123, 255));
         exportButton.setFocusPainted(false);
@@ -1117,13 +1105,22 @@ public class PhotoWatermarkGUI extends JFrame {
                 BorderFactory.createEmptyBorder(5, 15, 5, 15)
         ));
         exportButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
-        // 导出按钮事件，增加粗体/斜体参数
-        exportButton.addActionListener(e -> {
-            boolean bold = boldCheckBox.isSelected();
-            boolean italic = italicCheckBox.isSelected();
-            exportImages(bold, italic);
-        });
+        exportButton.addActionListener(e -> exportImages());
         exportPanel.add(exportButton);
+        cancelExportButton = new JButton("取消导出");
+        cancelExportButton.setEnabled(false);
+        cancelExportButton.addActionListener(e -> {
+            ExportService running = activeExport;
+            if (running != null) {
+                running.cancel();
+                cancelExportButton.setEnabled(false);
+            }
+        });
+        exportPanel.add(cancelExportButton);
+        resumeExportButton = new JButton("继续上次导出");
+        resumeExportButton.setEnabled(false);
+        resumeExportButton.addActionListener(e -> resumeExport());
+        exportPanel.add(resumeExportButton);
         rightPanel.add(exportPanel, BorderLayout.SOUTH);
 
         // 模板管理面板 (置于顶部north容器)
@@ -1167,6 +1164,7 @@ public class PhotoWatermarkGUI extends JFrame {
         JPanel listPanel = new JPanel(new BorderLayout());
         listPanel.setBorder(BorderFactory.createTitledBorder("已导入图片列表"));
         JScrollPane listScrollPane = new JScrollPane(imageList);
+        listScrollPane.getViewport().addChangeListener(e -> prioritizeVisibleThumbnails());
         listScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
         listPanel.add(listScrollPane, BorderLayout.CENTER);
         // 使用 2x2 网格布局，避免单行按钮被截断
@@ -1279,6 +1277,7 @@ public class PhotoWatermarkGUI extends JFrame {
         t.targetWidth = parseInt(widthField.getText());
         t.targetHeight = parseInt(heightField.getText());
         t.scalePercent = scaleSlider.getValue();
+        t.resampleMode = ((Resampler) resampleComboBox.getSelectedItem()).name();
         t.position = (String) positionComboBox.getSelectedItem();
         t.rotationDegrees = rotationSlider != null ? rotationSlider.getValue() : 0;
         if ("CUSTOM".equals(t.position)) {
@@ -1331,6 +1330,7 @@ public class PhotoWatermarkGUI extends JFrame {
         widthField.setText(String.valueOf(t.targetWidth));
         heightField.setText(String.valueOf(t.targetHeight));
         scaleSlider.setValue(t.scalePercent > 0 ? t.scalePercent : 100);
+        resampleComboBox.setSelectedItem(Resampler.fromName(t.resampleMode));
         positionComboBox.setSelectedItem(t.position != null ? t.position : "CENTER");
         if (rotationSlider != null) rotationSlider.setValue((int)Math.round(t.rotationDegrees));
         if ("CUSTOM".equals(t.position)) {
@@ -1407,6 +1407,11 @@ public class PhotoWatermarkGUI extends JFrame {
     
     // 清空所有图片
     private void clearAllImages() {
+        importGeneration++;
+        if (activeDiscovery != null) activeDiscovery.cancel();
+        activeDiscovery = null;
+        finishedDiscoveries.clear();
+        unreadableEntries.clear();
         imageListModel.clear();
         importedFiles.clear();
         updateStatusLabel();
@@ -1443,82 +1448,106 @@ public class PhotoWatermarkGUI extends JFrame {
         }
     }
 
+    // 在后台递归扫描导入的文件与文件夹（见 ImageDiscovery），每扫完一个文件夹就加入列表，缩略图随后在后台生成
     private void handleImportedFiles(List<File> files) {
-        for (File file : files) {
-            if (file.isFile() && isImageFile(file)) {
-                addImage(file);
-                importedFiles.add(file);
-            } else if (file.isDirectory()) {
-                File[] subFiles = file.listFiles();
-                if (subFiles != null) {
-                    for (File subFile : subFiles) {
-                        if (subFile.isFile() && isImageFile(subFile)) {
-                            addImage(subFile);
-                            importedFiles.add(subFile);
-                        }
-                    }
-                }
+        int generation = importGeneration;
+        ImageDiscovery[] discovery = new ImageDiscovery[1];
+        discovery[0] = ImageDiscovery.start(files, batch -> SwingUtilities.invokeLater(() -> {
+            if (generation != importGeneration) return; // 扫描期间列表已被清空
+            List<ImageEntry> entries = new ArrayList<>(batch.size());
+            for (ImageDiscovery.Found found : batch) {
+                ImageEntry entry = new ImageEntry(found.file, found.relativeDir, THUMB_PLACEHOLDER, true);
+                entries.add(entry);
+                importedFiles.add(found.file);
+                loadThumbnailLater(entry);
             }
-        }
-        // After processing all files, update the status once so the count is correct
-        updateStatusLabel();
+            imageListModel.addAll(entries);
+            updateStatusLabel();
+            prioritizeVisibleThumbnails();
+        }), () -> SwingUtilities.invokeLater(() -> {
+            if (generation == importGeneration) finishedDiscoveries.add(discovery[0]);
+        }));
+        activeDiscovery = discovery[0];
     }
 
-    // 辅助方法：获取文件后缀
-    private String getFileSuffix(File f) {
-        String n = f.getName();
-        int dot = n.lastIndexOf('.');
-        return dot == -1 ? "" : n.substring(dot + 1).toLowerCase();
+    // 在后台线程生成缩略图，完成后回到 EDT 替换列表项；无法读取的图片从列表移除并汇总提示
+    private void loadThumbnailLater(ImageEntry entry) {
+        int generation = importGeneration;
+        pendingThumbnails++;
+        thumbnailLoader.submit(entry, () -> {
+            ImageIcon icon = generation == importGeneration ? createThumbnail(entry.file) : null;
+            SwingUtilities.invokeLater(() -> {
+                pendingThumbnails--;
+                if (generation == importGeneration) {
+                    if (icon != null) {
+                        entry.thumbnail = icon;
+                        repaintIfVisible(entry);
+                    } else {
+                        unreadableEntries.add(entry);
+                        unreadableFiles.add(entry.file.getName());
+                    }
+                    if (pendingThumbnails == 0 || unreadableEntries.size() >= 256) removeUnreadableEntries();
+                }
+                if (pendingThumbnails == 0 && !unreadableFiles.isEmpty()) {
+                    StringBuilder msg = new StringBuilder("无法加载 " + unreadableFiles.size() + " 张图片:");
+                    for (int i = 0; i < Math.min(10, unreadableFiles.size()); i++) msg.append("\n").append(unreadableFiles.get(i));
+                    if (unreadableFiles.size() > 10) msg.append("\n...");
+                    unreadableFiles.clear();
+                    JOptionPane.showMessageDialog(this, msg.toString(), "错误", JOptionPane.ERROR_MESSAGE);
+                }
+            });
+        });
     }
 
-    // 辅助方法：读取首帧图片，兼容tiff/bmp
-    private BufferedImage readFirstImage(File file) throws IOException {
-        String suffix = getFileSuffix(file);
-        java.util.Iterator<javax.imageio.ImageReader> it = javax.imageio.ImageIO.getImageReadersBySuffix(suffix);
-        if (it.hasNext()) {
-            javax.imageio.ImageReader reader = it.next();
-            try (javax.imageio.stream.ImageInputStream iis = javax.imageio.ImageIO.createImageInputStream(file)) {
-                reader.setInput(iis, true, true);
-                return reader.read(0);
-            } finally {
-                reader.dispose();
+    // 只重绘该项所在的行；不在可见范围内时无需处理，滚动到时渲染器自然取到新图标（行高固定，不影响布局）
+    private void repaintIfVisible(ImageEntry entry) {
+        int first = imageList.getFirstVisibleIndex();
+        int last = imageList.getLastVisibleIndex();
+        for (int i = Math.max(0, first); first >= 0 && i <= last; i++) {
+            if (imageListModel.get(i) == entry) {
+                Rectangle cell = imageList.getCellBounds(i, i);
+                if (cell != null) imageList.repaint(cell);
+                return;
             }
         }
-        return javax.imageio.ImageIO.read(file);
     }
 
-    // 修改后的addImage方法，支持tiff/bmp缩略图，并加入选中状态
-    private void addImage(File file) {
+    // 一次扫描移除所有读不出的项：从后往前，相邻的一段用 removeRange 一并移除
+    private void removeUnreadableEntries() {
+        if (unreadableEntries.isEmpty()) return;
+        Set<File> files = new HashSet<>();
+        for (ImageEntry entry : unreadableEntries) files.add(entry.file);
+        for (int end = imageListModel.size() - 1; end >= 0; end--) {
+            if (!unreadableEntries.contains(imageListModel.get(end))) continue;
+            int start = end;
+            while (start > 0 && unreadableEntries.contains(imageListModel.get(start - 1))) start--;
+            imageListModel.removeRange(start, end);
+            end = start;
+        }
+        importedFiles.removeAll(files);
+        unreadableEntries.clear();
+        updateStatusLabel();
+    }
+
+    // 生成缩略图（在后台线程调用，见 ThumbnailLoader.render），支持tiff/bmp；无法读取时返回 null
+    private ImageIcon createThumbnail(File file) {
         try {
-            BufferedImage original = readFirstImage(file);
-            if (original == null) throw new IOException("无法读取: " + file.getName());
-            int ow = original.getWidth();
-            int oh = original.getHeight();
-            if (ow <= 0 || oh <= 0) throw new IOException("尺寸异常: " + file.getName());
-            double scale = Math.min((double) THUMB_WIDTH / ow, (double) THUMB_HEIGHT / oh);
-            int tw = Math.max(1, (int) Math.round(ow * scale));
-            int th = Math.max(1, (int) Math.round(oh * scale));
-            BufferedImage thumb = new BufferedImage(tw, th, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g = thumb.createGraphics();
-            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g.drawImage(original, 0, 0, tw, th, null);
-            g.dispose();
-            ImageIcon icon = new ImageIcon(thumb);
-            icon.setDescription(file.getName());
-            imageListModel.addElement(new ImageEntry(file, icon, true));
+            return new ImageIcon(ThumbnailLoader.render(file, THUMB_WIDTH, THUMB_HEIGHT), file.getName());
         } catch (Exception ex) {
-            // 回退旧方案
-            try {
-                ImageIcon icon = new ImageIcon(file.getAbsolutePath());
-                Image img = icon.getImage().getScaledInstance(THUMB_WIDTH, THUMB_HEIGHT, Image.SCALE_SMOOTH);
-                icon = new ImageIcon(img);
-                icon.setDescription(file.getName());
-                imageListModel.addElement(new ImageEntry(file, icon, true));
-            } catch (Exception ignore) {
-                JOptionPane.showMessageDialog(this, "无法加载图片: " + file.getName(), "错误", JOptionPane.ERROR_MESSAGE);
-            }
+            return null;
+        }
+    }
+
+    // 把列表中可见且尚未生成缩略图的行交给加载器优先处理（滚动或加入新图片后调用）
+    private void prioritizeVisibleThumbnails() {
+        int first = imageList.getFirstVisibleIndex();
+        int last = imageList.getLastVisibleIndex();
+        List<ImageEntry> visible = new ArrayList<>();
+        for (int i = Math.max(0, first); first >= 0 && i <= last; i++) {
+            ImageEntry entry = imageListModel.get(i);
+            if (entry.thumbnail == THUMB_PLACEHOLDER) visible.add(entry);
         }
+        thumbnailLoader.prioritize(visible);
     }
 
     // 自定义渲染器：显示复选框 + 缩略图 + 文件名
@@ -1582,105 +1611,185 @@ public class PhotoWatermarkGUI extends JFrame {
         if (result == JFileChooser.APPROVE_OPTION) {
             outputFolder = chooser.getSelectedFile();
             outputFolderField.setText(outputFolder.getAbsolutePath());
+            refreshResumeButton();
         }
     }
 
-    // 修改导出方法签名，增加粗体/斜体参数
-    private void exportImages(boolean bold, boolean italic) {
+    // 导出已勾选图片：参数取自当前界面快照（含粗体/斜体等全部设置）
+    private void exportImages() {
         if (outputFolder == null) {
             JOptionPane.showMessageDialog(this, "请先选择输出文件夹！");
             return;
         }
         java.util.List<File> selectedFiles = new java.util.ArrayList<>();
+        // 保持文件夹结构时每个文件输出到对应的子文件夹
+        java.util.Map<File, String> relativeDirs = keepFoldersCheckBox.isSelected() ? new java.util.HashMap<>() : null;
         for (int i = 0; i < imageListModel.size(); i++) {
             ImageEntry entry = imageListModel.get(i);
-            if (entry.selected) selectedFiles.add(entry.file);
+            if (!entry.selected) continue;
+            selectedFiles.add(entry.file);
+            if (relativeDirs != null) relativeDirs.put(entry.file, entry.relativeDir);
         }
         if (selectedFiles.isEmpty()) {
             JOptionPane.showMessageDialog(this, "请先勾选要导出的图片！");
             return;
         }
         for (File file : selectedFiles) {
-            if (file.getParentFile().equals(outputFolder)) {
+            String rel = relativeDirs != null ? relativeDirs.get(file) : null;
+            File target = rel == null || rel.isEmpty() ? outputFolder : new File(outputFolder, rel);
+            if (file.getParentFile().equals(target)) {
                 JOptionPane.showMessageDialog(this, "禁止导出到原文件夹: " + file.getParent());
                 return;
             }
         }
-        String namingRule = (String) namingRuleComboBox.getSelectedItem();
-        String prefix = prefixField.getText();
-        String suffix = suffixField.getText();
-        int jpegQuality = jpegQualitySlider.getValue();
-        String format = getSelectedOutputFormat();
-        int width = parseInt(widthField.getText());
-        int height = parseInt(heightField.getText());
-        double scale = scaleSlider.getValue() / 100.0;
-        double rotationDegrees = rotationSlider != null ? rotationSlider.getValue() : 0.0;
-
         boolean isTextWatermark = watermarkModeComboBox.getSelectedIndex() == 0;
+        if (!isTextWatermark && watermarkImageFile == null) {
+            JOptionPane.showMessageDialog(this, "请先选择一个图片水印！", "错误", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        // 整个批次只编译一次渲染计划
+        WatermarkTemplate settings = snapshotCurrentSettings();
+        RenderPlan plan;
+        try {
+            plan = RenderPlan.compile(WatermarkSpec.fromTemplate(settings));
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        File outDir = outputFolder;
+        ExportJournal journal;
+        try {
+            journal = ExportJournal.begin(outDir, settings, selectedFiles, relativeDirs);
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "无法在输出文件夹中写入导出日志: " + ex.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        ExportManifest manifest = incrementalCheckBox.isSelected() ? ExportManifest.load(outDir) : null;
+        ExportProfile profile = new ExportProfile();
+        for (ImageDiscovery d : finishedDiscoveries) d.recordTo(profile);
+        runExport(plan.jobs(selectedFiles, outDir, relativeDirs, manifest, journal), outDir, manifest, journal, profile);
+    }
 
-        if (isTextWatermark) {
-            int fontSize = parseInt(fontSizeField.getText());
-            String positionStr = (String) positionComboBox.getSelectedItem();
-            String watermarkText = watermarkTextField.getText();
-            String fontName = (String) fontComboBox.getSelectedItem();
-            int opacity = opacitySlider.getValue();
-            boolean shadow = shadowCheckBox.isSelected();
-            boolean stroke = strokeCheckBox.isSelected();
-
-            for (File file : selectedFiles) {
-                String baseName = file.getName();
-                String nameNoExt = baseName.contains(".") ? baseName.substring(0, baseName.lastIndexOf('.')) : baseName;
-                String ext = format.equals("PNG") ? ".png" : ".jpg";
-                String outName = nameNoExt;
-                // 根据命名规则添加前缀/后缀
-                if ("添加前缀".equals(namingRule) || "添加前后缀".equals(namingRule)) {
-                    outName = prefix + outName;
-                }
-                if ("添加后缀".equals(namingRule) || "添加前后缀".equals(namingRule)) {
-                    outName = outName + suffix;
-                }
-                outName += ext;
-                File outFile = new File(outputFolder, outName);
-                if ("CUSTOM".equals(positionStr)) {
-                    // 自定义坐标：文本包围盒左上角 customX/customY
-                    PhotoWatermarkApp.processImageGUICustom(file, outFile, fontSize, selectedColor, format, jpegQuality, width, height, scale, watermarkText, fontName, opacity, shadow, stroke, bold, italic, customX, customY, rotationDegrees);
-                } else {
-                    PhotoWatermarkApp.processImageGUI(file, outFile, fontSize, selectedColor, positionStr, format, jpegQuality, width, height, scale, watermarkText, fontName, opacity, shadow, stroke, bold, italic, rotationDegrees);
+    // 继续输出文件夹中未完成的批次：按当时的参数，从第一张未完成的图片开始
+    private void resumeExport() {
+        ExportJournal.Unfinished unfinished = ExportJournal.findUnfinished(outputFolder);
+        if (unfinished == null) {
+            JOptionPane.showMessageDialog(this, "输出文件夹中没有未完成的导出。");
+            refreshResumeButton();
+            return;
+        }
+        int completed = unfinished.total - unfinished.remaining.size();
+        int choice = JOptionPane.showConfirmDialog(this,
+                String.format("上次导出已完成 %d / %d 张。\n按当时的水印参数继续导出剩余的 %d 张？",
+                        completed, unfinished.total, unfinished.remaining.size()),
+                "继续上次导出", JOptionPane.YES_NO_OPTION);
+        if (choice != JOptionPane.YES_OPTION) return;
+        RenderPlan plan;
+        ExportJournal journal;
+        try {
+            plan = RenderPlan.compile(WatermarkSpec.fromTemplate(unfinished.settings));
+            journal = ExportJournal.resume(unfinished);
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        ExportManifest manifest = incrementalCheckBox.isSelected() ? ExportManifest.load(unfinished.outputDir) : null;
+        runExport(plan.jobs(unfinished.remaining, unfinished.sources, unfinished.outputDir, unfinished.relativeDirs, manifest, journal),
+                unfinished.outputDir, manifest, journal, new ExportProfile());
+    }
+
+    // 当前输出文件夹中有未完成的导出时启用“继续上次导出”
+    private void refreshResumeButton() {
+        ExportJournal.Unfinished unfinished = activeExport == null ? ExportJournal.findUnfinished(outputFolder) : null;
+        resumeExportButton.setEnabled(unfinished != null);
+        resumeExportButton.setToolTipText(unfinished == null ? "输出文件夹中没有未完成的导出"
+                : String.format("剩余 %d / %d 张未完成", unfinished.remaining.size(), unfinished.total));
+    }
+
+    // 在后台线程池中执行导出，实时刷新进度条 / 速度 / 剩余时间，结束后写出性能报告并弹出汇总
+    private void runExport(java.util.List<ExportService.Job> jobs, File outDir, ExportManifest manifest,
+                           ExportJournal journal, ExportProfile profile) {
+        int workers = (Integer) workerSpinner.getValue();
+        ExportService service = new ExportService(workers);
+        activeExport = service;
+        exportButton.setEnabled(false);
+        resumeExportButton.setEnabled(false);
+        cancelExportButton.setEnabled(true);
+        progressBar.setMinimum(0);
+        progressBar.setMaximum(jobs.size());
+        progressBar.setValue(0);
+        progressBar.setStringPainted(true);
+        progressBar.setString(String.format("0 / %d", jobs.size()));
+        progressBar.setVisible(true);
+
+        SwingWorker<ExportService.Summary, ExportService.Progress> worker = new SwingWorker<>() {
+            private File reportFile;
+
+            @Override protected ExportService.Summary doInBackground() throws Exception {
+                ExportService.Summary summary = null;
+                try {
+                    summary = service.run(jobs, (job, error, progress) -> publish(progress), profile);
+                    reportFile = profile.write(outDir, summary);
+                    return summary;
+                } finally {
+                    service.shutdown();
+                    if (manifest != null) manifest.save();
+                    // 全部成功才结束日志；取消、失败或中断时保留，供“继续上次导出”
+                    if (summary != null && summary.failed == 0 && summary.cancelled == 0) journal.finish();
+                    journal.close();
                 }
             }
-        } else {
-            if (watermarkImageFile == null) {
-                JOptionPane.showMessageDialog(this, "请先选择一个图片水印！", "错误", JOptionPane.ERROR_MESSAGE);
-                return;
+            @Override protected void process(java.util.List<ExportService.Progress> chunks) {
+                // 只关心最新的一次进度
+                ExportService.Progress p = chunks.get(chunks.size() - 1);
+                progressBar.setValue(p.done);
+                long eta = p.etaMillis();
+                String etaText = eta < 0 ? "--:--" : String.format("%02d:%02d", eta / 60000, (eta / 1000) % 60);
+                String text = String.format("%d / %d  ·  %.1f 张/秒  ·  剩余约 %s  ·  内存 %.0f%%",
+                        p.done, p.total, p.filesPerSecond(), etaText, p.memoryUtilisation * 100);
+                if (p.blockedJobs > 0) text += String.format("（%d 张大图排队）", p.blockedJobs);
+                progressBar.setString(text);
             }
-            String positionStr = (String) positionComboBox.getSelectedItem();
-            double watermarkScale = imageWatermarkScaleSlider.getValue() / 100.0;
-            int watermarkOpacity = imageWatermarkOpacitySlider.getValue();
-
-            for (File file : selectedFiles) {
-                String baseName = file.getName();
-                String nameNoExt = baseName.contains(".") ? baseName.substring(0, baseName.lastIndexOf('.')) : baseName;
-                String ext = format.equals("PNG") ? ".png" : ".jpg";
-                String outName = nameNoExt;
-                // 根据命名规则添加前缀/后缀
-                if ("添加前缀".equals(namingRule) || "添加前后缀".equals(namingRule)) {
-                    outName = prefix + outName;
-                }
-                if ("添加后缀".equals(namingRule) || "添加前后缀".equals(namingRule)) {
-                    outName = outName + suffix;
+            @Override protected void done() {
+                activeExport = null;
+                exportButton.setEnabled(true);
+                cancelExportButton.setEnabled(false);
+                refreshResumeButton();
+                progressBar.setVisible(false);
+                ExportService.Summary s;
+                try {
+                    s = get();
+                } catch (Exception ex) {
+                    Logger.getLogger(PhotoWatermarkGUI.class.getName()).log(Level.SEVERE, null, ex);
+                    JOptionPane.showMessageDialog(PhotoWatermarkGUI.this, "导出中断: " + ex.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
+                    return;
                 }
-                outName += ext;
-                File outFile = new File(outputFolder, outName);
-                if ("CUSTOM".equals(positionStr)) {
-                    PhotoWatermarkApp.processImageWithImageWatermarkCustom(file, outFile, watermarkImageFile, format, jpegQuality, width, height, scale, watermarkScale, watermarkOpacity, customX, customY, rotationDegrees);
+                StringBuilder msg = new StringBuilder(s.cancelled > 0 ? "导出已取消！" : "导出完成！");
+                if (manifest != null) {
+                    msg.append(String.format("\n重新生成: %d 张，未变化跳过: %d 张，失败: %d 张", s.succeeded, s.unchanged, s.failed));
                 } else {
-                    PhotoWatermarkApp.processImageWithImageWatermark(file, outFile, watermarkImageFile, positionStr, format, jpegQuality, width, height, scale, watermarkScale, watermarkOpacity, rotationDegrees);
+                    msg.append(String.format("\n成功: %d 张，失败: %d 张", s.succeeded, s.failed));
+                }
+                if (s.cancelled > 0) msg.append(String.format("，未处理: %d 张", s.cancelled));
+                msg.append(String.format("\n耗时: %.1f 秒", s.elapsedMillis / 1000.0));
+                synchronized (s.errors) {
+                    int shown = 0;
+                    for (String err : s.errors) {
+                        if (shown++ == 5) { msg.append("\n..."); break; }
+                        msg.append("\n").append(err);
+                    }
                 }
+                // 分阶段耗时表用等宽字体对齐
+                JTextArea stats = new JTextArea(profile.summaryText()
+                        + (reportFile != null ? "\n报告: " + reportFile.getPath() : ""));
+                stats.setEditable(false);
+                stats.setOpaque(false);
+                stats.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+                JOptionPane.showMessageDialog(PhotoWatermarkGUI.this, new Object[]{msg.toString(), stats},
+                        "导出结果", s.failed > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
             }
-        }
-
-
-        JOptionPane.showMessageDialog(this, "导出完成！");
+        };
+        worker.execute();
     }
     
     private int parseInt(String s) {
@@ -1699,14 +1808,6 @@ public class PhotoWatermarkGUI extends JFrame {
         SwingUtilities.invokeLater(() -> new PhotoWatermarkGUI().setVisible(true));
     }
     
-    private boolean isImageFile(File file) {
-        String name = file.getName().toLowerCase();
-        return name.endsWith(".jpg") || name.endsWith(".jpeg") || 
-               name.endsWith(".png") || name.endsWith(".gif") || 
-               name.endsWith(".bmp") || name.endsWith(".tif") || 
-               name.endsWith(".tiff");
-    }
-
     // 关闭处理：检查当前参数是否属于已保存模板；否则提示保存
     private void handleCloseRequest() {
         try {
@@ -1772,6 +1873,7 @@ public class PhotoWatermarkGUI extends JFrame {
         if (a.targetWidth != b.targetWidth) return false;
         if (a.targetHeight != b.targetHeight) return false;
         if (a.scalePercent != b.scalePercent) return false;
+        if (Resampler.fromName(a.resampleMode) != Resampler.fromName(b.resampleMode)) return false;
         if (!eq(a.text, b.text)) return false;
         if (!eq(a.fontName, b.fontName)) return false;
         if (a.fontSize != b.fontSize) return false;
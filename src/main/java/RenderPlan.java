@@ -0,0 +1,531 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 编译后的水印渲染计划：每个批次只构建一次，之后对每张图片调用 {@link #export(File, File)}。
+ * 字体、颜色、合成模式、水印图片等与单张图片无关的工作都在 {@link #compile(WatermarkSpec)} 中完成；
+ * 文字水印被预先栅格化为 {@link WatermarkSprite}，按样式缓存，每张图片只做一次合成。
+ * 实例不可变，可被多个导出线程同时使用；GUI 预览与导出共用同一套绘制逻辑。
+ */
+public final class RenderPlan {
+    static final int PADDING = 20;
+    /** 水印文本中的占位符：替换为 EXIF 拍摄日期（无 EXIF 时为当天日期） */
+    static final String DATE_TOKEN = "{date}";
+    /** 内存估算按 ARGB 每像素 4 字节计 */
+    static final int BYTES_PER_PIXEL = 4;
+    /** 渲染引擎版本：同样参数下输出像素会发生变化的改动需递增，使增量导出的旧结果失效 */
+    static final int ENGINE_VERSION = 1;
+
+    final WatermarkSpec spec;
+
+    // 文字水印
+    private final Font font;
+    private final Color textColor;
+    private final Color shadowColor;
+
+    // 图片水印（已缩放、旋转并预乘透明度，来自 WatermarkAssetCache）
+    private final WatermarkSprite logo;
+
+    // 编码参数（PNG 为 null，使用编码器默认值）
+    private final ImageWriteParam writeParam;
+
+    private RenderPlan(WatermarkSpec spec, WatermarkSprite logo) {
+        this.spec = spec;
+        this.font = spec.font();
+        Color c = spec.color;
+        this.textColor = new Color(c.getRed(), c.getGreen(), c.getBlue(), (int) (spec.textOpacity * 2.55));
+        this.shadowColor = new Color(0, 0, 0, (int) (spec.textOpacity * 1.5));
+        this.logo = logo;
+        this.writeParam = "PNG".equals(spec.outputFormat) ? null : CodecRegistry.jpegParam(spec.jpegQuality);
+    }
+
+    public static RenderPlan compile(WatermarkSpec spec) throws IOException {
+        WatermarkSprite logo = null;
+        if (!spec.textMode) {
+            if (spec.watermarkImagePath == null || spec.watermarkImagePath.isEmpty()) {
+                throw new IOException("未选择水印图片");
+            }
+            logo = WatermarkAssetCache.logo(new File(spec.watermarkImagePath), spec.watermarkScale,
+                    spec.rotationDegrees, spec.watermarkOpacity);
+        }
+        return new RenderPlan(spec, logo);
+    }
+
+    /** 计算输出尺寸：缩放比例优先，否则使用目标宽高（0 表示保持） */
+    public Dimension targetSize(int origW, int origH) {
+        int newW = origW, newH = origH;
+        if (spec.scale > 0 && spec.scale != 1.0) {
+            newW = Math.max(1, (int) (origW * spec.scale));
+            newH = Math.max(1, (int) (origH * spec.scale));
+        } else {
+            if (spec.targetWidth > 0) newW = spec.targetWidth;
+            if (spec.targetHeight > 0) newH = spec.targetHeight;
+        }
+        return new Dimension(newW, newH);
+    }
+
+    /**
+     * 解码时的降采样倍数：输出比原图小时按 2 的幂隔点解码，
+     * 保证解码结果不小于输出尺寸（高质量模式再多留一级），之后由重采样器精确缩放。
+     */
+    int decodeSubsampling(int origW, int origH) {
+        Dimension d = targetSize(origW, origH);
+        int headroom = spec.resampler.decodeHeadroom();
+        return ImageDecoder.subsampling(origW, origH, d.width * headroom, d.height * headroom);
+    }
+
+    /**
+     * 估算导出该图片时的峰值堆占用（字节），尺寸取自元数据缓存（未命中时只读文件头），供 {@link AdmissionController} 准入使用。
+     * 按每像素 4 字节计：解码结果 + 缩放结果；分条导出（PNG 输出）时只计条带。
+     */
+    long estimateBytes(File in) throws IOException {
+        Dimension size = MetadataCache.get(in).size();
+        return estimateBytes(size.width, size.height, InputBuffer.heapBytes(in));
+    }
+
+    /** 同 {@link #estimateBytes(File)}，用于已在内存中的输入（HTTP 上传）：尺寸只读文件头，输入字节全部计入 */
+    long estimateBytes(InputBuffer buffer) throws IOException {
+        try (ImageDecoder.Source source = ImageDecoder.open(buffer)) {
+            return estimateBytes(source.width, source.height, buffer.length());
+        }
+    }
+
+    private long estimateBytes(int width, int height, long input) {
+        int sub = decodeSubsampling(width, height);
+        long decoded = (long) ImageDecoder.subsampled(width, sub) * ImageDecoder.subsampled(height, sub);
+        Dimension out = targetSize(width, height);
+        long output = (long) out.width * out.height;
+        if (decoded > StripedExport.STREAM_PIXELS && decoded == output && StripedExport.streamsOutput(this)) {
+            return input + StripedExport.estimateBytes();
+        }
+        return input + BYTES_PER_PIXEL * (decoded + (decoded == output ? 0 : output));
+    }
+
+    /** 读取、缩放、加水印并写出单张图片；解码后超过像素预算的大图改走 {@link StripedExport} */
+    public void export(File in, File out) throws IOException {
+        // 文件只读一次：EXIF 与像素解码共用同一份缓冲
+        try (InputBuffer buffer = InputBuffer.open(in)) {
+            render(buffer, resolveText(buffer), image -> encode(image, out));
+        }
+    }
+
+    /**
+     * 同 {@link #export(File, File)}，结果编码到输出流（HTTP 服务使用）。
+     * uploaded 为 true 时 buffer 是上传的字节，没有稳定的文件标识，EXIF 直接解析、不进元数据缓存。
+     */
+    void render(InputBuffer buffer, boolean uploaded, OutputStream out) throws IOException {
+        render(buffer, uploaded ? resolveUploadedText(buffer) : resolveText(buffer), image -> encode(image, out));
+    }
+
+    /** 接收渲染结果（已经过 {@link #forOutput(BufferedImage)} 处理）并编码 */
+    interface Sink {
+        void accept(RenderedImage image) throws IOException;
+    }
+
+    @SuppressWarnings("try")
+    private void render(InputBuffer buffer, String text, Sink sink) throws IOException {
+        ImageDecoder.Decoded src;
+        try (ImageDecoder.Source source = ImageDecoder.open(buffer)) {
+            int sub = decodeSubsampling(source.width, source.height);
+            if (StripedExport.applies(this, source, sub)) {
+                new StripedExport(this, source, sub, text).write(sink);
+                return;
+            }
+            src = source.decode(sub);
+        }
+        // 无需缩放时直接在解码得到的栅格上合成，只改动水印覆盖的区域
+        BufferedImage image;
+        try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.RESIZE)) {
+            image = drawable(resize(src));
+        }
+        RenderedImage output;
+        WatermarkEvents.Composite event = new WatermarkEvents.Composite();
+        event.begin();
+        Rectangle dirty;
+        try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.RENDER)) {
+            dirty = drawWatermark(image, src.width, src.height, text);
+            output = forOutput(image);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = src.file.getPath();
+            event.mode = spec.textMode ? "TEXT" : "IMAGE";
+            event.width = image.getWidth();
+            event.height = image.getHeight();
+            event.dirtyWidth = dirty.width;
+            event.dirtyHeight = dirty.height;
+            event.commit();
+        }
+        sink.accept(output);
+    }
+
+    /**
+     * 为一批源文件构建导出任务（GUI 与命令行共用）：每张图片完成或失败后记入导出日志；
+     * manifest 不为 null 时为增量导出，先比对清单中的指纹，未变化的直接跳过；journal 为 null 时不记日志（监视模式）。
+     * relativeDirs 给出源文件在输出文件夹下对应的子文件夹（保持原文件夹结构），为 null 或无对应项时直接输出到 outDir。
+     * 不同子文件夹中的同名图片会映射到同一个输出文件，见 {@link #outputFiles} 的去重规则。
+     */
+    List<ExportService.Job> jobs(List<File> files, File outDir, Map<File, String> relativeDirs,
+                                 ExportManifest manifest, ExportJournal journal) {
+        return jobs(files, files, outDir, relativeDirs, manifest, journal);
+    }
+
+    /**
+     * 同上；batch 为整个批次的源文件（按原顺序），输出文件名在整个批次内去重。
+     * 继续未完成的批次时 files 只是其中剩余的部分，已完成的图片仍占用各自的文件名，重做的图片得到与上次相同的输出位置。
+     */
+    List<ExportService.Job> jobs(List<File> files, List<File> batch, File outDir, Map<File, String> relativeDirs,
+                                 ExportManifest manifest, ExportJournal journal) {
+        Map<File, File> outputs = outputFiles(batch, outDir, relativeDirs);
+        List<ExportService.Job> jobs = new ArrayList<>(files.size());
+        for (File file : files) {
+            File out = outputs.containsKey(file) ? outputs.get(file)
+                    : outputFile(file, outDir, relativeDirs != null ? relativeDirs.get(file) : null);
+            ExportService.Action action = src -> {
+                File dir = out.getParentFile();
+                if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                    throw new IOException("无法创建输出文件夹: " + dir);
+                }
+                // 指纹在导出前计算，期间源文件被改动则下次重做
+                String fingerprint = manifest != null ? fingerprint(src, out.getName()) : null;
+                try {
+                    export(src, out);
+                } catch (Exception e) {
+                    if (journal != null) journal.failed(src, e.getMessage());
+                    throw e;
+                }
+                if (manifest != null) manifest.record(out, fingerprint);
+                if (journal != null) journal.done(src, out);
+            };
+            if (manifest == null) {
+                jobs.add(ExportService.job(file, action, this::estimateBytes));
+            } else {
+                jobs.add(ExportService.job(file, action, this::estimateBytes, src -> {
+                    boolean fresh = manifest.isUpToDate(out, fingerprint(src, out.getName()));
+                    if (fresh && journal != null) journal.done(src, out);
+                    return fresh;
+                }));
+            }
+        }
+        return jobs;
+    }
+
+    /** 源文件的输出位置：outDir 下的 relativeDir 子文件夹（可为空），文件名按命名规则生成 */
+    File outputFile(File source, File outDir, String relativeDir) {
+        File dir = relativeDir == null || relativeDir.isEmpty() ? outDir : new File(outDir, relativeDir);
+        return new File(dir, spec.outputFileName(source));
+    }
+
+    /**
+     * 为一批源文件分配互不冲突的输出位置：按列表顺序，先到的保留原文件名，之后同名的（如递归导入而未保持文件夹结构时
+     * DCIM/100CANON/IMG_0001.jpg 与 DCIM/101CANON/IMG_0001.jpg）依次加后缀 _2、_3…。
+     * 比较时忽略大小写，与 Windows、macOS 默认文件系统一致。同一源文件重复出现时只分配一次。
+     */
+    Map<File, File> outputFiles(List<File> batch, File outDir, Map<File, String> relativeDirs) {
+        Map<File, File> outputs = new LinkedHashMap<>();
+        Set<String> taken = new HashSet<>();
+        for (File file : batch) {
+            if (outputs.containsKey(file)) continue;
+            File out = outputFile(file, outDir, relativeDirs != null ? relativeDirs.get(file) : null);
+            String name = out.getName();
+            int dot = name.lastIndexOf('.');
+            String base = dot > 0 ? name.substring(0, dot) : name;
+            String ext = dot > 0 ? name.substring(dot) : "";
+            for (int n = 2; !taken.add(out.getPath().toLowerCase(Locale.ROOT)); n++) {
+                out = new File(out.getParentFile(), base + "_" + n + ext);
+            }
+            outputs.put(file, out);
+        }
+        return outputs;
+    }
+
+    /** 按输出尺寸缩放（输出尺寸由原图尺寸决定，与解码时是否降采样无关）；无需缩放时原样返回 */
+    BufferedImage resize(ImageDecoder.Decoded src) {
+        Dimension d = targetSize(src.width, src.height);
+        WatermarkEvents.Resize event = new WatermarkEvents.Resize();
+        event.begin();
+        BufferedImage out = spec.resampler.resize(src.image, d.width, d.height);
+        event.end();
+        if (out != src.image && event.shouldCommit()) {
+            event.path = src.file.getPath();
+            event.algorithm = spec.resampler.name();
+            event.sourceWidth = src.image.getWidth();
+            event.sourceHeight = src.image.getHeight();
+            event.width = out.getWidth();
+            event.height = out.getHeight();
+            event.commit();
+        }
+        return out;
+    }
+
+    /**
+     * 该图片导出结果的指纹（SHA-256 十六进制）：引擎版本 + 展开后的全部参数 + 输入文件标识（规范路径、大小、修改时间）
+     * + 水印图片标识 + 实际水印文本 + 输出文件名。只读文件属性与元数据缓存，不解码像素。
+     */
+    String fingerprint(File source, String outputName) throws IOException {
+        File in = source.getCanonicalFile();
+        StringBuilder sb = new StringBuilder()
+                .append("engine=").append(ENGINE_VERSION).append('\n')
+                .append(spec.canonicalForm()).append('\n')
+                .append("input=").append(in.getPath()).append('|').append(in.length()).append('|').append(in.lastModified()).append('\n')
+                .append("output=").append(outputName).append('\n');
+        if (spec.textMode) {
+            sb.append("resolvedText=").append(resolveText(in));
+        } else {
+            File logoFile = new File(spec.watermarkImagePath).getCanonicalFile();
+            sb.append("logo=").append(logoFile.getPath()).append('|').append(logoFile.length()).append('|').append(logoFile.lastModified());
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // 每个 JRE 都必须提供 SHA-256
+        }
+    }
+
+    /** 文字模式下该图片实际使用的水印文本（展开 {@link #DATE_TOKEN}） */
+    @SuppressWarnings("try")
+    String resolveText(File source) {
+        if (!needsDate()) return spec.text;
+        try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.EXIF)) {
+            return withDate(source != null ? PhotoWatermarkApp.getExifDateTime(source) : null);
+        }
+    }
+
+    /** 同 {@link #resolveText(File)}，EXIF 从已读入的缓冲解析，不再读文件 */
+    @SuppressWarnings("try")
+    String resolveText(InputBuffer source) {
+        if (!needsDate()) return spec.text;
+        try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.EXIF)) {
+            return withDate(PhotoWatermarkApp.getExifDateTime(source));
+        }
+    }
+
+    /** 上传的图片：直接从字节解析 EXIF 拍摄日期 */
+    private String resolveUploadedText(InputBuffer source) throws IOException {
+        if (!needsDate()) return spec.text;
+        ExifProbe probe = ExifProbe.probe(source);
+        return withDate(probe != null ? PhotoWatermarkApp.formatDate(probe.dateTimeOriginal) : null);
+    }
+
+    private boolean needsDate() {
+        return spec.textMode && spec.text.contains(DATE_TOKEN);
+    }
+
+    private String withDate(String date) {
+        return spec.text.replace(DATE_TOKEN, date != null ? date : LocalDate.now().toString());
+    }
+
+    /** 该图片使用的水印精灵；text 为 {@link #resolveText(File)} 的结果（图片水印模式忽略） */
+    WatermarkSprite sprite(String text) {
+        return spec.textMode
+                ? WatermarkSprite.text(text, font, textColor, shadowColor, spec.shadow, spec.stroke, spec.rotationDegrees)
+                : logo;
+    }
+
+    /**
+     * 在已缩放的图像上原地绘制水印，只合成旋转后精灵包围盒与图像相交的区域，返回被改动的区域。
+     * origW/origH 为原图尺寸，用于把 CUSTOM 坐标映射到输出尺寸。
+     */
+    Rectangle drawWatermark(BufferedImage image, int origW, int origH, String text) {
+        WatermarkSprite sprite = sprite(text);
+        Point p = place(image.getWidth(), image.getHeight(), origW, origH, sprite.boxWidth, sprite.boxHeight);
+        Rectangle dirty = sprite.bounds(p.x, p.y).intersection(new Rectangle(image.getWidth(), image.getHeight()));
+        if (dirty.isEmpty()) return dirty;
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setClip(dirty);
+            sprite.draw(g2d, p.x, p.y);
+        } finally {
+            g2d.dispose();
+        }
+        return dirty;
+    }
+
+    /**
+     * 水印可以直接合成的图像原样返回；灰度、索引色等无法表示彩色水印的类型才整幅转换为 RGB(A)。
+     */
+    static BufferedImage drawable(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_ARGB_PRE:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+                return image;
+            default:
+                int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+                BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+                Graphics2D g = copy.createGraphics();
+                g.drawImage(image, 0, 0, null);
+                g.dispose();
+                return copy;
+        }
+    }
+
+    /**
+     * 计算水印包围盒（未旋转）的左上角。九宫格位置保留 {@link #PADDING} 边距；
+     * CUSTOM 坐标按缩放比例换算后夹紧在图像内部。
+     */
+    Point place(int W, int H, int origW, int origH, int w, int h) {
+        if (spec.isCustomPosition()) {
+            double fx = (double) W / origW;
+            double fy = (double) H / origH;
+            int x = (int) Math.round(spec.customX * fx);
+            int y = (int) Math.round(spec.customY * fy);
+            x = Math.max(0, Math.min(x, W - w));
+            y = Math.max(0, Math.min(y, H - h));
+            return new Point(x, y);
+        }
+        int x = 0, y = 0;
+        switch (spec.gridPosition()) {
+            case TOP_LEFT:      x = PADDING;              y = PADDING; break;
+            case TOP_CENTER:    x = (W - w) / 2;          y = PADDING; break;
+            case TOP_RIGHT:     x = W - w - PADDING;      y = PADDING; break;
+            case MIDDLE_LEFT:   x = PADDING;              y = (H - h) / 2; break;
+            case CENTER:        x = (W - w) / 2;          y = (H - h) / 2; break;
+            case MIDDLE_RIGHT:  x = W - w - PADDING;      y = (H - h) / 2; break;
+            case BOTTOM_LEFT:   x = PADDING;              y = H - h - PADDING; break;
+            case BOTTOM_CENTER: x = (W - w) / 2;          y = H - h - PADDING; break;
+            case BOTTOM_RIGHT:  x = W - w - PADDING;      y = H - h - PADDING; break;
+        }
+        return new Point(x, y);
+    }
+
+    /** JPEG 不支持透明通道：有 alpha 时铺白底，其余情况原样返回 */
+    BufferedImage forOutput(BufferedImage image) {
+        if ("PNG".equals(spec.outputFormat) || !image.getColorModel().hasAlpha()) return image;
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        g.drawImage(image, 0, 0, Color.WHITE, null);
+        g.dispose();
+        return rgb;
+    }
+
+    /**
+     * 编码已经过 {@link #forOutput(BufferedImage)} 处理的图像（分条导出时为按需取条带的 RenderedImage）。
+     * 先写到同目录的临时文件（{@link #createPartFile(File)}），完整写完后再原子替换到目标位置，
+     * 中途崩溃不会留下写了一半的输出文件。
+     */
+    @SuppressWarnings("try")
+    void encode(RenderedImage image, File out) throws IOException {
+        File part = createPartFile(out);
+        boolean written = false;
+        try {
+            try (FileImageOutputStream output = new TimedOutputStream(part)) {
+                encode(image, output, out);
+            }
+            try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.WRITE)) {
+                ExportProfile.addBytesOut(part.length());
+                try {
+                    Files.move(part.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    // 回退为普通替换
+                    Files.move(part.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            written = true;
+        } finally {
+            if (!written) Files.deleteIfExists(part.toPath());
+        }
+    }
+
+    /** 同 {@link #encode(RenderedImage, File)}，直接编码到输出流 */
+    void encode(RenderedImage image, OutputStream out) throws IOException {
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+            encode(image, output, null);
+        }
+    }
+
+    // 编码器来自 CodecRegistry 的线程内复用实例，JPEG 参数在编译计划时已构建好；target 仅用于 JFR 事件，可为 null
+    @SuppressWarnings("try")
+    private void encode(RenderedImage image, ImageOutputStream output, File target) throws IOException {
+        ImageWriter writer = CodecRegistry.writer(spec.outputFormat);
+        WatermarkEvents.Encode event = new WatermarkEvents.Encode();
+        event.begin();
+        try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.ENCODE)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), writeParam);
+        } finally {
+            CodecRegistry.release(writer);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = target != null ? target.getPath() : null;
+            event.format = spec.outputFormat;
+            event.quality = writeParam != null ? spec.jpegQuality : 0;
+            event.width = image.getWidth();
+            event.height = image.getHeight();
+            event.bytes = output.getStreamPosition();
+            event.commit();
+        }
+    }
+
+    /** 编码器对文件的写入计为写出阶段，与编码本身的耗时分开统计 */
+    @SuppressWarnings("try")
+    private static final class TimedOutputStream extends FileImageOutputStream {
+        TimedOutputStream(File f) throws IOException {
+            super(f);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.WRITE)) {
+                super.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.WRITE)) {
+                super.close();
+            }
+        }
+    }
+
+    /**
+     * 创建输出文件写入过程中使用的临时文件（同目录、隐藏）。文件名带随机部分并以 createFile 原子创建，
+     * 同时写同一目标的两个任务不会共用临时文件；权限按默认 umask，与直接创建的输出文件相同。
+     */
+    static File createPartFile(File out) throws IOException {
+        while (true) {
+            File part = new File(out.getParentFile(), "." + out.getName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 16) + ".part");
+            try {
+                Files.createFile(part.toPath());
+                return part;
+            } catch (FileAlreadyExistsException e) {
+                // 极少数情况下随机名重复，换一个
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 超大图片（解码后超过 {@link #STREAM_PIXELS}）的分条流式 PNG 导出。
+ * 图像按整行条带解码，只在与水印相交的条带上合成，本身作为按需取条带的 {@link RenderedImage} 交给编码器，
+ * 内存中只有少数几条，峰值由条带大小决定。TIFF 等可定位格式用 setSourceRegion 逐条读取；
+ * 基线 JPEG、非隔行 PNG 由后台线程单遍逐行解码（{@link ImageDecoder.Source#readRows}），攒满一条交给编码线程；
+ * 其余顺序格式退回按区域读取，每条都要从头解码，条带相应放大。
+ * PNG 编码器逐行 getData 拉取像素，可以真正流式写出；JDK 自带的 JPEG 编码器会先把整幅拼成一块栅格，
+ * 所以 JPEG 输出不分条，按整幅解码准入。
+ */
+final class StripedExport implements RenderedImage {
+    /** 解码后超过该像素数的图片走分条导出，可用 -Dphotowatermark.streamPixels 调整 */
+    static final long STREAM_PIXELS = Long.getLong("photowatermark.streamPixels", 64_000_000L);
+    /** TIFF 等可按区域定位的格式每条的像素数 */
+    private static final long STRIP_PIXELS = 4_000_000L;
+
+    private final RenderPlan plan;
+    private final ImageDecoder.Source source;
+    private final RowStream rows; // 单遍逐行解码，按区域读取时为 null
+    private final int subsampling;
+    private final int width;
+    private final int height;
+    private final int stripRows;
+    private final WatermarkSprite sprite;
+    private final Point spritePos;
+    private final Rectangle dirty;
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+
+    // 编码器按行顺序拉取，缓存当前条带即可
+    private int cachedStrip = -1;
+    private Raster cached;
+
+    StripedExport(RenderPlan plan, ImageDecoder.Source source, int subsampling, String text) throws IOException {
+        this.plan = plan;
+        this.source = source;
+        this.subsampling = subsampling;
+        this.width = ImageDecoder.subsampled(source.width, subsampling);
+        this.height = ImageDecoder.subsampled(source.height, subsampling);
+        boolean streamed = !source.seekableRegions() && source.streamsRows();
+        // 按区域读取的顺序格式每读一条都要从头解码，条带放大到预算的 1/4，把重复解码控制在几次以内
+        long stripPixels = source.seekableRegions() || streamed ? STRIP_PIXELS : Math.max(STRIP_PIXELS, STREAM_PIXELS / 4);
+        this.stripRows = (int) Math.max(1, Math.min(height, stripPixels / width));
+
+        this.sprite = plan.sprite(text);
+        this.spritePos = plan.place(width, height, source.width, source.height, sprite.boxWidth, sprite.boxHeight);
+        this.dirty = sprite.bounds(spritePos.x, spritePos.y).intersection(new Rectangle(width, height));
+
+        this.rows = streamed ? new RowStream(source, subsampling, width, height, stripRows) : null;
+        BufferedImage first;
+        try {
+            first = loadStrip(0);
+        } catch (IOException | RuntimeException e) {
+            if (rows != null) rows.close();
+            throw e;
+        }
+        this.colorModel = first.getColorModel();
+        this.sampleModel = first.getSampleModel().createCompatibleSampleModel(width, stripRows);
+        this.cached = first.getRaster();
+        this.cachedStrip = 0;
+    }
+
+    /** PNG 输出、解码后仍超过像素预算、且无需再缩放（输出尺寸恰为降采样结果）时走分条导出 */
+    static boolean applies(RenderPlan plan, ImageDecoder.Source source, int subsampling) {
+        int w = ImageDecoder.subsampled(source.width, subsampling);
+        int h = ImageDecoder.subsampled(source.height, subsampling);
+        if ((long) w * h <= STREAM_PIXELS || !streamsOutput(plan)) return false;
+        return plan.targetSize(source.width, source.height).equals(new Dimension(w, h));
+    }
+
+    /** 只有 PNG 编码器逐行拉取像素，JPEG 输出分条也省不下整幅栅格 */
+    static boolean streamsOutput(RenderPlan plan) {
+        return "PNG".equals(plan.spec.outputFormat);
+    }
+
+    /**
+     * 分条导出的内存估算：按区域读取时为最大的条带及其转换副本；
+     * 逐行解码的条带只有前者的 1/4，解码中、排队、编码中与转换副本四份合计不超过该值。
+     */
+    static long estimateBytes() {
+        return Math.max(STRIP_PIXELS, STREAM_PIXELS / 4) * RenderPlan.BYTES_PER_PIXEL * 2;
+    }
+
+    void write(RenderPlan.Sink sink) throws IOException {
+        try {
+            sink.accept(this);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            if (rows != null) rows.close();
+        }
+    }
+
+    @SuppressWarnings("try")
+    private BufferedImage loadStrip(int index) throws IOException {
+        int y0 = index * stripRows;
+        int rows = Math.min(stripRows, height - y0);
+        BufferedImage strip;
+        if (this.rows != null) {
+            strip = this.rows.take(index);
+        } else {
+            Rectangle region = new Rectangle(0, y0 * subsampling, source.width,
+                    Math.min(source.height - y0 * subsampling, rows * subsampling));
+            strip = source.read(region, subsampling);
+        }
+        WatermarkEvents.Composite event = new WatermarkEvents.Composite();
+        event.begin();
+        Rectangle clip = dirty.intersection(new Rectangle(0, y0, width, rows));
+        try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.RENDER)) {
+            strip = RenderPlan.drawable(strip);
+            if (!clip.isEmpty()) {
+                Graphics2D g = strip.createGraphics();
+                try {
+                    g.translate(0, -y0);
+                    g.setClip(clip);
+                    sprite.draw(g, spritePos.x, spritePos.y);
+                } finally {
+                    g.dispose();
+                }
+            }
+            strip = plan.forOutput(strip);
+        }
+        event.end();
+        // 每个条带一个事件；不与水印相交的条带只做了类型转换，合成区域为 0
+        if (event.shouldCommit()) {
+            event.path = source.file.getPath();
+            event.mode = plan.spec.textMode ? "TEXT" : "IMAGE";
+            event.width = width;
+            event.height = rows;
+            event.dirtyWidth = clip.isEmpty() ? 0 : clip.width;
+            event.dirtyHeight = clip.isEmpty() ? 0 : clip.height;
+            event.commit();
+        }
+        return strip;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        if (tileY != cachedStrip) {
+            try {
+                cached = loadStrip(tileY).getRaster();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            cachedStrip = tileY;
+        }
+        return cached.createTranslatedChild(0, tileY * stripRows);
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        WritableRaster dst = Raster.createWritableRaster(
+                sampleModel.createCompatibleSampleModel(rect.width, rect.height), new Point(rect.x, rect.y));
+        return copyData(dst);
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(width, height));
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) raster = colorModel.createCompatibleWritableRaster(width, height);
+        Rectangle r = raster.getBounds().intersection(new Rectangle(width, height));
+        if (r.isEmpty()) return raster;
+        int first = r.y / stripRows;
+        int last = (r.y + r.height - 1) / stripRows;
+        for (int ty = first; ty <= last; ty++) {
+            Raster tile = getTile(0, ty);
+            Rectangle part = tile.getBounds().intersection(r);
+            // 先裁成与目标重叠的子栅格再拷贝，不依赖 setRect 对部分重叠的处理
+            raster.setDataElements(0, 0, tile.createChild(part.x, part.y, part.width, part.height, part.x, part.y, null));
+        }
+        return raster;
+    }
+
+    /**
+     * 顺序格式的单遍解码：后台线程逐行解码并攒成条带，经容量为 1 的队列按顺序交给编码线程。
+     * 编码线程等待条带的时间计入解码阶段；关闭时中止解码并等后台线程退出，之后才能关闭图片。
+     */
+    private static final class RowStream implements ImageDecoder.RowSink {
+        private static final Object END = new Object();
+
+        private final BlockingQueue<Object> strips = new ArrayBlockingQueue<>(1);
+        private final int width;
+        private final int height;
+        private final int stripRows;
+        private final Thread thread;
+        private volatile boolean closed;
+        private BufferedImage filling; // 只由解码线程访问
+        private int next;              // 编码线程下一条要取的条带
+
+        RowStream(ImageDecoder.Source source, int subsampling, int width, int height, int stripRows) {
+            this.width = width;
+            this.height = height;
+            this.stripRows = stripRows;
+            this.thread = new Thread(() -> decode(source, subsampling), "striped-decode");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void decode(ImageDecoder.Source source, int subsampling) {
+            Object result = END;
+            try {
+                source.readRows(subsampling, this);
+            } catch (Throwable t) {
+                result = t;
+            }
+            if (!closed) put(result);
+        }
+
+        @Override
+        public boolean accept(int y, BufferedImage row) {
+            if (closed) return false;
+            int r = y % stripRows;
+            if (r == 0) {
+                filling = new BufferedImage(row.getColorModel(),
+                        row.getRaster().createCompatibleWritableRaster(width, Math.min(stripRows, height - y)),
+                        row.isAlphaPremultiplied(), null);
+            }
+            copyRow(row.getRaster(), filling.getRaster(), r);
+            return r < filling.getHeight() - 1 || put(filling);
+        }
+
+        // 条带与行缓冲布局相同（前者由后者 createCompatibleWritableRaster 得到）；按像素交错的字节栅格整行 arraycopy
+        private static void copyRow(Raster row, WritableRaster strip, int y) {
+            if (row.getDataBuffer() instanceof DataBufferByte && strip.getDataBuffer() instanceof DataBufferByte
+                    && strip.getSampleModel() instanceof PixelInterleavedSampleModel) {
+                PixelInterleavedSampleModel model = (PixelInterleavedSampleModel) strip.getSampleModel();
+                System.arraycopy(((DataBufferByte) row.getDataBuffer()).getData(), 0,
+                        ((DataBufferByte) strip.getDataBuffer()).getData(), y * model.getScanlineStride(),
+                        row.getWidth() * model.getPixelStride());
+            } else {
+                strip.setDataElements(0, y, row);
+            }
+        }
+
+        private boolean put(Object item) {
+            try {
+                strips.put(item);
+                return true;
+            } catch (InterruptedException e) {
+                return false; // 由 close 打断
+            }
+        }
+
+        @SuppressWarnings("try")
+        BufferedImage take(int index) throws IOException {
+            if (index != next) throw new IOException("逐行解码的条带只能按顺序读取");
+            Object item;
+            try (ExportProfile.Span ignored = ExportProfile.stage(ExportProfile.Stage.DECODE)) {
+                item = strips.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("导出被中断");
+            }
+            next++;
+            if (item instanceof BufferedImage) return (BufferedImage) item;
+            if (item instanceof IOException) throw (IOException) item;
+            if (item instanceof RuntimeException) throw (RuntimeException) item;
+            if (item instanceof Error) throw (Error) item;
+            throw new IOException("图片数据不完整");
+        }
+
+        void close() {
+            closed = true;
+            thread.interrupt();
+            strips.clear();
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override public Vector<RenderedImage> getSources() { return null; }
+    @Override public Object getProperty(String name) { return Image.UndefinedProperty; }
+    @Override public String[] getPropertyNames() { return null; }
+    @Override public ColorModel getColorModel() { return colorModel; }
+    @Override public SampleModel getSampleModel() { return sampleModel; }
+    @Override public int getWidth() { return width; }
+    @Override public int getHeight() { return height; }
+    @Override public int getMinX() { return 0; }
+    @Override public int getMinY() { return 0; }
+    @Override public int getNumXTiles() { return 1; }
+    @Override public int getNumYTiles() { return (height + stripRows - 1) / stripRows; }
+    @Override public int getMinTileX() { return 0; }
+    @Override public int getMinTileY() { return 0; }
+    @Override public int getTileWidth() { return width; }
+    @Override public int getTileHeight() { return stripRows; }
+    @Override public int getTileGridXOffset() { return 0; }
+    @Override public int getTileGridYOffset() { return 0; }
+}
@@ -38,12 +38,15 @@ public class TemplateManager {
     public static List<WatermarkTemplate> loadTemplates() {
         File f = getTemplatesFile();
         if (!f.exists()) return new ArrayList<>();
+        WatermarkEvents.SettingsIO event = WatermarkEvents.settings();
         try (Reader r = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)) {
             TemplateStore store = GSON.fromJson(r, TemplateStore.class);
-            if (store == null || store.templates == null) return new ArrayList<>();
-            // 过滤 schemaVersion 不兼容但暂时仍加载
-            return new ArrayList<>(store.templates);
+            List<WatermarkTemplate> templates = store == null || store.templates == null
+                    ? new ArrayList<>() : new ArrayList<>(store.templates); // 过滤 schemaVersion 不兼容但暂时仍加载
+            WatermarkEvents.commit(event, f, "load", templates.size(), true);
+            return templates;
         } catch (IOException | JsonSyntaxException e) {
+            WatermarkEvents.commit(event, f, "load", 0, false);
             // 备份损坏文件
             try {
                 File bak = new File(f.getParentFile(), f.getName() + ".corrupt-" + System.currentTimeMillis());
@@ -53,7 +56,35 @@ public class TemplateManager {
         }
     }
 
+    /** 读取单个模板的 JSON 文件（如从模板库中导出的一项），格式错误时抛出 IOException */
+    public static WatermarkTemplate readTemplateFile(File f) throws IOException {
+        WatermarkEvents.SettingsIO event = WatermarkEvents.settings();
+        boolean ok = false;
+        try (Reader r = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)) {
+            WatermarkTemplate t = GSON.fromJson(r, WatermarkTemplate.class);
+            if (t == null) throw new IOException("模板文件为空: " + f);
+            ok = true;
+            return t;
+        } catch (JsonSyntaxException e) {
+            throw new IOException("模板文件格式错误: " + f + " (" + e.getMessage() + ")", e);
+        } finally {
+            WatermarkEvents.commit(event, f, "load", ok ? 1 : 0, ok);
+        }
+    }
+
+    /** 深拷贝一个模板（修改副本不影响原模板） */
+    public static WatermarkTemplate copyOf(WatermarkTemplate t) {
+        return GSON.fromJson(GSON.toJsonTree(t), WatermarkTemplate.class);
+    }
+
     public static boolean saveTemplates(List<WatermarkTemplate> templates) {
+        WatermarkEvents.SettingsIO event = WatermarkEvents.settings();
+        boolean ok = writeTemplates(templates);
+        WatermarkEvents.commit(event, getTemplatesFile(), "save", templates.size(), ok);
+        return ok;
+    }
+
+    private static boolean writeTemplates(List<WatermarkTemplate> templates) {
         File f = getTemplatesFile();
         TemplateStore store = new TemplateStore();
         store.schemaVersion = SCHEMA_VERSION;
@@ -103,6 +134,7 @@ class WatermarkTemplate {
     int targetWidth; // 目标宽, 0 保持
     int targetHeight; // 目标高, 0 保持
     int scalePercent; // 缩放百分比 10-200 (100 为原始)
+    String resampleMode; // 缩放算法: FAST / AREA / LANCZOS，为空时按 AREA
 
     // 导出命名/输出
     String namingRule;
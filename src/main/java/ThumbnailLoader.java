@@ -0,0 +1,218 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.swing.ImageIcon;
+
+/**
+ * 列表缩略图的后台生成：在小线程池上执行，空闲线程优先取当前可见行的任务，其余按提交顺序。
+ * 任务以列表项为键登记，可见行变化时调用 {@link #prioritize(Collection)}；生成本身（含内嵌缩略图的取用顺序）见 {@link #render(File, int, int)}。
+ */
+final class ThumbnailLoader<K> {
+    /** 缩略图的来源，按开销从小到大 */
+    enum Source { EXIF, EMBEDDED, SUBSAMPLED, FULL, TOOLKIT }
+
+    private static final AtomicLongArray SERVED = new AtomicLongArray(Source.values().length);
+
+    private final ExecutorService pool;
+    private final Map<K, Runnable> pending = new LinkedHashMap<>(); // 按提交顺序，受自身锁保护
+    private volatile Set<K> visible = Collections.emptySet();
+
+    ThumbnailLoader(int threads) {
+        int n = Math.max(1, threads);
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(n, n, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "thumbnail-loader-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            // 与导出线程相同，略低于 EDT
+            t.setPriority(Math.max(Thread.MIN_PRIORITY, Thread.NORM_PRIORITY - 1));
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.pool = executor;
+    }
+
+    /** 默认线程数：留出核心给界面与预览，最多 4 个（缩略图解码主要受磁盘限制） */
+    static int defaultThreads() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /** 登记 key 的生成任务；同一 key 重复提交时以最后一次为准 */
+    void submit(K key, Runnable task) {
+        synchronized (pending) {
+            pending.put(key, task);
+        }
+        // 线程池中的每个占位任务只负责“取下一个最该做的”，而不是固定执行某一项
+        pool.execute(this::runNext);
+    }
+
+    /** 设置当前可见的列表项（自上而下），它们的任务将先于其余任务执行 */
+    void prioritize(Collection<K> keys) {
+        visible = keys.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(new LinkedHashSet<>(keys));
+    }
+
+    private void runNext() {
+        Runnable task;
+        synchronized (pending) {
+            task = null;
+            for (K key : visible) {
+                task = pending.remove(key);
+                if (task != null) break;
+            }
+            if (task == null) {
+                Iterator<Runnable> it = pending.values().iterator();
+                if (!it.hasNext()) return;
+                task = it.next();
+                it.remove();
+            }
+        }
+        task.run();
+    }
+
+    /** 进程启动以来由 source 生成的缩略图数 */
+    static long served(Source source) {
+        return SERVED.get(source.ordinal());
+    }
+
+    /** 直接采用内嵌缩略图（EXIF IFD1 或解码器读到的）的次数 */
+    static long hits() {
+        return served(Source.EXIF) + served(Source.EMBEDDED);
+    }
+
+    /** 需要解码原图像素（降采样、完整解码或 AWT 工具包）的次数 */
+    static long misses() {
+        return served(Source.SUBSAMPLED) + served(Source.FULL) + served(Source.TOOLKIT);
+    }
+
+    private static BufferedImage served(Source source, BufferedImage image) {
+        SERVED.incrementAndGet(source.ordinal());
+        return image;
+    }
+
+    /**
+     * 生成不超过 maxW x maxH、保持比例的缩略图（在后台线程调用），按开销从小到大依次尝试：
+     * EXIF IFD1 中的 JPEG 缩略图（几 KB 的 I/O）→ 解码器读到的内嵌缩略图 → 降采样解码 → 完整解码，
+     * 最后用面积平均缩小；ImageIO 读不了的格式退回 AWT 工具包。无法读取时抛出 IOException。
+     * 内嵌缩略图分辨率不足或画幅与原图不一致（加了黑边）时不采用。
+     */
+    static BufferedImage render(File file, int maxW, int maxH) throws IOException {
+        BufferedImage image;
+        try {
+            image = exifThumbnail(file, maxW, maxH);
+            image = image != null ? served(Source.EXIF, image) : decode(file, maxW, maxH);
+        } catch (IOException | RuntimeException e) {
+            image = served(Source.TOOLKIT, viaToolkit(file));
+        }
+        return scaleToFit(image, maxW, maxH);
+    }
+
+    // 只探测文件头，失败时交给后续步骤
+    private static BufferedImage exifThumbnail(File file, int maxW, int maxH) {
+        try {
+            ExifProbe probe = ExifProbe.probeWithThumbnail(file);
+            if (probe == null || probe.thumbnail == null) return null;
+            try (InputBuffer buffer = InputBuffer.wrap(file.getName() + ".thumb.jpg", probe.thumbnail);
+                 ImageDecoder.Source src = ImageDecoder.open(buffer)) {
+                BufferedImage thumb = src.decode(1).image;
+                return usable(thumb, probe.width, probe.height, maxW, maxH) ? thumb : null;
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static BufferedImage decode(File file, int maxW, int maxH) throws IOException {
+        try (ImageDecoder.Source src = ImageDecoder.open(file)) {
+            Dimension fit = fit(src.width, src.height, maxW, maxH);
+            try {
+                BufferedImage thumb = src.thumbnail(fit.width, fit.height);
+                if (thumb != null && usable(thumb, src.width, src.height, maxW, maxH)) return served(Source.EMBEDDED, thumb);
+            } catch (IOException | RuntimeException ignore) {
+                // 内嵌缩略图损坏不影响解码原图
+            }
+            // 保留两倍余量，隔点取样后再平均，避免细节处的锯齿
+            int sub = ImageDecoder.subsampling(src.width, src.height, fit.width * 2, fit.height * 2);
+            if (sub > 1) {
+                try {
+                    return served(Source.SUBSAMPLED, src.decode(sub).image);
+                } catch (IOException | RuntimeException ignore) {
+                    // 个别解码器不支持隔点取样，改为完整解码
+                }
+            }
+            return served(Source.FULL, src.decode(1).image);
+        }
+    }
+
+    /** 内嵌缩略图至少要覆盖目标尺寸，且宽高比与原图相差不超过 2%；原图尺寸未知时只看大小 */
+    private static boolean usable(BufferedImage thumb, int srcW, int srcH, int maxW, int maxH) {
+        int w = thumb.getWidth();
+        int h = thumb.getHeight();
+        if (w <= 0 || h <= 0) return false;
+        if (srcW <= 0 || srcH <= 0) return w >= maxW || h >= maxH;
+        Dimension fit = fit(srcW, srcH, maxW, maxH);
+        if (w < fit.width || h < fit.height) return false;
+        double aspect = (double) srcW / srcH;
+        return Math.abs((double) w / h - aspect) <= aspect * 0.02;
+    }
+
+    /** 按比例缩入 maxW x maxH 后的尺寸（不放大） */
+    private static Dimension fit(int w, int h, int maxW, int maxH) {
+        double scale = Math.min(1.0, Math.min((double) maxW / w, (double) maxH / h));
+        return new Dimension(Math.max(1, (int) Math.round(w * scale)), Math.max(1, (int) Math.round(h * scale)));
+    }
+
+    static BufferedImage scaleToFit(BufferedImage image, int maxW, int maxH) throws IOException {
+        int ow = image.getWidth();
+        int oh = image.getHeight();
+        if (ow <= 0 || oh <= 0) throw new IOException("尺寸异常: " + ow + "x" + oh);
+        Dimension fit = fit(ow, oh, maxW, maxH);
+        return Resampler.AREA.resize(image, fit.width, fit.height);
+    }
+
+    private static BufferedImage viaToolkit(File file) throws IOException {
+        ImageIcon icon = new ImageIcon(file.getAbsolutePath());
+        if (icon.getIconWidth() <= 0 || icon.getIconHeight() <= 0) throw new IOException("无法读取: " + file.getName());
+        BufferedImage raw = new BufferedImage(icon.getIconWidth(), icon.getIconHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = raw.createGraphics();
+        icon.paintIcon(null, g, 0, 0);
+        g.dispose();
+        return raw;
+    }
+
+    /** 缩略图生成前显示的占位图标：浅灰底上的简笔“山与太阳” */
+    static ImageIcon placeholder(int w, int h) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        int pad = Math.max(2, w / 10);
+        int bw = w - 2 * pad;
+        int bh = h * 3 / 4 - pad;
+        int top = (h - bh) / 2;
+        g.setColor(new Color(236, 236, 236));
+        g.fillRoundRect(pad, top, bw, bh, 8, 8);
+        g.setColor(new Color(200, 200, 200));
+        g.fillOval(pad + bw * 3 / 5, top + bh / 6, bw / 6, bw / 6);
+        g.fillPolygon(new int[] {pad + bw / 8, pad + bw * 3 / 8, pad + bw * 5 / 8},
+                new int[] {top + bh * 5 / 6, top + bh * 2 / 5, top + bh * 5 / 6}, 3);
+        g.fillPolygon(new int[] {pad + bw * 2 / 5, pad + bw * 5 / 8, pad + bw * 7 / 8},
+                new int[] {top + bh * 5 / 6, top + bh / 2, top + bh * 5 / 6}, 3);
+        g.dispose();
+        return new ImageIcon(img, "加载中");
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监视文件夹（热文件夹）模式：用 {@link WatchService} 监视若干文件夹，新图片的大小与修改时间
+ * 稳定 {@link #SETTLE_MILLIS} 毫秒后（确认已拷贝完）交给导出线程；导出线程把这段时间内到齐的文件
+ * 合成一个小批次，在与 GUI 相同的并行导出引擎上处理。
+ * 导出始终使用增量清单：启动时把文件夹中已有的图片补做一遍，上次已导出且未变化的直接跳过，
+ * 因此进程被中断后重新启动即可接着处理。没有新文件时两个线程都阻塞等待，不占 CPU。
+ */
+final class WatchFolderDaemon implements Closeable {
+    /** 文件大小与修改时间保持不变多久才视为写完 */
+    static final long SETTLE_MILLIS = 200;
+    /** 有待定文件时检查其大小的间隔 */
+    private static final long TICK_MILLIS = 50;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final Arrival STOP = new Arrival(null, 0);
+
+    private final RenderPlan plan;
+    private final List<Path> folders;
+    private final File outputDir;
+    private final ExportService service;
+    private final ExportManifest manifest;
+    private final WatchService watcher;
+    private final Map<Path, Candidate> pending = new HashMap<>(); // 仅监视线程访问
+    private final BlockingQueue<Arrival> ready = new LinkedBlockingQueue<>();
+    private final Thread exporter;
+    private volatile boolean closed;
+
+    /** 已出现、尚未确认写完的文件 */
+    private static final class Candidate {
+        final long firstSeenNanos;
+        long size = -1;
+        long lastModified = -1;
+        long stableSinceNanos;
+
+        Candidate(long firstSeenNanos) {
+            this.firstSeenNanos = firstSeenNanos;
+        }
+    }
+
+    /** 已写完、等待导出的文件 */
+    private static final class Arrival {
+        final File file;
+        final long firstSeenNanos;
+
+        Arrival(File file, long firstSeenNanos) {
+            this.file = file; this.firstSeenNanos = firstSeenNanos;
+        }
+    }
+
+    WatchFolderDaemon(RenderPlan plan, List<File> folders, File outputDir, int workers) throws IOException {
+        this.plan = plan;
+        this.outputDir = outputDir;
+        this.folders = new ArrayList<>();
+        for (File f : folders) this.folders.add(f.getCanonicalFile().toPath());
+        this.service = new ExportService(workers);
+        this.manifest = ExportManifest.load(outputDir);
+        this.watcher = FileSystems.getDefault().newWatchService();
+        this.exporter = new Thread(this::exportLoop, "watch-exporter");
+    }
+
+    /** 注册监视并处理已有文件，然后阻塞到 {@link #close()} 被调用 */
+    void run() throws IOException {
+        for (Path dir : folders) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        exporter.start();
+        for (Path dir : folders) sweep(dir);
+        try {
+            while (!closed) {
+                // 没有待定文件时一直阻塞；有则按固定间隔复查大小
+                WatchKey key = pending.isEmpty() ? watcher.take() : watcher.poll(TICK_MILLIS, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handle(key);
+                    key = watcher.poll();
+                }
+                checkPending();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // close() 关闭了监视服务
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                sweep(dir); // 事件丢失时重新扫描整个文件夹
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (PhotoWatermarkApp.isImageFileName(path.getFileName().toString())) note(path);
+        }
+        if (!key.reset()) {
+            System.err.println("停止监视（文件夹已不可访问）: " + dir);
+        }
+    }
+
+    private void sweep(Path dir) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir,
+                p -> PhotoWatermarkApp.isImageFileName(p.getFileName().toString()))) {
+            for (Path p : stream) note(p);
+        } catch (IOException e) {
+            System.err.println("无法读取文件夹 " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private void note(Path path) {
+        pending.computeIfAbsent(path, p -> new Candidate(System.nanoTime()));
+    }
+
+    // 大小与修改时间连续 SETTLE_MILLIS 不变（且非空）才放行；文件消失则放弃
+    private void checkPending() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<Path, Candidate>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Path, Candidate> e = it.next();
+            Candidate c = e.getValue();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(e.getKey(), BasicFileAttributes.class);
+            } catch (IOException ex) {
+                it.remove();
+                continue;
+            }
+            if (!attrs.isRegularFile()) {
+                it.remove();
+                continue;
+            }
+            long size = attrs.size();
+            long modified = attrs.lastModifiedTime().toMillis();
+            if (size != c.size || modified != c.lastModified || size == 0) {
+                c.size = size;
+                c.lastModified = modified;
+                c.stableSinceNanos = now;
+            } else if (now - c.stableSinceNanos >= TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS)) {
+                it.remove();
+                ready.add(new Arrival(e.getKey().toFile(), c.firstSeenNanos));
+            }
+        }
+    }
+
+    // 等到第一个文件就绪后，取走此刻已就绪的全部文件作为一个批次
+    private void exportLoop() {
+        try {
+            while (true) {
+                List<Arrival> batch = new ArrayList<>();
+                batch.add(ready.take());
+                ready.drainTo(batch);
+                int stop = batch.indexOf(STOP);
+                if (stop >= 0) batch = batch.subList(0, stop);
+                if (!batch.isEmpty()) exportBatch(batch);
+                if (stop >= 0) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void exportBatch(List<Arrival> batch) throws InterruptedException {
+        Map<File, Arrival> unique = new LinkedHashMap<>();
+        for (Arrival a : batch) unique.putIfAbsent(a.file, a);
+        long oldest = Long.MAX_VALUE;
+        for (Arrival a : unique.values()) oldest = Math.min(oldest, a.firstSeenNanos);
+        List<ExportService.Job> jobs = plan.jobs(new ArrayList<>(unique.keySet()), outputDir, null, manifest, null);
+        ExportService.Summary s = service.run(jobs, (job, error, p) -> {
+            if (error != null) {
+                System.err.println("失败: " + job.source().getPath() + ": "
+                        + (error.getMessage() != null ? error.getMessage() : error.toString()));
+            }
+        });
+        manifest.save();
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+        StringBuilder line = new StringBuilder(String.format("[%s] 处理 %d 张：生成 %d", LocalTime.now().format(TIME_FORMAT),
+                s.total, s.succeeded));
+        if (s.unchanged > 0) line.append("，未变化跳过 ").append(s.unchanged);
+        if (s.failed > 0) line.append("，失败 ").append(s.failed);
+        line.append(String.format("，导出 %d ms，发现到完成 %d ms", s.elapsedMillis, latency));
+        System.out.println(line);
+    }
+
+    /** 停止监视；正在导出的批次与已就绪的文件处理完后返回 */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            watcher.close();
+        } catch (IOException ignore) {
+            // 仅用于唤醒监视线程
+        }
+        if (exporter.isAlive()) {
+            ready.add(STOP);
+            try {
+                exporter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        service.shutdown();
+    }
+}
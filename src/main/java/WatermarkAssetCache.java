@@ -0,0 +1,127 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片水印资源缓存：同一水印图片在同样的缩放/旋转/透明度下只解码与重采样一次，
+ * 结果（预乘 ARGB 精灵）在所有导出线程与预览之间共享。
+ * 键包含文件的路径、修改时间与大小，文件被替换后会自动重新加载。
+ */
+final class WatermarkAssetCache {
+    private static final int CACHE_SIZE = 8;
+    private static final Map<Key, FutureTask<WatermarkSprite>> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Key, FutureTask<WatermarkSprite>> e) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private WatermarkAssetCache() { }
+
+    /**
+     * 取得缩放、旋转并预乘了透明度的水印精灵。并发请求同一键时只有一个线程真正加载，其余等待结果。
+     */
+    static WatermarkSprite logo(File file, double scale, double rotationDegrees, int opacity) throws IOException {
+        File canonical = file.getCanonicalFile();
+        if (!canonical.isFile()) throw new IOException("水印图片不存在: " + file.getPath());
+        Key key = new Key(canonical.getPath(), canonical.lastModified(), canonical.length(), scale, rotationDegrees, opacity);
+        FutureTask<WatermarkSprite> task;
+        boolean owner = false;
+        synchronized (CACHE) {
+            task = CACHE.get(key);
+            if (task == null) {
+                task = new FutureTask<>(() -> load(canonical, scale, rotationDegrees, opacity));
+                CACHE.put(key, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            MISSES.incrementAndGet();
+            task.run();
+        } else {
+            HITS.incrementAndGet();
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("加载水印图片被中断", e);
+        } catch (ExecutionException e) {
+            // 失败的结果不缓存，下次重新尝试
+            synchronized (CACHE) {
+                CACHE.remove(key, task);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException("加载水印图片失败: " + file.getName(), cause);
+        }
+    }
+
+    static long hits() { return HITS.get(); }
+    static long misses() { return MISSES.get(); }
+
+    static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    private static WatermarkSprite load(File file, double scale, double rotationDegrees, int opacity) throws IOException {
+        BufferedImage watermark = ImageIO.read(file);
+        if (watermark == null) throw new IOException("无法读取水印图片: " + file.getName());
+        int w = Math.max(1, (int) (watermark.getWidth() * scale));
+        int h = Math.max(1, (int) (watermark.getHeight() * scale));
+        // 水印整批只缩放一次，直接用最高质量的算法
+        BufferedImage scaled = Resampler.LANCZOS.resize(watermark, w, h);
+
+        // 旋转与透明度一并烘焙进精灵，逐图只剩一次整数偏移的合成
+        AffineTransform rot = AffineTransform.getRotateInstance(Math.toRadians(rotationDegrees), w / 2.0, h / 2.0);
+        Rectangle b = rot.createTransformedShape(new Rectangle(0, 0, w, h)).getBounds();
+        BufferedImage sprite = new BufferedImage(Math.max(1, b.width), Math.max(1, b.height), BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = sprite.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, Math.max(0, Math.min(100, opacity)) / 100f));
+        g.translate(-b.x, -b.y);
+        g.transform(rot);
+        g.drawImage(scaled, 0, 0, null);
+        g.dispose();
+        return new WatermarkSprite(sprite, w, h, b.x, b.y);
+    }
+
+    private static final class Key {
+        final String path;
+        final long lastModified;
+        final long length;
+        final double scale;
+        final double rotationDegrees;
+        final int opacity;
+
+        Key(String path, long lastModified, long length, double scale, double rotationDegrees, int opacity) {
+            this.path = path; this.lastModified = lastModified; this.length = length;
+            this.scale = scale; this.rotationDegrees = rotationDegrees; this.opacity = opacity;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return lastModified == k.lastModified && length == k.length && opacity == k.opacity
+                    && Double.compare(scale, k.scale) == 0 && Double.compare(rotationDegrees, k.rotationDegrees) == 0
+                    && path.equals(k.path);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(path, lastModified, length, scale, rotationDegrees, opacity);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.File;
+
+/**
+ * Java Flight Recorder 事件：在 JMC 中按图片查看解码、缩放、合成、编码的耗时，
+ * 以及模板/会话文件的读写，并与 GC 停顿等 JVM 事件对照。
+ * 调用方式统一为 begin → 工作 → end → {@code shouldCommit()} 为真时才填字段并 commit，
+ * 未开启录制时只剩一次开关判断，路径等字段也不会计算。
+ */
+final class WatermarkEvents {
+    private WatermarkEvents() { }
+
+    @Name("photowatermark.Decode")
+    @Label("解码图片")
+    @Category({"PhotoWatermark", "Pipeline"})
+    static final class Decode extends Event {
+        @Label("文件") String path;
+        @Label("格式") String format;
+        @Label("原图宽") int sourceWidth;
+        @Label("原图高") int sourceHeight;
+        @Label("解码宽") int width;
+        @Label("解码高") int height;
+        @Label("降采样") @Description("隔点取样步长，1 为完整解码") int subsampling;
+        @Label("区域") @Description("分条导出时解码的原图行范围，整幅解码为空") String region;
+        @Label("输入字节") @DataAmount long bytes;
+    }
+
+    @Name("photowatermark.Resize")
+    @Label("缩放")
+    @Category({"PhotoWatermark", "Pipeline"})
+    static final class Resize extends Event {
+        @Label("文件") String path;
+        @Label("算法") String algorithm;
+        @Label("输入宽") int sourceWidth;
+        @Label("输入高") int sourceHeight;
+        @Label("输出宽") int width;
+        @Label("输出高") int height;
+    }
+
+    @Name("photowatermark.Composite")
+    @Label("合成水印")
+    @Category({"PhotoWatermark", "Pipeline"})
+    static final class Composite extends Event {
+        @Label("文件") String path;
+        @Label("模式") @Description("TEXT 或 IMAGE") String mode;
+        @Label("图像宽") int width;
+        @Label("图像高") int height;
+        @Label("合成区域宽") int dirtyWidth;
+        @Label("合成区域高") int dirtyHeight;
+    }
+
+    @Name("photowatermark.Encode")
+    @Label("编码图片")
+    @Category({"PhotoWatermark", "Pipeline"})
+    static final class Encode extends Event {
+        @Label("输出文件") @Description("HTTP 服务直接写响应时为空") String path;
+        @Label("格式") String format;
+        @Label("JPEG 质量") @Description("PNG 为 0") int quality;
+        @Label("宽") int width;
+        @Label("高") int height;
+        @Label("输出字节") @DataAmount long bytes;
+    }
+
+    @Name("photowatermark.SettingsIO")
+    @Label("模板/会话文件读写")
+    @Category({"PhotoWatermark", "Settings"})
+    static final class SettingsIO extends Event {
+        @Label("文件") String path;
+        @Label("操作") @Description("load 或 save") String operation;
+        @Label("模板数") @Description("模板库中的模板数量，会话文件为 1") int templates;
+        @Label("文件字节") @DataAmount long bytes;
+        @Label("成功") boolean succeeded;
+    }
+
+    /** 开始一次模板/会话文件读写事件 */
+    static SettingsIO settings() {
+        SettingsIO e = new SettingsIO();
+        e.begin();
+        return e;
+    }
+
+    /** 结束并提交读写事件；templates 为读写的模板数，失败时 succeeded 为 false */
+    static void commit(SettingsIO e, File file, String operation, int templates, boolean succeeded) {
+        e.end();
+        if (!e.shouldCommit()) return;
+        e.path = file.getPath();
+        e.operation = operation;
+        e.templates = templates;
+        e.bytes = file.length();
+        e.succeeded = succeeded;
+        e.commit();
+    }
+}
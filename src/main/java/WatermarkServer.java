@@ -0,0 +1,494 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP 水印服务（JDK 内置的 com.sun.net.httpserver），按请求实时生成带水印的图片：
+ * <pre>
+ *   POST /watermark?template=ID或名称      请求体为图片字节
+ *   GET  /watermark?path=文件&amp;template=..   读取允许的根目录下的文件
+ *   GET  /health                          运行状态（JSON）
+ * </pre>
+ * 可选参数 format / quality / scale / width / height 覆盖模板中的输出设置；未指定模板时使用启动时的默认模板。
+ * 每个请求由一个虚拟线程（JDK 21+，更早的 JDK 退回普通线程池）负责收发；解码、合成与编码在固定大小的渲染线程池上
+ * 执行，线程内复用的编解码器（{@link CodecRegistry}）得以保留。同时处理的请求数不超过渲染线程数加队列容量，
+ * 名额在读取请求体之前占用，占满时立即返回 429；解码前按文件头估算内存并经 {@link AdmissionController} 准入，
+ * 单张超过整个预算的图片返回 413。响应头 Server-Timing 给出接收、排队、渲染各阶段耗时，便于本地压测。
+ */
+final class WatermarkServer implements Closeable {
+    /** 上传图片的大小上限 */
+    static final int MAX_UPLOAD_BYTES = 64 * 1024 * 1024;
+    private static final int PLAN_CACHE_SIZE = 16;
+
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final ThreadPoolExecutor renderPool;
+    private final int queueCapacity;
+    private final Slots slots; // 渲染线程数 + 队列容量，请求体读入内存之前占用
+    private final AdmissionController admission = AdmissionController.shared();
+    private final WatermarkTemplate defaultTemplate;
+    private final List<Path> roots = new ArrayList<>();
+    // 参数相同的请求复用已编译的计划（字体、水印精灵等只构建一次）
+    private final Map<PlanKey, RenderPlan> plans = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<PlanKey, RenderPlan> eldest) {
+            return size() > PLAN_CACHE_SIZE;
+        }
+    };
+    private volatile Templates templates = new Templates(-1, new ArrayList<>());
+
+    final AtomicLong served = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+
+    /** 带状态码的请求错误 */
+    private static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /** 可缩减的信号量，随渲染线程数调整 */
+    private static final class Slots extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        Slots(int permits) {
+            super(permits);
+        }
+
+        void shrink(int n) {
+            reducePermits(n);
+        }
+    }
+
+    /** 计划缓存的键：参数之外带上水印图片的修改时间与大小，图片被替换后重新编译 */
+    private static final class PlanKey {
+        final WatermarkSpec spec;
+        final long logoModified;
+        final long logoLength;
+
+        PlanKey(WatermarkSpec spec) {
+            this.spec = spec;
+            File logo = spec.textMode || spec.watermarkImagePath == null ? null : new File(spec.watermarkImagePath);
+            this.logoModified = logo == null ? 0 : logo.lastModified();
+            this.logoLength = logo == null ? 0 : logo.length();
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof PlanKey)) return false;
+            PlanKey k = (PlanKey) o;
+            return spec.equals(k.spec) && logoModified == k.logoModified && logoLength == k.logoLength;
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(spec, logoModified, logoLength);
+        }
+    }
+
+    /** 模板库快照，模板文件修改后下次请求时重新加载 */
+    private static final class Templates {
+        final long lastModified;
+        final List<WatermarkTemplate> list;
+
+        Templates(long lastModified, List<WatermarkTemplate> list) {
+            this.lastModified = lastModified; this.list = list;
+        }
+    }
+
+    /** 渲染结果与耗时 */
+    private static final class Rendered {
+        final byte[] bytes;
+        final long queueNanos;
+        final long renderNanos;
+
+        Rendered(byte[] bytes, long queueNanos, long renderNanos) {
+            this.bytes = bytes; this.queueNanos = queueNanos; this.renderNanos = renderNanos;
+        }
+    }
+
+    WatermarkServer(InetSocketAddress address, WatermarkTemplate defaultTemplate, List<File> roots,
+                    int workers, int queueCapacity) throws IOException {
+        this.defaultTemplate = defaultTemplate;
+        for (File root : roots) this.roots.add(root.getCanonicalFile().toPath());
+        this.queueCapacity = queueCapacity;
+        int n = Math.max(1, workers);
+        this.slots = new Slots(n + Math.max(1, queueCapacity));
+        this.renderPool = new ThreadPoolExecutor(n, n, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), new RenderThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.renderPool.allowCoreThreadTimeOut(true);
+        this.requestExecutor = requestExecutor();
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(requestExecutor);
+        server.createContext("/watermark", this::handleWatermark);
+        server.createContext("/health", this::handleHealth);
+        EngineMonitor.track(this);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    int getWorkers() {
+        return renderPool.getMaximumPoolSize();
+    }
+
+    int getQueueDepth() {
+        return renderPool.getQueue().size();
+    }
+
+    int getActiveRenders() {
+        return renderPool.getActiveCount();
+    }
+
+    AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /** 运行中调整渲染线程数（JMX），队列容量不变 */
+    synchronized void setWorkers(int workers) {
+        int n = Math.max(1, workers);
+        int delta = n - renderPool.getMaximumPoolSize();
+        if (delta > 0) slots.release(delta);
+        else if (delta < 0) slots.shrink(-delta);
+        if (n > renderPool.getMaximumPoolSize()) {
+            renderPool.setMaximumPoolSize(n);
+            renderPool.setCorePoolSize(n);
+        } else {
+            renderPool.setCorePoolSize(n);
+            renderPool.setMaximumPoolSize(n);
+        }
+    }
+
+    /** 清空已编译计划的缓存（JMX），下次请求重新编译 */
+    void clearPlans() {
+        synchronized (plans) {
+            plans.clear();
+        }
+    }
+
+    /** 停止接收新请求，等待正在处理的请求最多 1 秒 */
+    @Override
+    public void close() {
+        EngineMonitor.untrack(this);
+        server.stop(1);
+        renderPool.shutdown();
+        requestExecutor.shutdown();
+    }
+
+    // 每个请求一个虚拟线程；运行在 JDK 21 之前的版本时（编译目标为 17）退回按需创建的普通线程
+    private static ExecutorService requestExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger seq = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "http-request-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private void handleWatermark(HttpExchange ex) throws IOException {
+        long start = System.nanoTime();
+        boolean slot = false;
+        long admitted = 0;
+        try {
+            Map<String, String> q = query(ex);
+            RenderPlan plan = plan(q);
+            // 先占名额再读请求体：排不上的请求不必先把最多 64 MB 的上传读进内存
+            if (!slots.tryAcquire()) {
+                rejected.incrementAndGet();
+                ex.getResponseHeaders().set("Retry-After", "1");
+                sendText(ex, 429, "服务繁忙，渲染名额已满（" + (getWorkers() + queueCapacity) + "）");
+                return;
+            }
+            slot = true;
+            boolean upload;
+            byte[] body = null;
+            File file = null;
+            switch (ex.getRequestMethod()) {
+                case "POST":
+                case "PUT":
+                    upload = true;
+                    body = readBody(ex);
+                    break;
+                case "GET":
+                    upload = false;
+                    file = resolvePath(q.get("path"));
+                    break;
+                default:
+                    ex.getResponseHeaders().set("Allow", "GET, POST, PUT");
+                    throw new HttpError(405, "只支持 GET（path 参数）或 POST（上传图片）");
+            }
+            long received = System.nanoTime();
+            String name = q.getOrDefault("name", "upload");
+            admitted = admit(plan, upload ? InputBuffer.wrap(name, body) : null, file);
+            byte[] uploaded = body;
+            File source = file;
+            Future<Rendered> future;
+            try {
+                future = renderPool.submit(() -> {
+                    long begin = System.nanoTime();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(upload ? uploaded.length : 256 * 1024);
+                    try (InputBuffer buffer = upload ? InputBuffer.wrap(name, uploaded) : InputBuffer.open(source)) {
+                        plan.render(buffer, upload, out);
+                    }
+                    return new Rendered(out.toByteArray(), begin - received, System.nanoTime() - begin);
+                });
+            } catch (RejectedExecutionException e) {
+                // 名额不超过线程数加队列容量，只有缩减线程数的瞬间可能走到这里
+                rejected.incrementAndGet();
+                ex.getResponseHeaders().set("Retry-After", "1");
+                sendText(ex, 429, "服务繁忙，渲染队列已满（" + queueCapacity + "）");
+                return;
+            }
+            Rendered r;
+            try {
+                r = future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw new HttpError(422, "无法处理图片: " + (cause.getMessage() != null ? cause.getMessage() : cause));
+                }
+                throw new IOException(cause);
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new HttpError(503, "服务正在停止");
+            }
+            ex.getResponseHeaders().set("Content-Type", "PNG".equals(plan.spec.outputFormat) ? "image/png" : "image/jpeg");
+            ex.getResponseHeaders().set("Server-Timing", String.format(Locale.ROOT,
+                    "receive;dur=%.1f, queue;dur=%.1f, render;dur=%.1f, total;dur=%.1f",
+                    millis(received - start), millis(r.queueNanos), millis(r.renderNanos), millis(System.nanoTime() - start)));
+            ex.sendResponseHeaders(200, r.bytes.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(r.bytes);
+            }
+            served.incrementAndGet();
+            EngineMonitor.imageFinished(false);
+        } catch (HttpError e) {
+            failed.incrementAndGet();
+            EngineMonitor.imageFinished(true);
+            sendText(ex, e.status, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            EngineMonitor.imageFinished(true);
+            sendText(ex, 500, "内部错误: " + e);
+        } finally {
+            if (admitted > 0) admission.release(admitted);
+            if (slot) slots.release();
+            ex.close();
+        }
+    }
+
+    /**
+     * 按文件头估算渲染所需内存并等待准入，返回占用的字节数（由调用方释放）。
+     * upload 非空时估算上传的字节，否则估算 file；单张超过整个预算时拒绝，而不是像批量导出那样单独运行。
+     */
+    private long admit(RenderPlan plan, InputBuffer upload, File file) throws HttpError {
+        long bytes;
+        try {
+            bytes = Math.max(1, upload != null ? plan.estimateBytes(upload) : plan.estimateBytes(file));
+        } catch (IOException e) {
+            throw new HttpError(422, "无法识别图片: " + (e.getMessage() != null ? e.getMessage() : e));
+        }
+        if (bytes > admission.getBudgetBytes()) {
+            throw new HttpError(413, String.format(Locale.ROOT, "图片处理约需 %d MB 内存，超过服务的内存预算（%d MB）",
+                    bytes >> 20, admission.getBudgetBytes() >> 20));
+        }
+        if (admission.tryAcquire(bytes)) return bytes;
+        admission.enqueue(bytes);
+        try {
+            admission.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpError(503, "服务正在停止");
+        } finally {
+            admission.dequeue(bytes);
+        }
+        return bytes;
+    }
+
+    private void handleHealth(HttpExchange ex) throws IOException {
+        String json = String.format(Locale.ROOT,
+                "{\"workers\":%d,\"active\":%d,\"queued\":%d,\"queueCapacity\":%d,\"heapBudget\":%d,\"heapInUse\":%d,"
+                        + "\"served\":%d,\"rejected\":%d,\"failed\":%d}",
+                getWorkers(), getActiveRenders(), getQueueDepth(), queueCapacity, admission.getBudgetBytes(),
+                admission.getUsedBytes(), served.get(), rejected.get(), failed.get());
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    /** 按请求参数取模板（ID 或名称，不区分大小写）并应用输出覆盖参数，返回缓存的渲染计划 */
+    private RenderPlan plan(Map<String, String> q) throws HttpError, IOException {
+        WatermarkTemplate t = defaultTemplate;
+        String key = q.get("template");
+        if (key != null && !key.isEmpty()) {
+            t = null;
+            for (WatermarkTemplate candidate : templates().list) {
+                if (key.equals(candidate.id) || key.equalsIgnoreCase(candidate.name)) {
+                    t = candidate;
+                    break;
+                }
+            }
+            if (t == null) throw new HttpError(404, "找不到模板: " + key);
+        }
+        if (q.containsKey("format") || q.containsKey("quality") || q.containsKey("scale")
+                || q.containsKey("width") || q.containsKey("height")) {
+            t = TemplateManager.copyOf(t);
+            String format = q.get("format");
+            if (format != null) {
+                format = format.toUpperCase(Locale.ROOT);
+                if (format.equals("JPG")) format = "JPEG";
+                if (!format.equals("JPEG") && !format.equals("PNG")) throw new HttpError(400, "format 只支持 JPEG 或 PNG");
+                t.outputFormat = format;
+            }
+            if (q.containsKey("quality")) t.jpegQuality = intParam(q, "quality", 1, 100);
+            if (q.containsKey("scale")) t.scalePercent = intParam(q, "scale", 1, 1000);
+            if (q.containsKey("width")) t.targetWidth = intParam(q, "width", 0, 100_000);
+            if (q.containsKey("height")) t.targetHeight = intParam(q, "height", 0, 100_000);
+        }
+        PlanKey planKey = new PlanKey(WatermarkSpec.fromTemplate(t));
+        synchronized (plans) {
+            RenderPlan plan = plans.get(planKey);
+            if (plan != null) return plan;
+        }
+        RenderPlan plan = RenderPlan.compile(planKey.spec);
+        synchronized (plans) {
+            plans.put(planKey, plan);
+        }
+        return plan;
+    }
+
+    private Templates templates() {
+        Templates current = templates;
+        long modified = TemplateManager.getTemplatesFile().lastModified();
+        if (modified != current.lastModified) {
+            current = new Templates(modified, TemplateManager.loadTemplates());
+            templates = current;
+        }
+        return current;
+    }
+
+    // 只允许读取启动时指定的根目录之内的文件（按规范路径判断，防止 ../ 与符号链接越界）
+    private File resolvePath(String path) throws HttpError, IOException {
+        if (path == null || path.isEmpty()) throw new HttpError(400, "GET 请求需要 path 参数");
+        if (roots.isEmpty()) throw new HttpError(403, "服务未配置允许读取的文件夹");
+        File file = new File(path).getCanonicalFile();
+        boolean allowed = false;
+        for (Path root : roots) {
+            if (file.toPath().startsWith(root)) {
+                allowed = true;
+                break;
+            }
+        }
+        if (!allowed) throw new HttpError(403, "不允许读取该路径: " + path);
+        if (!file.isFile()) throw new HttpError(404, "文件不存在: " + path);
+        return file;
+    }
+
+    private static byte[] readBody(HttpExchange ex) throws HttpError, IOException {
+        String declared = ex.getRequestHeaders().getFirst("Content-Length");
+        if (declared != null) {
+            try {
+                if (Long.parseLong(declared.trim()) > MAX_UPLOAD_BYTES) throw new HttpError(413, "上传的图片超过大小上限");
+            } catch (NumberFormatException e) {
+                throw new HttpError(400, "Content-Length 无效");
+            }
+        }
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_UPLOAD_BYTES + 1);
+            if (body.length > MAX_UPLOAD_BYTES) throw new HttpError(413, "上传的图片超过大小上限");
+            if (body.length == 0) throw new HttpError(400, "请求体为空");
+            return body;
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> q = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null) return q;
+        for (String pair : raw.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String k = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String v = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            q.put(k, v);
+        }
+        return q;
+    }
+
+    private static int intParam(Map<String, String> q, String name, int min, int max) throws HttpError {
+        try {
+            int n = Integer.parseInt(q.get(name).trim());
+            if (n >= min && n <= max) return n;
+        } catch (NumberFormatException ignore) { }
+        throw new HttpError(400, name + " 取值范围 " + min + "-" + max);
+    }
+
+    private static void sendText(HttpExchange ex, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static class RenderThreadFactory implements java.util.concurrent.ThreadFactory {
+        private static final AtomicInteger SEQ = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "render-worker-" + SEQ.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
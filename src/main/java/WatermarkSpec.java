@@ -0,0 +1,160 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * 一次导出/预览所需的全部水印参数（不可变）。
+ * 由 {@link WatermarkTemplate} 转换而来，再由 {@link RenderPlan#compile(WatermarkSpec)} 编译为渲染计划。
+ */
+public final class WatermarkSpec {
+    public static final String CUSTOM = "CUSTOM";
+
+    final boolean textMode;
+    final String position; // 九宫格位置名或 CUSTOM
+    final int customX;     // 仅 CUSTOM，原图像素坐标（包围盒左上角）
+    final int customY;
+    final double rotationDegrees;
+
+    final int targetWidth;
+    final int targetHeight;
+    final double scale; // 1.0 为原始大小
+    final Resampler resampler;
+
+    final String namingRule;
+    final String prefix;
+    final String suffix;
+    final String outputFormat; // JPEG / PNG
+    final int jpegQuality;
+
+    final String text;
+    final String fontName;
+    final int fontSize;
+    final boolean bold;
+    final boolean italic;
+    final Color color;
+    final int textOpacity;
+    final boolean shadow;
+    final boolean stroke;
+
+    final String watermarkImagePath;
+    final double watermarkScale;
+    final int watermarkOpacity;
+
+    private WatermarkSpec(WatermarkTemplate t) {
+        textMode = !"IMAGE".equalsIgnoreCase(t.mode);
+        position = t.position != null ? t.position : "CENTER";
+        customX = t.customX != null ? t.customX : 0;
+        customY = t.customY != null ? t.customY : 0;
+        rotationDegrees = t.rotationDegrees;
+        targetWidth = Math.max(0, t.targetWidth);
+        targetHeight = Math.max(0, t.targetHeight);
+        scale = t.scalePercent > 0 ? t.scalePercent / 100.0 : 1.0;
+        resampler = Resampler.fromName(t.resampleMode);
+        namingRule = t.namingRule;
+        prefix = t.prefix != null ? t.prefix : "";
+        suffix = t.suffix != null ? t.suffix : "";
+        outputFormat = "PNG".equalsIgnoreCase(t.outputFormat) ? "PNG" : "JPEG";
+        jpegQuality = t.jpegQuality > 0 ? Math.min(100, t.jpegQuality) : 90;
+        text = t.text != null ? t.text : "";
+        fontName = t.fontName;
+        fontSize = t.fontSize > 0 ? t.fontSize : 150;
+        bold = t.bold;
+        italic = t.italic;
+        color = parseHexColor(t.color);
+        textOpacity = Math.max(0, Math.min(100, t.textOpacity));
+        shadow = t.shadow;
+        stroke = t.stroke;
+        watermarkImagePath = t.watermarkImagePath;
+        watermarkScale = t.watermarkScale > 0 ? t.watermarkScale : 0.5;
+        watermarkOpacity = Math.max(0, Math.min(100, t.watermarkOpacity));
+    }
+
+    public static WatermarkSpec fromTemplate(WatermarkTemplate t) {
+        return new WatermarkSpec(Objects.requireNonNull(t, "template"));
+    }
+
+    boolean isCustomPosition() {
+        return CUSTOM.equals(position);
+    }
+
+    PhotoWatermarkApp.WatermarkPosition gridPosition() {
+        try {
+            return PhotoWatermarkApp.WatermarkPosition.valueOf(position);
+        } catch (IllegalArgumentException e) {
+            return PhotoWatermarkApp.WatermarkPosition.CENTER;
+        }
+    }
+
+    /** 文字水印字体（"系统字体" 映射为 Arial，与历史导出保持一致） */
+    Font font() {
+        int style = (bold ? Font.BOLD : Font.PLAIN) | (italic ? Font.ITALIC : Font.PLAIN);
+        String name = (fontName == null || "系统字体".equals(fontName)) ? "Arial" : fontName;
+        return new Font(name, style, fontSize);
+    }
+
+    /** 按命名规则生成输出文件名 */
+    String outputFileName(File source) {
+        String baseName = source.getName();
+        String nameNoExt = baseName.contains(".") ? baseName.substring(0, baseName.lastIndexOf('.')) : baseName;
+        String outName = nameNoExt;
+        if ("添加前缀".equals(namingRule) || "添加前后缀".equals(namingRule)) {
+            outName = prefix + outName;
+        }
+        if ("添加后缀".equals(namingRule) || "添加前后缀".equals(namingRule)) {
+            outName = outName + suffix;
+        }
+        return outName + ("PNG".equals(outputFormat) ? ".png" : ".jpg");
+    }
+
+    /** 全部参数的规范文本形式（默认值已展开），用作增量导出指纹的一部分；新增字段时需同步 */
+    String canonicalForm() {
+        return String.join("\n",
+                "textMode=" + textMode, "position=" + position, "custom=" + customX + "," + customY,
+                "rotation=" + rotationDegrees, "target=" + targetWidth + "x" + targetHeight, "scale=" + scale,
+                "resampler=" + resampler, "naming=" + namingRule, "prefix=" + prefix, "suffix=" + suffix,
+                "format=" + outputFormat, "quality=" + jpegQuality, "text=" + text, "font=" + fontName,
+                "fontSize=" + fontSize, "bold=" + bold, "italic=" + italic,
+                "color=" + Integer.toHexString(color.getRGB()), "textOpacity=" + textOpacity,
+                "shadow=" + shadow, "stroke=" + stroke, "image=" + watermarkImagePath,
+                "imageScale=" + watermarkScale, "imageOpacity=" + watermarkOpacity);
+    }
+
+    private static Color parseHexColor(String hex) {
+        if (hex == null) return Color.BLACK;
+        String h = hex.trim();
+        if (h.startsWith("#")) h = h.substring(1);
+        try {
+            if (h.length() == 6) return new Color(Integer.parseInt(h, 16));
+        } catch (NumberFormatException ignore) { }
+        return Color.BLACK;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof WatermarkSpec)) return false;
+        WatermarkSpec s = (WatermarkSpec) o;
+        return textMode == s.textMode && customX == s.customX && customY == s.customY
+                && Double.compare(rotationDegrees, s.rotationDegrees) == 0
+                && targetWidth == s.targetWidth && targetHeight == s.targetHeight
+                && Double.compare(scale, s.scale) == 0 && resampler == s.resampler
+                && jpegQuality == s.jpegQuality && fontSize == s.fontSize
+                && bold == s.bold && italic == s.italic && textOpacity == s.textOpacity
+                && shadow == s.shadow && stroke == s.stroke
+                && Double.compare(watermarkScale, s.watermarkScale) == 0
+                && watermarkOpacity == s.watermarkOpacity
+                && position.equals(s.position) && Objects.equals(namingRule, s.namingRule)
+                && prefix.equals(s.prefix) && suffix.equals(s.suffix)
+                && outputFormat.equals(s.outputFormat) && text.equals(s.text)
+                && Objects.equals(fontName, s.fontName) && color.equals(s.color)
+                && Objects.equals(watermarkImagePath, s.watermarkImagePath);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(textMode, position, customX, customY, rotationDegrees, targetWidth, targetHeight, scale, resampler,
+                namingRule, prefix, suffix, outputFormat, jpegQuality, text, fontName, fontSize, bold, italic,
+                color, textOpacity, shadow, stroke, watermarkImagePath, watermarkScale, watermarkOpacity);
+    }
+}
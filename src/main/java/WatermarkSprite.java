@@ -0,0 +1,147 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预先栅格化的水印（已包含阴影、描边与旋转），每张图片只需一次 drawImage 合成。
+ * 位置计算仍使用未旋转的包围盒（boxWidth x boxHeight），绘制时按 offsetX/offsetY 平移。
+ */
+final class WatermarkSprite {
+    final BufferedImage image;  // TYPE_INT_ARGB_PRE
+    final int boxWidth;         // 未旋转包围盒宽（文字为字符串宽度）
+    final int boxHeight;        // 未旋转包围盒高（文字为 ascent）
+    final int offsetX;          // 精灵左上角相对包围盒左上角的偏移
+    final int offsetY;
+
+    WatermarkSprite(BufferedImage image, int boxWidth, int boxHeight, int offsetX, int offsetY) {
+        this.image = image;
+        this.boxWidth = boxWidth;
+        this.boxHeight = boxHeight;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+    }
+
+    /** 把包围盒左上角放在 (x, y) 时精灵在目标图上的区域 */
+    Rectangle bounds(int x, int y) {
+        return new Rectangle(x + offsetX, y + offsetY, image.getWidth(), image.getHeight());
+    }
+
+    void draw(Graphics2D g, int x, int y) {
+        g.drawImage(image, x + offsetX, y + offsetY, null);
+    }
+
+    // ---- 文字精灵 ----
+
+    private static final int CACHE_SIZE = 64;
+    private static final Map<TextStyle, WatermarkSprite> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<TextStyle, WatermarkSprite> e) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    /** 按样式键（含最终文本）取缓存的文字精灵，未命中时渲染一次 */
+    static WatermarkSprite text(String text, Font font, Color textColor, Color shadowColor,
+                                boolean shadow, boolean stroke, double rotationDegrees) {
+        TextStyle key = new TextStyle(text, font, textColor, shadowColor, shadow, stroke, rotationDegrees);
+        synchronized (CACHE) {
+            WatermarkSprite s = CACHE.get(key);
+            if (s != null) {
+                HITS.incrementAndGet();
+                return s;
+            }
+        }
+        MISSES.incrementAndGet();
+        WatermarkSprite s = renderText(key);
+        synchronized (CACHE) {
+            CACHE.put(key, s);
+        }
+        return s;
+    }
+
+    static long cacheHits() { return HITS.get(); }
+    static long cacheMisses() { return MISSES.get(); }
+
+    static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    private static WatermarkSprite renderText(TextStyle k) {
+        // 度量：与直接在目标图上 drawString 时相同的提示
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D mg = scratch.createGraphics();
+        mg.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        mg.setFont(k.font);
+        FontMetrics fm = mg.getFontMetrics();
+        int tw = fm.stringWidth(k.text);
+        int ascent = fm.getAscent();
+        int descent = fm.getDescent();
+        Rectangle2D glyphs = k.font.createGlyphVector(mg.getFontRenderContext(), k.text).getVisualBounds();
+        mg.dispose();
+
+        // 局部坐标：包围盒左上角为原点，基线在 y = ascent
+        Rectangle2D local = new Rectangle2D.Double(0, 0, Math.max(1, tw), ascent + descent);
+        if (!glyphs.isEmpty()) {
+            local.add(new Rectangle2D.Double(glyphs.getX(), glyphs.getY() + ascent, glyphs.getWidth(), glyphs.getHeight()));
+        }
+        // 阴影 (+2,+2)、描边 (-1,-1) 以及抗锯齿余量
+        local.setRect(local.getX() - 3, local.getY() - 3, local.getWidth() + 7, local.getHeight() + 7);
+
+        AffineTransform rot = AffineTransform.getRotateInstance(Math.toRadians(k.rotationDegrees), tw / 2.0, ascent / 2.0);
+        Rectangle b = rot.createTransformedShape(local).getBounds();
+        BufferedImage img = new BufferedImage(Math.max(1, b.width), Math.max(1, b.height), BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.translate(-b.x, -b.y);
+        g.transform(rot);
+        g.setFont(k.font);
+        if (k.shadow) {
+            g.setColor(k.shadowColor);
+            g.drawString(k.text, 2, ascent + 2);
+        }
+        if (k.stroke) {
+            g.setColor(Color.WHITE);
+            g.drawString(k.text, -1, ascent - 1);
+        }
+        g.setColor(k.textColor);
+        g.drawString(k.text, 0, ascent);
+        g.dispose();
+        return new WatermarkSprite(img, tw, ascent, b.x, b.y);
+    }
+
+    /** 文字精灵的缓存键 */
+    private static final class TextStyle {
+        final String text;
+        final Font font;
+        final Color textColor;
+        final Color shadowColor;
+        final boolean shadow;
+        final boolean stroke;
+        final double rotationDegrees;
+
+        TextStyle(String text, Font font, Color textColor, Color shadowColor, boolean shadow, boolean stroke, double rotationDegrees) {
+            this.text = text; this.font = font; this.textColor = textColor; this.shadowColor = shadowColor;
+            this.shadow = shadow; this.stroke = stroke; this.rotationDegrees = rotationDegrees;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof TextStyle)) return false;
+            TextStyle s = (TextStyle) o;
+            return shadow == s.shadow && stroke == s.stroke && Double.compare(rotationDegrees, s.rotationDegrees) == 0
+                    && text.equals(s.text) && font.equals(s.font) && textColor.equals(s.textColor)
+                    && shadowColor.equals(s.shadowColor);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(text, font, textColor, shadowColor, shadow, stroke, rotationDegrees);
+        }
+    }
+}